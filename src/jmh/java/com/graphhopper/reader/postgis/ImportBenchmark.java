@@ -0,0 +1,165 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import org.geotools.data.DataStore;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Imports synthetic road networks end-to-end through {@link OSMPostgisReader} and prints the wall time, rows/s,
+ * edges/s and peak heap of every phase. The rows come from a {@link SyntheticDataStore}, so no database is needed
+ * and the results of different releases can be compared:
+ * <pre>
+ * mvn clean package -P benchmark -DskipTests
+ * java -Xmx16g -cp target/benchmarks.jar com.graphhopper.reader.postgis.ImportBenchmark points=1000000,10000000
+ * </pre>
+ * The arguments are key=value pairs: points is a comma separated list of network sizes (default 1000000), layout is
+ * grid or random (default random), pillars the number of pillars between two crossings (default 3) and seed the
+ * seed of the random layout (default 42). All other arguments are passed to the reader like the db.* config keys,
+ * e.g. single_scan=true or coord_state=mmap.
+ *
+ * @author Robin Boldt
+ */
+public final class ImportBenchmark {
+
+    private static final double MB = 1 << 20;
+
+    private final SyntheticRoads roads;
+    private final SyntheticDataStore store;
+    private final GraphHopperStorage storage;
+    private final OSMPostgisReader reader;
+    private final List<String> results = new ArrayList<>();
+    private long maxPeakHeap;
+
+    private ImportBenchmark(SyntheticRoads roads, Map<String, String> params) {
+        this.roads = roads;
+        this.store = new SyntheticDataStore(roads);
+        this.storage = new GraphBuilder(EncodingManager.create("car")).build();
+        this.reader = new OSMPostgisReader(storage, params) {
+            @Override
+            protected DataStore openPostGisStore() {
+                return store;
+            }
+
+            @Override
+            void processJunctions() {
+                measure("junctions", super::processJunctions);
+            }
+
+            @Override
+            void processRoads() {
+                measure("roads", super::processRoads);
+            }
+        };
+        reader.setFile(new File(SyntheticRoads.TYPE.getTypeName()));
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index < 0)
+                throw new IllegalArgumentException("Arguments have to be key=value pairs, but was " + arg);
+            params.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        String points = remove(params, "points", "1000000");
+        SyntheticRoads.Layout layout = SyntheticRoads.Layout.valueOf(remove(params, "layout", "random").toUpperCase(Locale.ROOT));
+        int pillars = Integer.parseInt(remove(params, "pillars", "3"));
+        long seed = Long.parseLong(remove(params, "seed", "42"));
+
+        for (String count : points.split(",")) {
+            int size = SyntheticRoads.getSize(Long.parseLong(count.trim()), pillars);
+            new ImportBenchmark(new SyntheticRoads(layout, size, pillars, seed), params).run(layout);
+        }
+    }
+
+    private static String remove(Map<String, String> params, String key, String defaultValue) {
+        String value = params.remove(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private void run(SyntheticRoads.Layout layout) {
+        System.gc();
+        resetPeakHeap();
+        long start = System.nanoTime();
+        reader.readGraph();
+        long nanos = System.nanoTime() - start;
+        maxPeakHeap = Math.max(maxPeakHeap, getPeakHeap());
+        results.add(format("total", nanos, store.getRowsRead(), storage.getEdges(), maxPeakHeap));
+
+        System.out.printf(Locale.ROOT, "%n%s network with %,d roads, %,d points, %,d nodes and %,d edges%n",
+                layout.name().toLowerCase(Locale.ROOT), roads.getRoadCount(), store.getPointsRead(),
+                storage.getNodes(), storage.getEdges());
+        System.out.printf(Locale.ROOT, "%-10s %10s %14s %12s %14s %12s %15s%n",
+                "phase", "time [s]", "rows", "rows/s", "edges", "edges/s", "peak heap [MB]");
+        for (String result : results) {
+            System.out.println(result);
+        }
+        storage.close();
+    }
+
+    private void measure(String phase, Runnable runnable) {
+        resetPeakHeap();
+        long rows = store.getRowsRead();
+        int edges = storage.getEdges();
+        long start = System.nanoTime();
+        runnable.run();
+        long nanos = System.nanoTime() - start;
+        long peakHeap = getPeakHeap();
+        maxPeakHeap = Math.max(maxPeakHeap, peakHeap);
+        results.add(format(phase, nanos, store.getRowsRead() - rows, storage.getEdges() - edges, peakHeap));
+    }
+
+    private static String format(String phase, long nanos, long rows, long edges, long peakHeap) {
+        double seconds = nanos / 1e9;
+        return String.format(Locale.ROOT, "%-10s %10.2f %,14d %,12.0f %,14d %,12.0f %,15.0f",
+                phase, seconds, rows, rows / seconds, edges, edges / seconds, peakHeap / MB);
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return the sum of the peaks of all heap pools since the last reset, which can be a bit more than the real
+     * peak as the pools do not peak at the same time
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
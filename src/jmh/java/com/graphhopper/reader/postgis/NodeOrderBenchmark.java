@@ -0,0 +1,179 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.Dijkstra;
+import com.graphhopper.routing.ch.PrepareContractionHierarchies;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.FastestWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.CHConfig;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.storage.NodeAccess;
+import com.graphhopper.util.shapes.BBox;
+import org.geotools.data.DataStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the node orders of db.node_order on a synthetic network whose rows are read in a scattered order, like
+ * from a table that is not clustered spatially. It measures the latency of route queries and the time of the CH
+ * preparation:
+ * <pre>
+ * mvn clean package -P benchmark -DskipTests
+ * java -jar target/benchmarks.jar NodeOrderBenchmark
+ * </pre>
+ *
+ * @author Robin Boldt
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NodeOrderBenchmark {
+
+    private static final int QUERIES = 20;
+
+    @Param({"input", "hilbert"})
+    public String nodeOrder;
+
+    /**
+     * The grid has gridSize * gridSize crossings, see {@link SyntheticRoads}.
+     */
+    @Param({"300"})
+    public int gridSize;
+
+    @Param({"true"})
+    public boolean shuffled;
+
+    private GraphHopperStorage graph;
+    private Weighting weighting;
+    private final int[] from = new int[QUERIES];
+    private final int[] to = new int[QUERIES];
+
+    @Setup
+    public void setUp() {
+        EncodingManager em = EncodingManager.create("car");
+        weighting = new FastestWeighting(em.getEncoder("car"));
+        graph = importGraph(new GraphBuilder(em).build());
+
+        // the same places for both node orders, so the routes are the same
+        Random random = new Random(42);
+        BBox bounds = graph.getBounds();
+        for (int i = 0; i < QUERIES; i++) {
+            from[i] = findClosestNode(bounds, random);
+            to[i] = findClosestNode(bounds, random);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        graph.close();
+    }
+
+    private GraphHopperStorage importGraph(GraphHopperStorage storage) {
+        SyntheticDataStore store = new SyntheticDataStore(
+                new SyntheticRoads(SyntheticRoads.Layout.RANDOM, gridSize, 3, 42), shuffled);
+        Map<String, String> params = new HashMap<>();
+        params.put("node_order", nodeOrder);
+        OSMPostgisReader reader = new OSMPostgisReader(storage, params) {
+            @Override
+            protected DataStore openPostGisStore() {
+                return store;
+            }
+        };
+        reader.setFile(new File(SyntheticRoads.TYPE.getTypeName()));
+        reader.readGraph();
+        return storage;
+    }
+
+    private int findClosestNode(BBox bounds, Random random) {
+        double lat = bounds.minLat + random.nextDouble() * (bounds.maxLat - bounds.minLat);
+        double lon = bounds.minLon + random.nextDouble() * (bounds.maxLon - bounds.minLon);
+        NodeAccess nodeAccess = graph.getNodeAccess();
+        int closest = -1;
+        double closestDist = Double.MAX_VALUE;
+        // node 0 is not used by the reader
+        for (int node = 1; node < graph.getNodes(); node++) {
+            double dLat = nodeAccess.getLat(node) - lat;
+            double dLon = nodeAccess.getLon(node) - lon;
+            double dist = dLat * dLat + dLon * dLon;
+            if (dist < closestDist) {
+                closest = node;
+                closestDist = dist;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * A fresh graph with a CH profile, as the preparation changes the graph.
+     */
+    @State(Scope.Thread)
+    public static class Preparation {
+        GraphHopperStorage graph;
+        CHConfig chConfig;
+
+        @Setup(Level.Invocation)
+        public void setUp(NodeOrderBenchmark benchmark) {
+            EncodingManager em = EncodingManager.create("car");
+            chConfig = CHConfig.nodeBased("car", new FastestWeighting(em.getEncoder("car")));
+            graph = benchmark.importGraph(new GraphBuilder(em).setCHConfigs(chConfig).build());
+            graph.freeze();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            graph.close();
+        }
+    }
+
+    /**
+     * Dijkstra queries on the base graph, which touch many nodes and edges per query.
+     */
+    @Benchmark
+    public double route() {
+        double distance = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            distance += new Dijkstra(graph, weighting, TraversalMode.NODE_BASED).calcPath(from[i], to[i]).getDistance();
+        }
+        return distance;
+    }
+
+    /**
+     * The node contraction, which is sensitive to the node order as well.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public PrepareContractionHierarchies prepareCH(Preparation state) {
+        PrepareContractionHierarchies preparation = PrepareContractionHierarchies.fromGraphHopperStorage(state.graph, state.chConfig);
+        preparation.doWork();
+        return preparation;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.util.PointList;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBWriter;
+import org.geotools.feature.FeatureIterator;
+import org.openjdk.jmh.annotations.*;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU cost of the hot paths of the reader on a synthetic grid, without a database:
+ * <pre>
+ * mvn clean package -P benchmark -DskipTests
+ * java -jar target/benchmarks.jar OSMPostgisReaderBenchmark
+ * </pre>
+ *
+ * @author Robin Boldt
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OSMPostgisReaderBenchmark {
+
+    /**
+     * The grid has gridSize * gridSize crossings, see {@link SyntheticRoads}.
+     */
+    @Param({"100"})
+    public int gridSize;
+
+    @Param({"3"})
+    public int pillars;
+
+    private List<SimpleFeature> features;
+    private List<RoadRecord> roads;
+    private byte[][] wkbs;
+    private OSMPostgisReader reader;
+
+    @Setup
+    public void setUp() {
+        features = new SyntheticRoads(SyntheticRoads.Layout.GRID, gridSize, pillars, 0).createAll();
+        reader = createReader();
+        roads = new ArrayList<>(features.size());
+        try (RoadIterator iterator = reader.new FeatureRoadIterator(new ListFeatureIterator(features), false, false)) {
+            RoadRecord road;
+            while ((road = iterator.next()) != null) {
+                roads.add(road);
+            }
+        }
+        WKBWriter writer = new WKBWriter(2);
+        wkbs = new byte[features.size()][];
+        for (int i = 0; i < features.size(); i++) {
+            wkbs[i] = writer.write((Geometry) features.get(i).getDefaultGeometry());
+        }
+    }
+
+    private static OSMPostgisReader createReader() {
+        GraphHopperStorage storage = new GraphBuilder(EncodingManager.create("car")).create();
+        OSMPostgisReader reader = new OSMPostgisReader(storage, new HashMap<>());
+        reader.setFile(new File(SyntheticRoads.TYPE.getTypeName()));
+        return reader;
+    }
+
+    /**
+     * A reader before the junction pass.
+     */
+    @State(Scope.Thread)
+    public static class EmptyReader {
+        OSMPostgisReader reader;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            reader = createReader();
+        }
+    }
+
+    /**
+     * A reader after the junction pass, which can create the edges.
+     */
+    @State(Scope.Thread)
+    public static class JunctionReader {
+        OSMPostgisReader reader;
+
+        @Setup(Level.Invocation)
+        public void setUp(OSMPostgisReaderBenchmark benchmark) {
+            reader = createReader();
+            detectJunctions(reader, benchmark.roads);
+        }
+    }
+
+    private static void detectJunctions(OSMPostgisReader reader, List<RoadRecord> roads) {
+        for (RoadRecord road : roads) {
+            for (int p = 0; p < road.getPartCount(); p++) {
+                reader.processJunctionPoints(road.getPart(p));
+            }
+        }
+    }
+
+    /**
+     * The junction pass on the coordinate state map.
+     */
+    @Benchmark
+    public OSMPostgisReader junctionDetection(EmptyReader state) {
+        detectJunctions(state.reader, roads);
+        return state.reader;
+    }
+
+    /**
+     * The road pass: tag mapping, encoding and edge creation.
+     */
+    @Benchmark
+    public GraphHopperStorage createEdges(JunctionReader state) {
+        for (RoadRecord road : roads) {
+            state.reader.processRoad(road);
+        }
+        return state.reader.getGraphHopperStorage();
+    }
+
+    /**
+     * Decoding and rounding the features of the GeoTools backend.
+     */
+    @Benchmark
+    public int decodeFeatures() {
+        int points = 0;
+        try (RoadIterator iterator = reader.new FeatureRoadIterator(new ListFeatureIterator(features), true, false)) {
+            RoadRecord road;
+            while ((road = iterator.next()) != null) {
+                points += road.getPart(0).size();
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Decoding and rounding the WKB of the jdbc backend.
+     */
+    @Benchmark
+    public int decodeWkb() {
+        WkbReader wkbReader = new WkbReader();
+        RoadRecord road = new RoadRecord(0);
+        int points = 0;
+        for (byte[] wkb : wkbs) {
+            road.clear();
+            wkbReader.read(wkb, road);
+            points += road.getPart(0).size();
+        }
+        return points;
+    }
+
+    /**
+     * The coordinates of LineStrings and MultiLineStrings for subclasses that still use the deprecated getCoords,
+     * to compare it with the decoders above.
+     */
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public int getCoords() {
+        int points = 0;
+        for (SimpleFeature feature : features) {
+            for (Coordinate[] coordinates : reader.getCoords(feature)) {
+                points += coordinates.length;
+            }
+        }
+        return points;
+    }
+
+    @Benchmark
+    public double wayLength() {
+        double length = 0;
+        for (RoadRecord road : roads) {
+            for (int p = 0; p < road.getPartCount(); p++) {
+                PointList points = road.getPart(p);
+                length += reader.getWayLength(points, 0, points.size() - 1);
+            }
+        }
+        return length;
+    }
+
+    private static final class ListFeatureIterator implements FeatureIterator<SimpleFeature> {
+        private final Iterator<SimpleFeature> iterator;
+
+        ListFeatureIterator(List<SimpleFeature> features) {
+            this.iterator = features.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public SimpleFeature next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.vividsolutions.jts.geom.Geometry;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentDataStore;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.feature.NameImpl;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only DataStore with a single roads table, whose rows are created by {@link SyntheticRoads} while they are
+ * read. Unlike a MemoryDataStore it needs no memory for the rows, so it can stand in for tables with hundreds of
+ * millions of points. Filters, the selection of columns and sorting are left to GeoTools, like for a store that
+ * cannot do them natively.
+ *
+ * @author Robin Boldt
+ */
+final class SyntheticDataStore extends ContentDataStore {
+
+    private final SyntheticRoads roads;
+    // the rows are returned in the order index * step modulo the road count
+    private final long step;
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong pointsRead = new AtomicLong();
+
+    SyntheticDataStore(SyntheticRoads roads) {
+        this(roads, false);
+    }
+
+    /**
+     * @param shuffled if true the rows are returned in a scattered but fixed order, like from a table that is not
+     *                 clustered spatially, otherwise row by row
+     */
+    SyntheticDataStore(SyntheticRoads roads, boolean shuffled) {
+        this.roads = roads;
+        this.step = shuffled ? createStep(roads.getRoadCount()) : 1;
+    }
+
+    /**
+     * @return a step near the golden ratio of the count without a common divisor, so that every row is visited once
+     */
+    private static long createStep(int count) {
+        long step = Math.max(1, (long) (count * 0.618));
+        while (gcd(step, count) != 1) {
+            step++;
+        }
+        return step;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /**
+     * @return the rows that were read so far, over all queries
+     */
+    long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    /**
+     * @return the points of the rows that were read so far, over all queries
+     */
+    long getPointsRead() {
+        return pointsRead.get();
+    }
+
+    @Override
+    protected List<Name> createTypeNames() {
+        return Collections.singletonList(new NameImpl(SyntheticRoads.TYPE.getTypeName()));
+    }
+
+    @Override
+    protected ContentFeatureSource createFeatureSource(ContentEntry entry) {
+        return new RoadSource(entry);
+    }
+
+    private final class RoadSource extends ContentFeatureSource {
+
+        RoadSource(ContentEntry entry) {
+            super(entry, Query.ALL);
+        }
+
+        @Override
+        protected SimpleFeatureType buildFeatureType() {
+            return SyntheticRoads.TYPE;
+        }
+
+        @Override
+        protected ReferencedEnvelope getBoundsInternal(Query query) {
+            // not cheap to compute, GeoTools reads all rows instead
+            return null;
+        }
+
+        @Override
+        protected int getCountInternal(Query query) {
+            return query.getFilter() == Filter.INCLUDE ? roads.getRoadCount() : -1;
+        }
+
+        @Override
+        protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query) {
+            return new RoadReader();
+        }
+    }
+
+    private final class RoadReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+        private int index;
+
+        @Override
+        public SimpleFeatureType getFeatureType() {
+            return SyntheticRoads.TYPE;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < roads.getRoadCount();
+        }
+
+        @Override
+        public SimpleFeature next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            SimpleFeature road = roads.createRoad((int) (index++ * step % roads.getRoadCount()));
+            rowsRead.incrementAndGet();
+            pointsRead.addAndGet(((Geometry) road.getDefaultGeometry()).getNumPoints());
+            return road;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates deterministic road networks with the columns of the roads table, so the reader can be measured without
+ * a database. Every road is created from its index alone, so even networks that do not fit into memory can be
+ * streamed.
+ * <p>
+ * The network is a grid of size x size crossings. Every row and every column is split into roads that span
+ * {@value #ROAD_CROSSINGS} crossings, with the configured number of pillars between two crossings. In addition:
+ * <ul>
+ * <li>every tenth road is a MultiLineString of two lines that share a crossing</li>
+ * <li>every {@value #DUPLICATE_EVERY}th road repeats a point, like badly digitised data</li>
+ * <li>every {@value #ROUNDABOUT_EVERY}th crossing gets a closed roundabout that starts and ends at the crossing</li>
+ * </ul>
+ *
+ * @author Robin Boldt
+ */
+final class SyntheticRoads {
+
+    enum Layout {
+        /**
+         * All crossings on a regular grid.
+         */
+        GRID,
+        /**
+         * The crossings are moved randomly, but less than half the spacing, so the network stays planar.
+         */
+        RANDOM
+    }
+
+    static final SimpleFeatureType TYPE = createType();
+
+    static final int ROAD_CROSSINGS = 10;
+    static final int DUPLICATE_EVERY = 50;
+    static final int ROUNDABOUT_EVERY = 97;
+    private static final int ROUNDABOUT_POINTS = 8;
+    private static final double ORIGIN_LAT = 50;
+    private static final double ORIGIN_LON = 10;
+    // about 110m between two crossings
+    private static final double SPACING = 0.001;
+    // the pillars zigzag a bit, so they are not on a straight line
+    private static final double PILLAR_OFFSET = 0.00002;
+    private static final double JITTER = 0.3 * SPACING;
+    private static final double ROUNDABOUT_RADIUS = 0.15 * SPACING;
+    private static final String[] FCLASSES = {"primary", "secondary", "residential", "service"};
+    private static final Integer[] MAX_SPEEDS = {0, 30, 50, 100};
+    private static final String[] ONEWAYS = {"B", "F", "T", "B"};
+
+    private final GeometryFactory factory = new GeometryFactory();
+    private final Layout layout;
+    private final int size;
+    private final int pillars;
+    private final long seed;
+    private final int roadsPerLine;
+    private final int gridRoads;
+    private final int roundabouts;
+
+    /**
+     * @param size    the number of crossings in every row and column
+     * @param pillars the number of pillars between two crossings
+     * @param seed    the seed of the random layout
+     */
+    SyntheticRoads(Layout layout, int size, int pillars, long seed) {
+        if (size < 2)
+            throw new IllegalArgumentException("The grid needs at least 2x2 crossings, but was " + size);
+        long roads = 2L * size * ((size - 2) / ROAD_CROSSINGS + 1);
+        if (roads > Integer.MAX_VALUE / 2)
+            throw new IllegalArgumentException("The grid size " + size + " is too large");
+        this.layout = layout;
+        this.size = size;
+        this.pillars = pillars;
+        this.seed = seed;
+        this.roadsPerLine = (size - 2) / ROAD_CROSSINGS + 1;
+        this.gridRoads = (int) roads;
+        this.roundabouts = (int) (((long) size * size + ROUNDABOUT_EVERY - 1) / ROUNDABOUT_EVERY);
+    }
+
+    /**
+     * @return the grid size of a network with about the specified number of points
+     */
+    static int getSize(long points, int pillars) {
+        return (int) Math.max(2, Math.ceil(Math.sqrt(points / (2.0 * (pillars + 1)))));
+    }
+
+    int getRoadCount() {
+        return gridRoads + roundabouts;
+    }
+
+    List<SimpleFeature> createAll() {
+        List<SimpleFeature> roads = new ArrayList<>(getRoadCount());
+        for (int i = 0; i < getRoadCount(); i++) {
+            roads.add(createRoad(i));
+        }
+        return roads;
+    }
+
+    /**
+     * @return the road with the specified index, its osm_id is index + 1
+     */
+    SimpleFeature createRoad(int index) {
+        long osmId = index + 1;
+        if (index >= gridRoads)
+            return createRoad(osmId, createRoundabout(index - gridRoads), 0, "F");
+
+        int direction = index / (size * roadsPerLine);
+        int line = index % (size * roadsPerLine) / roadsPerLine;
+        int from = index % roadsPerLine * ROAD_CROSSINGS;
+        int to = Math.min(size - 1, from + ROAD_CROSSINGS);
+        int splitCrossing = osmId % 10 == 0 && to - from >= 2 ? from + (to - from) / 2 : -1;
+        int splitIndex = -1;
+
+        List<Coordinate> coordinates = new ArrayList<>((to - from) * (pillars + 1) + 2);
+        for (int crossing = from; crossing <= to; crossing++) {
+            if (crossing == splitCrossing)
+                splitIndex = coordinates.size();
+            Coordinate start = getCrossing(direction, line, crossing);
+            coordinates.add(start);
+            if (crossing == to)
+                break;
+
+            Coordinate end = getCrossing(direction, line, crossing + 1);
+            for (int pillar = 1; pillar <= pillars; pillar++) {
+                double fraction = (double) pillar / (pillars + 1);
+                double offset = pillar % 2 == 0 ? PILLAR_OFFSET : -PILLAR_OFFSET;
+                double lat = start.y + fraction * (end.y - start.y) + (direction == 0 ? offset : 0);
+                double lon = start.x + fraction * (end.x - start.x) + (direction == 0 ? 0 : offset);
+                coordinates.add(new Coordinate(lon, lat));
+                if (pillar == 1 && crossing == from && osmId % DUPLICATE_EVERY == 0)
+                    coordinates.add(new Coordinate(lon, lat));
+            }
+        }
+
+        Geometry geometry;
+        if (splitIndex > 0) {
+            geometry = factory.createMultiLineString(new LineString[]{
+                    factory.createLineString(coordinates.subList(0, splitIndex + 1).toArray(new Coordinate[0])),
+                    factory.createLineString(coordinates.subList(splitIndex, coordinates.size()).toArray(new Coordinate[0]))});
+        } else {
+            geometry = factory.createLineString(coordinates.toArray(new Coordinate[0]));
+        }
+        int variant = (int) (osmId % FCLASSES.length);
+        return createRoad(osmId, geometry, variant, ONEWAYS[variant]);
+    }
+
+    /**
+     * A closed ring east of the crossing that starts and ends at the crossing.
+     */
+    private Geometry createRoundabout(int roundabout) {
+        long crossing = (long) roundabout * ROUNDABOUT_EVERY;
+        Coordinate start = getCrossing(0, (int) (crossing / size), (int) (crossing % size));
+        Coordinate[] coordinates = new Coordinate[ROUNDABOUT_POINTS + 1];
+        coordinates[0] = start;
+        for (int i = 1; i < ROUNDABOUT_POINTS; i++) {
+            double angle = Math.PI + 2 * Math.PI * i / ROUNDABOUT_POINTS;
+            coordinates[i] = new Coordinate(start.x + ROUNDABOUT_RADIUS * (1 + Math.cos(angle)),
+                    start.y + ROUNDABOUT_RADIUS * Math.sin(angle));
+        }
+        coordinates[ROUNDABOUT_POINTS] = start;
+        return factory.createLineString(coordinates);
+    }
+
+    /**
+     * @param direction 0 for a row, 1 for a column
+     */
+    private Coordinate getCrossing(int direction, int line, int crossing) {
+        int row = direction == 0 ? line : crossing;
+        int column = direction == 0 ? crossing : line;
+        double lat = ORIGIN_LAT + row * SPACING;
+        double lon = ORIGIN_LON + column * SPACING;
+        if (layout == Layout.RANDOM) {
+            long hash = mix(seed ^ mix(row * 0x9E3779B97F4A7C15L ^ column));
+            lat += ((hash & 0xFFFF) / (double) 0xFFFF - 0.5) * 2 * JITTER;
+            lon += ((hash >>> 16 & 0xFFFF) / (double) 0xFFFF - 0.5) * 2 * JITTER;
+        }
+        return new Coordinate(lon, lat);
+    }
+
+    private static long mix(long value) {
+        // the finalizer of SplitMix64
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * @param variant selects the fclass and maxspeed of the road
+     */
+    private static SimpleFeature createRoad(long osmId, Geometry geometry, int variant, String oneway) {
+        return SimpleFeatureBuilder.build(TYPE, new Object[]{geometry, osmId, FCLASSES[variant],
+                MAX_SPEEDS[variant], oneway}, "roads." + osmId);
+    }
+
+    private static SimpleFeatureType createType() {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("roads");
+        builder.setCRS(DefaultGeographicCRS.WGS84);
+        builder.add("the_geom", Geometry.class);
+        builder.add("osm_id", Long.class);
+        builder.add("fclass", String.class);
+        builder.add("maxspeed", Integer.class);
+        builder.add("oneway", String.class);
+        return builder.buildFeatureType();
+    }
+}
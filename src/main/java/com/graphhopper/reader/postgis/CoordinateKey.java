@@ -0,0 +1,60 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+/**
+ * Packs a WGS84 coordinate that is rounded to 6 decimals into a single non-negative long. The latitude is stored
+ * in the upper and the longitude in the lower 29 bits, so the natural order of the keys is latitude-major. Only
+ * the lowest 57 bits are used.
+ *
+ * @author Robin Boldt
+ */
+final class CoordinateKey {
+
+    static final double FACTOR = 1e6;
+    static final int KEY_BITS = 57;
+    private static final int LON_BITS = 29;
+    private static final long LON_MASK = (1L << LON_BITS) - 1;
+    private static final long LAT_OFFSET = 90_000_000L;
+    private static final long LON_OFFSET = 180_000_000L;
+
+    private CoordinateKey() {
+    }
+
+    static long toKey(double lat, double lon) {
+        long fixedLat = Math.round(lat * FACTOR) + LAT_OFFSET;
+        long fixedLon = Math.round(lon * FACTOR) + LON_OFFSET;
+        if (fixedLat < 0 || fixedLat > 2 * LAT_OFFSET || fixedLon < 0 || fixedLon > 2 * LON_OFFSET)
+            throw new IllegalArgumentException("Coordinate " + lat + "," + lon + " is out of range, the geometry has to be in WGS84");
+        return fixedLat << LON_BITS | fixedLon;
+    }
+
+    /**
+     * @return the latitude of the key, which is identical to Helper.round6 of the original latitude
+     */
+    static double lat(long key) {
+        return ((key >>> LON_BITS) - LAT_OFFSET) / FACTOR;
+    }
+
+    /**
+     * @return the longitude of the key, which is identical to Helper.round6 of the original longitude
+     */
+    static double lon(long key) {
+        return ((key & LON_MASK) - LON_OFFSET) / FACTOR;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.carrotsearch.hppc.procedures.LongIntProcedure;
+import com.graphhopper.storage.DAType;
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.GHDirectory;
+import com.graphhopper.util.Helper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Open addressing hash map from a {@link CoordinateKey} to an int state, i.e. a tower node id or a pillar marker.
+ * Every slot takes 12 bytes in a DataAccess, so there is no object per coordinate. The DataAccess lives either on
+ * the heap or in a memory mapped temporary file.
+ *
+ * @author Robin Boldt
+ */
+final class CoordinateStateMap implements Closeable {
+
+    private static final int SLOT_BYTES = 12;
+    private static final double LOAD_FACTOR = 0.75;
+    private static final int COPY_BYTES = 1 << 12;
+
+    private final File folder;
+    private final Directory dir;
+    private DataAccess slots;
+    private int generation;
+    private long capacity;
+    private long mask;
+    private long size;
+    private long resizeAt;
+
+    /**
+     * @param offHeap if true the slots are stored in a memory mapped temporary file instead of the heap
+     */
+    CoordinateStateMap(boolean offHeap, long expectedSize) {
+        if (offHeap) {
+            try {
+                folder = Files.createTempDirectory("gh-postgis-coords").toFile();
+            } catch (IOException e) {
+                throw Utils.asUnchecked(e);
+            }
+            dir = new GHDirectory(folder.getAbsolutePath(), DAType.MMAP);
+        } else {
+            folder = null;
+            dir = new GHDirectory("", DAType.RAM);
+        }
+
+        long tmpCapacity = 1024;
+        while (tmpCapacity * LOAD_FACTOR < expectedSize) {
+            tmpCapacity *= 2;
+        }
+        slots = allocate(tmpCapacity);
+    }
+
+    /**
+     * @return the state of the coordinate or 0 if it was never added
+     */
+    int get(long key) {
+        long stored = key + 1;
+        long slot = hash(key) & mask;
+        while (true) {
+            long pos = slot * SLOT_BYTES;
+            long tmpKey = getKey(slots, pos);
+            if (tmpKey == 0)
+                return 0;
+            if (tmpKey == stored)
+                return slots.getInt(pos + 8);
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    void put(long key, int value) {
+        if (put(slots, key + 1, value) && ++size > resizeAt)
+            resize();
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the bytes currently allocated for the slots
+     */
+    long getCapacityInBytes() {
+        return capacity * SLOT_BYTES;
+    }
+
+    /**
+     * Calls the procedure for every coordinate in the map, in no particular order.
+     */
+    void forEach(LongIntProcedure procedure) {
+        for (long slot = 0; slot < capacity; slot++) {
+            long pos = slot * SLOT_BYTES;
+            long tmpKey = getKey(slots, pos);
+            if (tmpKey != 0)
+                procedure.apply(tmpKey - 1, slots.getInt(pos + 8));
+        }
+    }
+
+    /**
+     * Copies the map into the specified directory, so that it can be restored via {@link #load}.
+     */
+    void store(Directory targetDir, String name) {
+        DataAccess da = targetDir.find(name).create(capacity * SLOT_BYTES);
+        try {
+            copy(slots, da, capacity * SLOT_BYTES);
+            da.setHeader(0, (int) (capacity >>> 32));
+            da.setHeader(4, (int) capacity);
+            da.setHeader(8, (int) (size >>> 32));
+            da.setHeader(12, (int) size);
+            da.flush();
+        } finally {
+            da.close();
+        }
+    }
+
+    /**
+     * @return the map that was stored via {@link #store} or null if there is none
+     */
+    static CoordinateStateMap load(boolean offHeap, Directory sourceDir, String name) {
+        DataAccess da = sourceDir.find(name);
+        try {
+            if (!da.loadExisting())
+                return null;
+            long storedCapacity = ((long) da.getHeader(0) << 32) | (da.getHeader(4) & 0xFFFFFFFFL);
+            long storedSize = ((long) da.getHeader(8) << 32) | (da.getHeader(12) & 0xFFFFFFFFL);
+            CoordinateStateMap map = new CoordinateStateMap(offHeap, 0);
+            map.slots.close();
+            map.dir.remove(map.slots);
+            map.slots = map.allocate(storedCapacity);
+            copy(da, map.slots, storedCapacity * SLOT_BYTES);
+            map.size = storedSize;
+            return map;
+        } finally {
+            da.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        slots.close();
+        dir.remove(slots);
+        if (folder != null)
+            Helper.removeDir(folder);
+    }
+
+    /**
+     * @return true if a new slot was occupied
+     */
+    private boolean put(DataAccess da, long stored, int value) {
+        long slot = hash(stored - 1) & mask;
+        while (true) {
+            long pos = slot * SLOT_BYTES;
+            long tmpKey = getKey(da, pos);
+            if (tmpKey == 0) {
+                da.setInt(pos, (int) (stored >>> 32));
+                da.setInt(pos + 4, (int) stored);
+                da.setInt(pos + 8, value);
+                return true;
+            }
+            if (tmpKey == stored) {
+                da.setInt(pos + 8, value);
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void resize() {
+        DataAccess oldSlots = slots;
+        long oldCapacity = capacity;
+        slots = allocate(capacity * 2);
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            long pos = slot * SLOT_BYTES;
+            long tmpKey = getKey(oldSlots, pos);
+            if (tmpKey != 0)
+                put(slots, tmpKey, oldSlots.getInt(pos + 8));
+        }
+        oldSlots.close();
+        dir.remove(oldSlots);
+    }
+
+    private DataAccess allocate(long newCapacity) {
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        resizeAt = (long) (newCapacity * LOAD_FACTOR);
+        return dir.find("coord_state_" + generation++).create(newCapacity * SLOT_BYTES);
+    }
+
+    private static void copy(DataAccess from, DataAccess to, long bytes) {
+        // the chunks never cross a segment as the segment size is a multiple of the chunk size
+        byte[] buffer = new byte[COPY_BYTES];
+        for (long pos = 0; pos < bytes; pos += COPY_BYTES) {
+            int length = (int) Math.min(COPY_BYTES, bytes - pos);
+            from.getBytes(pos, buffer, length);
+            to.setBytes(pos, buffer, length);
+        }
+    }
+
+    private static long getKey(DataAccess da, long pos) {
+        return ((long) da.getInt(pos) << 32) | (da.getInt(pos + 4) & 0xFFFFFFFFL);
+    }
+
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+}
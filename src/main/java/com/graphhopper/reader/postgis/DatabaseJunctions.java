@@ -0,0 +1,157 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Lets PostGIS find the junction points of the roads, so that only the junctions are transferred instead of every
+ * point of every road. The points of the line parts are dumped with ST_DumpPoints, snapped to the same grid of 6
+ * decimals as the road pass and grouped twice: first per part, so that a road that visits a point twice counts
+ * once, then per coordinate. A coordinate is a junction if it is an end point of a part or belongs to at least two
+ * parts, which is the same rule as the junction pass in the JVM uses. The parts of a road are told apart by the
+ * ctid of its row for a plain table. Views, foreign and partitioned tables have no unique ctid, so their rows are
+ * numbered with row_number() instead. The numbers are only stable within the query, which is all the grouping
+ * needs, but the window function forces a serial plan: the rows are then read by one process, while the points
+ * are still grouped in the database.
+ * <p>
+ * The snapping uses floor(x * 1e6 + 0.5) in double precision, which is what Math.round does in Java, so the road
+ * pass finds the junctions under the same keys. The only product for which they differ is the largest double
+ * below 0.5, which Math.round rounds down. It is a coordinate within a nanometre of 0.0000005 degrees.
+ *
+ * @author Robin Boldt
+ */
+final class DatabaseJunctions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseJunctions.class);
+
+    private DatabaseJunctions() {
+    }
+
+    /**
+     * Calls the procedure for every junction of the roads that match the filter, in the order of their keys. The
+     * elevation is the largest Z value of the junction, or NaN if the graph has no elevation or the geometries
+     * have no Z values.
+     *
+     * @param snapshot the snapshot the query has to use or null
+     * @return the number of junctions
+     */
+    static long read(JDBCDataStore dataStore, PostgisSnapshot snapshot, String tableName, Filter filter,
+                     boolean is3D, JunctionSorter.JunctionProcedure procedure) {
+        try {
+            SimpleFeatureType featureType = dataStore.getSchema(tableName);
+            try (Connection connection = RoadStores.getConnection(dataStore)) {
+                String sql = createSql(dataStore, featureType, tableName, filter, is3D,
+                        isPlainTable(connection, JdbcRoadIterator.qualify(dataStore, tableName)));
+                LOGGER.info("Querying the junctions of " + tableName + ": " + sql);
+                // the PostgreSQL driver only uses a cursor, i.e. honors the fetch size, outside of auto commit
+                connection.setAutoCommit(false);
+                try {
+                    if (snapshot != null)
+                        snapshot.join(connection);
+                    try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                        statement.setFetchSize(dataStore.getFetchSize());
+                        return read(statement.executeQuery(sql), is3D, procedure);
+                    }
+                } finally {
+                    // we only read, so there is nothing to commit
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            }
+        } catch (Exception e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    private static long read(ResultSet resultSet, boolean is3D, JunctionSorter.JunctionProcedure procedure) throws Exception {
+        try {
+            long junctions = 0;
+            while (resultSet.next()) {
+                double lat = resultSet.getLong(1) / CoordinateKey.FACTOR;
+                double lon = resultSet.getLong(2) / CoordinateKey.FACTOR;
+                double ele = Double.NaN;
+                if (is3D) {
+                    ele = resultSet.getDouble(3);
+                    if (resultSet.wasNull())
+                        ele = Double.NaN;
+                }
+                procedure.apply(CoordinateKey.toKey(lat, lon), ele);
+                junctions++;
+            }
+            return junctions;
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * @return true if the relation is a plain table, whose rows have a unique ctid
+     */
+    private static boolean isPlainTable(Connection connection, String qualifiedName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT relkind FROM pg_class WHERE oid = to_regclass(?)")) {
+            statement.setString(1, qualifiedName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && "r".equals(resultSet.getString(1));
+            }
+        }
+    }
+
+    /**
+     * @param plainTable true to tell the roads apart by their ctid, false to number them with row_number()
+     */
+    static String createSql(JDBCDataStore dataStore, SimpleFeatureType featureType, String tableName,
+                            Filter filter, boolean is3D, boolean plainTable) throws Exception {
+        String geometry = JdbcRoadIterator.quote(featureType.getGeometryDescriptor().getLocalName());
+        String z = is3D ? ", max(z) AS z" : "";
+        return "SELECT fixed_lat, fixed_lon" + z + " FROM ("
+                // every part once per coordinate
+                + "SELECT fixed_lat, fixed_lon, bool_or(end_point) AS end_point" + z + " FROM ("
+                + "SELECT part.row_id, part.path, "
+                + snap("ST_Y(point.geom)") + " AS fixed_lat, "
+                + snap("ST_X(point.geom)") + " AS fixed_lon, "
+                + "point.path[1] IN (1, ST_NPoints(part.geom)) AS end_point"
+                + (is3D ? ", ST_Z(point.geom) AS z" : "")
+                + " FROM (SELECT row_id, (ST_Dump(geom)).* FROM ("
+                + "SELECT " + (plainTable ? "ctid" : "row_number() OVER ()") + " AS row_id, " + geometry + " AS geom"
+                + JdbcRoadIterator.createFrom(dataStore, featureType, tableName, filter) + ") road) part, "
+                + "LATERAL ST_DumpPoints(part.geom) point"
+                + ") points GROUP BY row_id, path, fixed_lat, fixed_lon"
+                + ") part_points GROUP BY fixed_lat, fixed_lon"
+                + " HAVING bool_or(end_point) OR count(*) > 1"
+                // the same order as the keys, so the node ids do not depend on the plan of the query
+                + " ORDER BY fixed_lat, fixed_lon";
+    }
+
+    /**
+     * @return the SQL expression that rounds the coordinate to the fixed point value of CoordinateKey
+     */
+    static String snap(String coordinate) {
+        return "floor(" + coordinate + " * 1e6::float8 + 0.5)::bigint";
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.carrotsearch.hppc.IntHashSet;
+
+import java.util.Arrays;
+
+/**
+ * Looks up the elevations of many coordinates at once. The coordinates are sorted by their DEM tile, so that every
+ * tile is loaded once per batch instead of jumping between tiles for every road.
+ * <p>
+ * GraphHopper's elevation providers keep every tile they ever loaded and can only release all of them at once. To
+ * bound the memory the lookup counts the tiles that were used since the last release and releases the provider
+ * when a new tile would exceed the configured number of tiles.
+ *
+ * @author Robin Boldt
+ */
+final class ElevationLookup {
+
+    /**
+     * The elevation model, e.g. {@link com.graphhopper.reader.dem.ElevationProvider#getEle}.
+     */
+    interface Source {
+        double getEle(double lat, double lon);
+    }
+
+    // the tiles of SRTM are 1x1 degree, the larger tiles of other models are aligned to whole degrees as well
+    private static final int LON_CELLS = 360;
+
+    private final Source source;
+    private final Runnable release;
+    private final int maxTiles;
+    private final IntHashSet tiles = new IntHashSet();
+    private long[] order = new long[0];
+    private long lookups;
+    private long tileLoads;
+    private int releases;
+
+    /**
+     * @param release  releases all tiles of the source
+     * @param maxTiles the number of tiles that can be used before the source is released
+     */
+    ElevationLookup(Source source, Runnable release, int maxTiles) {
+        if (maxTiles < 1)
+            throw new IllegalArgumentException("At least one tile must be cached, but was " + maxTiles);
+        this.source = source;
+        this.release = release;
+        this.maxTiles = maxTiles;
+    }
+
+    /**
+     * Looks up the elevations of the first count coordinates and stores them in eles.
+     */
+    void getEle(double[] lats, double[] lons, double[] eles, int count) {
+        if (order.length < count)
+            order = new long[Math.max(count, 2 * order.length)];
+        // the tile in the upper and the index in the lower bits, so sorting keeps the order within a tile
+        for (int i = 0; i < count; i++) {
+            order[i] = (long) getTile(lats[i], lons[i]) << 32 | i;
+        }
+        Arrays.sort(order, 0, count);
+
+        int lastTile = -1;
+        for (int n = 0; n < count; n++) {
+            int tile = (int) (order[n] >>> 32);
+            int i = (int) order[n];
+            if (tile != lastTile) {
+                useTile(tile);
+                lastTile = tile;
+            }
+            eles[i] = source.getEle(lats[i], lons[i]);
+        }
+        lookups += count;
+    }
+
+    private void useTile(int tile) {
+        if (tiles.contains(tile))
+            return;
+        if (tiles.size() == maxTiles) {
+            release.run();
+            tiles.clear();
+            releases++;
+        }
+        tiles.add(tile);
+        tileLoads++;
+    }
+
+    static int getTile(double lat, double lon) {
+        int latCell = Math.min(179, Math.max(0, (int) Math.floor(lat + 90)));
+        int lonCell = Math.min(LON_CELLS - 1, Math.max(0, (int) Math.floor(lon + 180)));
+        return latCell * LON_CELLS + lonCell;
+    }
+
+    /**
+     * Releases all tiles of the source.
+     */
+    void release() {
+        release.run();
+        tiles.clear();
+    }
+
+    long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return how often a tile was used that was not cached
+     */
+    long getTileLoads() {
+        return tileLoads;
+    }
+
+    int getReleases() {
+        return releases;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.reader.ReaderWay;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.IntsRef;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the acceptance and the edge flags of the encoders for the distinct tag combinations of the roads. Most
+ * roads share a few combinations of fclass, maxspeed, oneway and the copied tags, so the encoders only run once
+ * per combination instead of once per edge. The least recently used combinations are removed if there are more
+ * than the capacity.
+ * <p>
+ * The flags must not depend on the geometry of the edge. The encoders use the estimated_distance only for ferries
+ * and the spatial rules use the estimated_center, so ways with a route or duration tag are never cached and the
+ * caller has to disable the cache if the encoders store a country.
+ *
+ * @author Robin Boldt
+ */
+final class FlagsCache {
+
+    private final String[] keyTags;
+    private final Map<Key, Entry> entries;
+    // reused for the lookups, only a new entry gets its own key
+    private final Key probe;
+    private long hits;
+    private long misses;
+    private long bypassed;
+
+    FlagsCache(int capacity, String[] tagsToCopy) {
+        this.keyTags = new String[3 + tagsToCopy.length];
+        keyTags[0] = "highway";
+        keyTags[1] = "maxspeed";
+        keyTags[2] = "oneway";
+        System.arraycopy(tagsToCopy, 0, keyTags, 3, tagsToCopy.length);
+        this.probe = new Key(new Object[keyTags.length]);
+        this.entries = new LinkedHashMap<Key, Entry>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the entry of the tags of the way, which is new and not encoded on a miss, or null if the flags of
+     * the way depend on the geometry
+     */
+    Entry get(ReaderWay way) {
+        if (way.hasTag("route") || way.hasTag("duration")) {
+            bypassed++;
+            return null;
+        }
+        for (int i = 0; i < keyTags.length; i++) {
+            probe.values[i] = way.getTag(keyTags[i]);
+        }
+        probe.hash = Arrays.hashCode(probe.values);
+        Entry entry = entries.get(probe);
+        if (entry != null) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        entry = new Entry();
+        Key key = new Key(probe.values.clone());
+        key.hash = probe.hash;
+        entries.put(key, entry);
+        return entry;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    long getBypassed() {
+        return bypassed;
+    }
+
+    /**
+     * The result of the encoders for one tag combination. The acceptance is set when the entry is created, the
+     * flags when the first edge of an accepted way is created.
+     */
+    static final class Entry {
+        boolean accepted;
+        EncodingManager.AcceptWay acceptWay;
+        IntsRef flags;
+    }
+
+    private static final class Key {
+        final Object[] values;
+        int hash;
+
+        Key(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(values, ((Key) obj).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
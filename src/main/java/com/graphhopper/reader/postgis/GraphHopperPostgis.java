@@ -17,15 +17,35 @@
  */
 package com.graphhopper.reader.postgis;
 
+import com.graphhopper.GHRequest;
+import com.graphhopper.GHResponse;
 import com.graphhopper.GraphHopper;
 import com.graphhopper.GraphHopperConfig;
 import com.graphhopper.reader.DataReader;
 import com.graphhopper.reader.osm.GraphHopperOSM;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.storage.DAType;
+import com.graphhopper.storage.GHDirectory;
 import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.util.Helper;
+import org.geotools.data.DataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Modified version of GraphHopper to optimize working with Postgis
@@ -35,13 +55,34 @@ import java.util.Map;
  */
 public class GraphHopperPostgis extends GraphHopperOSM {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphHopperPostgis.class);
+    private static final String LOCATION_INDEX = "location_index";
+
     private final HashSet<OSMPostgisReader.EdgeAddedListener> edgeAddedListeners = new HashSet<>();
     private final Map<String, String> postgisParams = new HashMap<>();
+    // routing holds the read lock, the updates of the loaded graph hold the write lock
+    private final ReentrantReadWriteLock graphLock = new ReentrantReadWriteLock();
+    private RoadStoreFactory storeFactory;
+    private ImportStats importStats;
+    private TrafficUpdater trafficUpdater;
+    private DataStore trafficStore;
+    private ScheduledExecutorService trafficExecutor;
+    // read by routing under the read lock, so it must not be loaded under the monitor of this object, which the
+    // traffic and graph updates hold while they wait for the write lock
+    private final Object tagDictionaryLock = new Object();
+    private volatile TagDictionary tagDictionary;
+
+    public GraphHopperPostgis() {
+        // the tags of db.tags_to_store can be requested as path details
+        setPathDetailsBuilderFactory(new TagPathDetailsBuilderFactory(this::getTagDictionary));
+    }
 
     @Override
     public GraphHopper init(GraphHopperConfig ghConfig) {
 
         postgisParams.put("dbtype", "postgis");
+        postgisParams.put("store", ghConfig.getString("db.store", "postgis"));
+        postgisParams.put("file", ghConfig.getString("db.file", ""));
         postgisParams.put("host", ghConfig.getString("db.host", ""));
         postgisParams.put("port", ghConfig.getString("db.port", "5432"));
         postgisParams.put("schema", ghConfig.getString("db.schema", ""));
@@ -49,8 +90,191 @@ public class GraphHopperPostgis extends GraphHopperOSM {
         postgisParams.put("user", ghConfig.getString("db.user", ""));
         postgisParams.put("passwd", ghConfig.getString("db.passwd", ""));
         postgisParams.put("tags_to_copy", ghConfig.getString("db.tags_to_copy", ""));
+        postgisParams.put("tags_to_store", ghConfig.getString("db.tags_to_store", ""));
+        String tables = ghConfig.getString("db.tables", "");
+        postgisParams.put("tables", tables);
+        for (String table : tables.split(",")) {
+            table = table.trim();
+            if (table.isEmpty())
+                continue;
+            postgisParams.put("table." + table + ".where", ghConfig.getString("db.table." + table + ".where", ""));
+            postgisParams.put("table." + table + ".columns", ghConfig.getString("db.table." + table + ".columns", ""));
+        }
+        postgisParams.put("single_scan", ghConfig.getString("db.single_scan", "false"));
+        postgisParams.put("spill_folder", ghConfig.getString("db.spill_folder", ""));
+        postgisParams.put("coord_state", ghConfig.getString("db.coord_state", "ram"));
+        postgisParams.put("junction_pass", ghConfig.getString("db.junction_pass", "memory"));
+        postgisParams.put("junction_memory", ghConfig.getString("db.junction_memory", "256"));
+        postgisParams.put("junction_folder", ghConfig.getString("db.junction_folder", ""));
+        postgisParams.put("parallel_scan", ghConfig.getString("db.parallel_scan", "false"));
+        postgisParams.put("backend", ghConfig.getString("db.backend", "geotools"));
+        postgisParams.put("pipeline_threads", ghConfig.getString("db.pipeline_threads", "0"));
+        postgisParams.put("node_order", ghConfig.getString("db.node_order", "input"));
+        postgisParams.put("flags_cache", ghConfig.getString("db.flags_cache", "10000"));
+        postgisParams.put("bbox", ghConfig.getString("db.bbox", ""));
+        postgisParams.put("fclass_include", ghConfig.getString("db.fclass_include", ""));
+        postgisParams.put("fclass_exclude", ghConfig.getString("db.fclass_exclude", ""));
+        postgisParams.put("where", ghConfig.getString("db.where", ""));
+        postgisParams.put("pool_size", ghConfig.getString("db.pool_size", "10"));
+        postgisParams.put("fetch_size", ghConfig.getString("db.fetch_size", ""));
+        postgisParams.put("statement_timeout", ghConfig.getString("db.statement_timeout", ""));
+        postgisParams.put("snapshot", ghConfig.getString("db.snapshot", "true"));
+        postgisParams.put("fingerprint", ghConfig.getString("db.fingerprint", "false"));
+        postgisParams.put("update_column", ghConfig.getString("db.update_column", ""));
+        postgisParams.put("change_table", ghConfig.getString("db.change_table", ""));
+        postgisParams.put("change_deleted_column", ghConfig.getString("db.change_deleted_column", "deleted"));
+        postgisParams.put("checkpoint", ghConfig.getString("db.checkpoint", "false"));
+        postgisParams.put("checkpoint_interval", ghConfig.getString("db.checkpoint_interval", "1000000"));
+        postgisParams.put("elevation_cache_tiles", ghConfig.getString("db.elevation_cache_tiles", "32"));
+        postgisParams.put("traffic_table", ghConfig.getString("db.traffic_table", ""));
+        postgisParams.put("traffic_interval", ghConfig.getString("db.traffic_interval", "60"));
+        postgisParams.put("traffic_vehicles", ghConfig.getString("db.traffic_vehicles", "car"));
 
-        return super.init(ghConfig);
+        super.init(ghConfig);
+        // fail before the import and the CH preparation, not when the traffic updates start
+        if (!postgisParams.get("traffic_table").trim().isEmpty()) {
+            if (getCHPreparationHandler().isEnabled())
+                throw new IllegalArgumentException("db.traffic_table cannot be used with CH profiles, their shortcuts would keep the imported speeds");
+            if (getLMPreparationHandler().isEnabled())
+                LOGGER.warn("The landmarks are not updated, a speed above the imported one can lead to routes that are not the fastest");
+        }
+        return this;
+    }
+
+    /**
+     * With db.fingerprint the graph is only loaded if the roads table and the config did not change since it was
+     * imported, otherwise it is removed and imported again.
+     */
+    @Override
+    public GraphHopper importOrLoad() {
+        if (Boolean.parseBoolean(postgisParams.get("fingerprint")) && !isGraphCurrent()) {
+            LOGGER.info("The roads table or the config changed since the graph was imported, importing it again");
+            clean();
+        }
+        super.importOrLoad();
+        startTrafficUpdates();
+        return this;
+    }
+
+    /**
+     * Applies the traffic table of db.traffic_table every db.traffic_interval seconds to the loaded graph.
+     */
+    private void startTrafficUpdates() {
+        String tableName = postgisParams.get("traffic_table").trim();
+        if (tableName.isEmpty())
+            return;
+
+        GraphHopperStorage ghStorage = getGraphHopperStorage();
+        RoadEdgeIndex index = RoadEdgeIndex.load(ghStorage.getDirectory());
+        if (index == null)
+            throw new IllegalStateException("The graph has no " + RoadEdgeIndex.NAME + " index, import it again with db.traffic_table");
+        List<FlagEncoder> encoders = new ArrayList<>();
+        for (String vehicle : postgisParams.get("traffic_vehicles").split(",")) {
+            if (!vehicle.trim().isEmpty())
+                encoders.add(getEncodingManager().getEncoder(vehicle.trim()));
+        }
+        trafficUpdater = new TrafficUpdater(ghStorage, index, encoders, tableName, graphLock.writeLock());
+
+        long interval = Long.parseLong(postgisParams.get("traffic_interval"));
+        trafficExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "postgis-traffic");
+            thread.setDaemon(true);
+            return thread;
+        });
+        trafficExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                updateTraffic();
+            } catch (Exception e) {
+                // a failing run must not stop the next ones, e.g. if the database is restarted
+                LOGGER.error("Cannot apply the traffic table " + tableName, e);
+            }
+        }, 0, interval, TimeUnit.SECONDS);
+        LOGGER.info("Applying the traffic table " + tableName + " every " + interval + "s for " + encoders);
+    }
+
+    /**
+     * Applies the rows of the traffic table that changed since the last run to the loaded graph. This is done
+     * periodically if db.traffic_table is set, but can also be called directly.
+     *
+     * @return the number of changed edges
+     */
+    public synchronized int updateTraffic() {
+        if (trafficUpdater == null)
+            throw new IllegalStateException("Applying traffic needs db.traffic_table and a loaded graph");
+        if (trafficStore == null) {
+            try {
+                RoadStoreFactory factory = storeFactory != null ? storeFactory : RoadStores.get(postgisParams.get("store"));
+                trafficStore = factory.open(postgisParams, postgisParams.get("traffic_table").trim(), 1);
+            } catch (IOException e) {
+                throw Utils.asUnchecked(e);
+            }
+            if (trafficStore == null)
+                throw new IllegalArgumentException("Error Connecting to Database ");
+        }
+        return trafficUpdater.update(trafficStore);
+    }
+
+    @Override
+    public GHResponse route(GHRequest request) {
+        Lock lock = graphLock.readLock();
+        lock.lock();
+        try {
+            return super.route(request);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (trafficExecutor != null) {
+            trafficExecutor.shutdownNow();
+            trafficExecutor = null;
+        }
+        synchronized (this) {
+            // memory mapped graphs must not keep the traffic in their files
+            if (trafficUpdater != null) {
+                trafficUpdater.restore();
+                trafficUpdater = null;
+            }
+            if (trafficStore != null) {
+                trafficStore.dispose();
+                trafficStore = null;
+            }
+        }
+        super.close();
+    }
+
+    /**
+     * @return false if there is a graph whose fingerprint differs from the one of the roads table
+     */
+    private boolean isGraphCurrent() {
+        String stored = SourceFingerprint.readStored(new File(getGraphHopperLocation()));
+        // without a graph there is nothing to compare, it is imported anyway
+        if (stored == null)
+            return true;
+        if (stored.isEmpty())
+            return false;
+
+        String tableName = new File(getDataReaderFile()).getName();
+        List<RoadTable> tables = RoadTable.parse(postgisParams);
+        if (tables.isEmpty())
+            tables = Collections.singletonList(RoadTable.of(tableName));
+        RoadStoreFactory factory = storeFactory != null ? storeFactory : RoadStores.get(postgisParams.get("store"));
+        DataStore dataStore = null;
+        try {
+            dataStore = factory.open(postgisParams, tableName, 1);
+            if (dataStore == null)
+                throw new IllegalArgumentException("Error Connecting to Database ");
+            String fingerprint = SourceFingerprint.create(dataStore, null, tables, postgisParams);
+            LOGGER.info("Fingerprint of the graph: " + stored + ", of the roads table: " + fingerprint);
+            return stored.equals(fingerprint);
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        } finally {
+            if (dataStore != null)
+                dataStore.dispose();
+        }
     }
 
     @Override
@@ -59,9 +283,106 @@ public class GraphHopperPostgis extends GraphHopperOSM {
         for (OSMPostgisReader.EdgeAddedListener l : edgeAddedListeners) {
             reader.addListener(l);
         }
+        if (storeFactory != null)
+            reader.setRoadStoreFactory(storeFactory);
+        importStats = reader.getStats();
         return initDataReader(reader);
     }
 
+    /**
+     * Applies the roads that changed since the import or the last update to the loaded graph and stores it. This
+     * needs db.update_column and works only for profiles without CH and LM, as GraphHopper cannot prepare them
+     * again for a part of the graph.
+     *
+     * @return false if the changes cannot be applied incrementally, e.g. because a road was added or a junction
+     * moved. The graph is not modified then and has to be imported again.
+     */
+    public synchronized boolean update() {
+        GraphHopperStorage ghStorage = getGraphHopperStorage();
+        if (ghStorage == null)
+            throw new IllegalStateException("Call importOrLoad before updating the graph");
+        if (getCHPreparationHandler().isEnabled() || getLMPreparationHandler().isEnabled()) {
+            LOGGER.warn("The CH and LM preparations cannot be updated, the graph has to be imported again");
+            return false;
+        }
+
+        // the graph is stored without the traffic, which is applied again by the next run of the traffic updater
+        if (trafficUpdater != null)
+            trafficUpdater.restore();
+        OSMPostgisReader reader;
+        Lock lock = graphLock.writeLock();
+        lock.lock();
+        try {
+            reader = (OSMPostgisReader) createReader(ghStorage);
+            if (!reader.updateGraph())
+                return false;
+            ghStorage.flush();
+            // the update added values, the dictionary is loaded again with them
+            tagDictionary = null;
+        } finally {
+            lock.unlock();
+        }
+        if (reader.hasChangedGeometry())
+            replaceLocationIndex();
+        return true;
+    }
+
+    /**
+     * Creates the location index of the updated graph in memory and replaces the loaded index with it, so that
+     * moved points are found at their new position. Until then the loaded index is used, it still refers to valid
+     * edges as an update never adds edges. The stored index is removed, so the next load creates it again.
+     */
+    private void replaceLocationIndex() {
+        LOGGER.info("Geometries changed, creating the location index again");
+        LocationIndex newIndex = createLocationIndex(new GHDirectory("", DAType.RAM));
+        LocationIndex oldIndex;
+        Lock lock = graphLock.writeLock();
+        lock.lock();
+        try {
+            oldIndex = getLocationIndex();
+            setLocationIndex(newIndex);
+        } finally {
+            lock.unlock();
+        }
+        // no route uses the old index anymore, as routing holds the read lock
+        if (oldIndex != null)
+            oldIndex.close();
+        Helper.removeDir(new File(getGraphHopperLocation(), LOCATION_INDEX));
+    }
+
+    /**
+     * @return the values of the tags of db.tags_to_store for every edge, e.g. to resolve the street names of a path,
+     * or null if the graph was imported without them
+     */
+    public TagDictionary getTagDictionary() {
+        TagDictionary dictionary = tagDictionary;
+        if (dictionary != null)
+            return dictionary;
+        GraphHopperStorage ghStorage = getGraphHopperStorage();
+        if (ghStorage == null)
+            throw new IllegalStateException("Call importOrLoad before reading the tags of the edges");
+        synchronized (tagDictionaryLock) {
+            if (tagDictionary == null)
+                tagDictionary = TagDictionary.load(ghStorage.getDirectory(), postgisParams.get("tags_to_store"));
+            return tagDictionary;
+        }
+    }
+
+    /**
+     * @return the statistics of the last import or update, which are updated while it runs, or null if the graph
+     * was only loaded
+     */
+    public ImportStats getImportStats() {
+        return importStats;
+    }
+
+    /**
+     * Reads the roads from the store of the specified factory instead of the one selected by db.store.
+     */
+    public void setRoadStoreFactory(RoadStoreFactory storeFactory) {
+        this.storeFactory = storeFactory;
+    }
+
     // TODO do we need the EdgeAddedListener?
     public void addListener(OSMPostgisReader.EdgeAddedListener l) {
         edgeAddedListeners.add(l);
@@ -0,0 +1,70 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+/**
+ * Maps coordinates to their position on a Hilbert curve over the whole world. Sorting by this position keeps
+ * points that are close to each other also close in the sorted order, much better than sorting by latitude or by a
+ * geohash.
+ *
+ * @author Robin Boldt
+ */
+final class HilbertCurve {
+
+    /**
+     * The curve has 2^ORDER x 2^ORDER cells, i.e. cells of about 600m x 300m. The position fits into 32 bits.
+     */
+    static final int ORDER = 16;
+
+    private HilbertCurve() {
+    }
+
+    /**
+     * @return the position of the cell of the coordinate on the curve, between 0 and 2^(2 * ORDER) - 1
+     */
+    static long index(double lat, double lon) {
+        int cells = 1 << ORDER;
+        int x = (int) Math.max(0, Math.min(cells - 1, (lon + 180) / 360 * cells));
+        int y = (int) Math.max(0, Math.min(cells - 1, (lat + 90) / 180 * cells));
+        return index(ORDER, x, y);
+    }
+
+    /**
+     * @return the position of the cell x, y on a curve with 2^order x 2^order cells
+     */
+    static long index(int order, int x, int y) {
+        int n = 1 << order;
+        long index = 0;
+        for (int s = n >>> 1; s > 0; s >>>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant, so that the curve of the next level starts where this one entered it
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int tmp = x;
+                x = y;
+                y = tmp;
+            }
+        }
+        return index;
+    }
+}
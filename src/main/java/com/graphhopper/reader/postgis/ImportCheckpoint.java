@@ -0,0 +1,121 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.storage.DAType;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.GHDirectory;
+import com.graphhopper.util.Helper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The folder in the graph directory that holds the state of an unfinished import, i.e. the junction state and the
+ * roads that were already read. The state itself is described by a properties file that is replaced atomically,
+ * so a crash while writing a checkpoint leaves the previous checkpoint intact. The folder is removed when the
+ * import finishes.
+ *
+ * @author Robin Boldt
+ */
+final class ImportCheckpoint {
+
+    static final String FOLDER = "postgis_checkpoint";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImportCheckpoint.class);
+    private static final String STATE_FILE = "checkpoint.properties";
+    private static final String FINGERPRINT = "fingerprint";
+
+    private final File folder;
+    private final String fingerprint;
+
+    /**
+     * @param fingerprint describes the configuration of the import and the content of the table, a checkpoint with
+     *                    a different fingerprint is discarded
+     */
+    ImportCheckpoint(File graphFolder, String fingerprint) {
+        this.folder = new File(graphFolder, FOLDER);
+        this.fingerprint = fingerprint;
+    }
+
+    File getFolder() {
+        return folder;
+    }
+
+    Directory getDirectory() {
+        return new GHDirectory(folder.getAbsolutePath(), DAType.MMAP);
+    }
+
+    /**
+     * @return the state of the last checkpoint or null if there is no checkpoint for this configuration
+     */
+    Properties read() {
+        File file = new File(folder, STATE_FILE);
+        if (!file.exists())
+            return null;
+
+        Properties state = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            state.load(in);
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        }
+        if (!fingerprint.equals(state.getProperty(FINGERPRINT))) {
+            LOGGER.warn("Discarding the checkpoint in " + folder + " as the table or the configuration changed since it was created");
+            clear();
+            return null;
+        }
+        return state;
+    }
+
+    /**
+     * Replaces the state of the last checkpoint. All files that the state refers to have to be flushed before.
+     */
+    void write(Properties state) {
+        state.setProperty(FINGERPRINT, fingerprint);
+        File tmpFile = new File(folder, STATE_FILE + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+                state.store(out, "checkpoint of the PostGIS import");
+            }
+            Files.move(tmpFile.toPath(), new File(folder, STATE_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * Removes the checkpoint and creates an empty folder for the next one.
+     */
+    void clear() {
+        Helper.removeDir(folder);
+        if (!folder.mkdirs())
+            throw new IllegalStateException("Cannot create the checkpoint folder " + folder);
+    }
+
+    void remove() {
+        Helper.removeDir(folder);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The JFR events of the import, so a recording shows the phases and the progress of the import next to the GC and
+ * I/O events of the JVM. They cost nothing if no recording is running.
+ *
+ * @author Robin Boldt
+ */
+final class ImportEvents {
+
+    private ImportEvents() {
+    }
+
+    @Name("com.graphhopper.postgis.ImportPhase")
+    @Label("PostGIS Import Phase")
+    @Category({"GraphHopper", "PostGIS"})
+    @Description("A phase of the import, e.g. the junction pass or the road pass")
+    static final class Phase extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Rows Fetched")
+        long rowsFetched;
+        @Label("Rows Rejected")
+        long rowsRejected;
+        @Label("Bytes Fetched")
+        @DataAmount
+        long bytesFetched;
+        @Label("Fetch Time")
+        @Timespan
+        long fetchTime;
+        @Label("Process Time")
+        @Timespan
+        long processTime;
+        @Label("Edges Created")
+        long edgesCreated;
+    }
+
+    @Name("com.graphhopper.postgis.ImportProgress")
+    @Label("PostGIS Import Progress")
+    @Category({"GraphHopper", "PostGIS"})
+    @Description("The counters of the import so far, recorded where the import logs its progress")
+    static final class Progress extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Rows Fetched")
+        long rowsFetched;
+        @Label("Edges Created")
+        long edgesCreated;
+        @Label("Fetch Time")
+        @Timespan
+        long fetchTime;
+        @Label("Process Time")
+        @Timespan
+        long processTime;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static com.graphhopper.util.Helper.nf;
+
+/**
+ * Counters and timings of an import, which can be queried while the import runs and afterwards. The rows are
+ * counted as they leave the road iterators, so the counters are thread safe for the partitions of a parallel scan.
+ * The time spent in the iterators, i.e. waiting for the database and decoding, is measured separately from the
+ * time spent between two rows, i.e. creating the junctions and edges. Every phase is also recorded as a JFR event,
+ * see {@link ImportEvents}.
+ *
+ * @author Robin Boldt
+ */
+public final class ImportStats {
+
+    /**
+     * The file in the graph directory that the summary of the last import is written to.
+     */
+    public static final String FILE = "postgis_import_stats.properties";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImportStats.class);
+
+    private final LongAdder rowsFetched = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+    private final LongAdder fetchNanos = new LongAdder();
+    private final LongAdder processNanos = new LongAdder();
+    private final LongAdder edgesCreated = new LongAdder();
+    private final LongAdder edgesNotAccepted = new LongAdder();
+    private final LongAdder edgesWithoutFlags = new LongAdder();
+    private final LongAdder zeroDistanceEdges = new LongAdder();
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private volatile String currentPhase = "";
+
+    /**
+     * @return the rows that were read from the store, including the rejected ones
+     */
+    public long getRowsFetched() {
+        return rowsFetched.sum();
+    }
+
+    /**
+     * @return the rows that were rejected on the client by acceptFeature
+     */
+    public long getRowsRejected() {
+        return rowsRejected.sum();
+    }
+
+    /**
+     * @return the size of the accepted geometries as WKB. This is what the jdbc backend fetched for them, for the
+     * GeoTools backend it is calculated from the points. Attributes are not counted.
+     */
+    public long getBytesFetched() {
+        return bytesFetched.sum();
+    }
+
+    /**
+     * @return the nanoseconds that the import was blocked on the road iterators, i.e. waiting for the store,
+     * decoding the rows or waiting for the partitions of a parallel scan
+     */
+    public long getFetchNanos() {
+        return fetchNanos.sum();
+    }
+
+    /**
+     * @return the nanoseconds between two rows, i.e. creating the junctions and edges of the rows
+     */
+    public long getProcessNanos() {
+        return processNanos.sum();
+    }
+
+    public long getEdgesCreated() {
+        return edgesCreated.sum();
+    }
+
+    /**
+     * @return the created edges that no encoder accepted via acceptWay, they stay blocked
+     */
+    public long getEdgesNotAccepted() {
+        return edgesNotAccepted.sum();
+    }
+
+    /**
+     * @return the created edges of accepted roads whose tags resulted in empty flags, they stay blocked
+     */
+    public long getEdgesWithoutFlags() {
+        return edgesWithoutFlags.sum();
+    }
+
+    /**
+     * @return the edges that were shorter than 0.1mm and got the minimum distance, like the zero counter of the
+     * OSM import
+     */
+    public long getZeroDistanceEdges() {
+        return zeroDistanceEdges.sum();
+    }
+
+    /**
+     * @return the wall time of every finished phase in nanoseconds, in the order in which they ran
+     */
+    public synchronized Map<String, Long> getPhaseNanos() {
+        return new LinkedHashMap<>(phaseNanos);
+    }
+
+    /**
+     * Runs the phase and records its wall time and a JFR event for it.
+     */
+    void measurePhase(String name, Runnable runnable) {
+        measurePhase(name, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return the result of the phase
+     */
+    <T> T measurePhase(String name, Supplier<T> phase) {
+        ImportEvents.Phase event = new ImportEvents.Phase();
+        long rows = getRowsFetched();
+        long rejected = getRowsRejected();
+        long bytes = getBytesFetched();
+        long fetch = getFetchNanos();
+        long process = getProcessNanos();
+        long edges = getEdgesCreated();
+        long start = System.nanoTime();
+        currentPhase = name;
+        event.begin();
+        T result = phase.get();
+        event.end();
+        long nanos = System.nanoTime() - start;
+        synchronized (this) {
+            phaseNanos.merge(name, nanos, Long::sum);
+        }
+
+        if (event.shouldCommit()) {
+            event.phase = name;
+            event.rowsFetched = getRowsFetched() - rows;
+            event.rowsRejected = getRowsRejected() - rejected;
+            event.bytesFetched = getBytesFetched() - bytes;
+            event.fetchTime = getFetchNanos() - fetch;
+            event.processTime = getProcessNanos() - process;
+            event.edgesCreated = getEdgesCreated() - edges;
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Records a JFR event with the current counters, called where the import logs its progress.
+     */
+    void progress() {
+        ImportEvents.Progress event = new ImportEvents.Progress();
+        if (!event.shouldCommit())
+            return;
+        event.phase = currentPhase;
+        event.rowsFetched = getRowsFetched();
+        event.edgesCreated = getEdgesCreated();
+        event.fetchTime = getFetchNanos();
+        event.processTime = getProcessNanos();
+        event.commit();
+    }
+
+    /**
+     * @return an iterator that counts the rows of the specified iterator and measures the time blocked in it
+     * versus the time between two calls
+     */
+    RoadIterator measure(RoadIterator roads) {
+        return new RoadIterator() {
+            private long last = System.nanoTime();
+
+            @Override
+            public RoadRecord next() {
+                long start = System.nanoTime();
+                processNanos.add(start - last);
+                RoadRecord road = roads.next();
+                last = System.nanoTime();
+                fetchNanos.add(last - start);
+                if (road != null) {
+                    rowsFetched.increment();
+                    bytesFetched.add(road.geometryBytes);
+                }
+                return road;
+            }
+
+            @Override
+            public void close() {
+                roads.close();
+            }
+        };
+    }
+
+    void rowRejected() {
+        rowsFetched.increment();
+        rowsRejected.increment();
+    }
+
+    void edgeCreated() {
+        edgesCreated.increment();
+    }
+
+    void edgeNotAccepted() {
+        edgesNotAccepted.increment();
+    }
+
+    void edgeWithoutFlags() {
+        edgesWithoutFlags.increment();
+    }
+
+    void zeroDistanceEdge() {
+        zeroDistanceEdges.increment();
+    }
+
+    /**
+     * Writes the counters and the phases as properties file, the times in milliseconds.
+     */
+    void write(File file) {
+        Properties properties = new Properties();
+        properties.setProperty("rows_fetched", String.valueOf(getRowsFetched()));
+        properties.setProperty("rows_rejected", String.valueOf(getRowsRejected()));
+        properties.setProperty("bytes_fetched", String.valueOf(getBytesFetched()));
+        properties.setProperty("fetch_ms", String.valueOf(getFetchNanos() / 1_000_000));
+        properties.setProperty("process_ms", String.valueOf(getProcessNanos() / 1_000_000));
+        properties.setProperty("edges_created", String.valueOf(getEdgesCreated()));
+        properties.setProperty("edges_not_accepted", String.valueOf(getEdgesNotAccepted()));
+        properties.setProperty("edges_without_flags", String.valueOf(getEdgesWithoutFlags()));
+        properties.setProperty("zero_distance_edges", String.valueOf(getZeroDistanceEdges()));
+        for (Map.Entry<String, Long> entry : getPhaseNanos().entrySet()) {
+            properties.setProperty("phase." + entry.getKey() + "_ms", String.valueOf(entry.getValue() / 1_000_000));
+        }
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            properties.store(out, "statistics of the PostGIS import");
+        } catch (IOException e) {
+            // the graph is complete, so a missing summary is no reason to fail the import
+            LOGGER.warn("Cannot write the import statistics to " + file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(nf(getRowsFetched())).append(" rows (").append(nf(getRowsRejected())).append(" rejected, ")
+                .append(nf(getBytesFetched() / 1024)).append(" KB), ")
+                .append(nf(getEdgesCreated())).append(" edges (").append(nf(getEdgesNotAccepted()))
+                .append(" not accepted, ").append(nf(getEdgesWithoutFlags())).append(" without flags, ")
+                .append(nf(getZeroDistanceEdges())).append(" zero distance), fetch ")
+                .append(nf(getFetchNanos() / 1_000_000)).append("ms, process ")
+                .append(nf(getProcessNanos() / 1_000_000)).append("ms");
+        for (Map.Entry<String, Long> entry : getPhaseNanos().entrySet()) {
+            sb.append(", ").append(entry.getKey()).append(' ').append(nf(entry.getValue() / 1_000_000)).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Reads the roads with plain JDBC instead of the GeoTools feature model. Only the used columns are selected, the
+ * geometry is fetched as WKB via a server-side cursor and decoded by the {@link WkbReader}. The GeoTools
+ * JDBCDataStore is only used for the connection pool and to encode the filter as SQL, so the same rows are read as
+ * with the GeoTools backend.
+ *
+ * @author Robin Boldt
+ */
+final class JdbcRoadIterator implements RoadIterator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcRoadIterator.class);
+
+    private final WkbReader wkbReader = new WkbReader();
+    private final int tagCount;
+    private final boolean is3D;
+    private final boolean geometryOnly;
+    // the index in the result set of fclass, maxspeed, oneway and the copied tags, 0 if the table has no such column
+    private final int[] attributeIndexes;
+    private final int geometryIndex;
+    private final RoadRecord reusableRecord;
+    private Connection connection;
+    private Statement statement;
+    private ResultSet resultSet;
+
+    /**
+     * @param snapshot     the snapshot the query has to use or null
+     * @param reuseRecord  if true the same record is returned for every road
+     * @param geometryOnly if true only the geometry column is selected and the attributes of the roads are not set
+     * @param orderById    if true the roads are sorted by their osm_id
+     * @param is3D         if true the records keep the Z values of the geometries
+     */
+    JdbcRoadIterator(JDBCDataStore dataStore, PostgisSnapshot snapshot, RoadTable table, Filter filter, String[] tagsToCopy,
+                     boolean reuseRecord, boolean geometryOnly, boolean orderById, boolean is3D) {
+        this.tagCount = tagsToCopy.length;
+        this.is3D = is3D;
+        this.geometryOnly = geometryOnly;
+        this.reusableRecord = reuseRecord ? new RoadRecord(tagCount, is3D) : null;
+        try {
+            SimpleFeatureType featureType = dataStore.getSchema(table.getName());
+            String[] columns = getAttributeColumns(featureType, table, tagsToCopy);
+            attributeIndexes = new int[columns.length];
+            int index = 2;
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] != null)
+                    attributeIndexes[i] = index++;
+            }
+            geometryIndex = geometryOnly ? 1 : index;
+
+            String sql = createSql(dataStore, featureType, table, filter, tagsToCopy, geometryOnly, orderById);
+            LOGGER.info("Querying " + table.getName() + ": " + sql);
+
+            connection = RoadStores.getConnection(dataStore);
+            // the PostgreSQL driver only uses a cursor, i.e. honors the fetch size, outside of auto commit
+            connection.setAutoCommit(false);
+            if (snapshot != null)
+                snapshot.join(connection);
+            statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(dataStore.getFetchSize());
+            resultSet = statement.executeQuery(sql);
+        } catch (Exception e) {
+            close();
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * @param table the table and the names of its columns
+     */
+    static String createSql(JDBCDataStore dataStore, SimpleFeatureType featureType, RoadTable table,
+                            Filter filter, String[] tagsToCopy, boolean geometryOnly, boolean orderById) throws Exception {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (!geometryOnly) {
+            sql.append(quote(PostgisReader.OSM_ID)).append(", ");
+            for (String column : getAttributeColumns(featureType, table, tagsToCopy)) {
+                if (column != null)
+                    sql.append(quote(column)).append(", ");
+            }
+        }
+        sql.append("ST_AsBinary(").append(quote(featureType.getGeometryDescriptor().getLocalName())).append(")");
+        sql.append(createFrom(dataStore, featureType, table.getName(), filter));
+        if (orderById)
+            sql.append(" ORDER BY ").append(quote(PostgisReader.OSM_ID));
+        return sql.toString();
+    }
+
+    /**
+     * @return the columns of fclass, maxspeed, oneway and the copied tags, null for the ones the table does not
+     * have. Like the GeoTools backend the missing columns are not queried and their values are null.
+     */
+    static String[] getAttributeColumns(SimpleFeatureType featureType, RoadTable table, String[] tagsToCopy) {
+        String[] columns = new String[3 + tagsToCopy.length];
+        columns[0] = table.getColumn("fclass");
+        columns[1] = table.getColumn("maxspeed");
+        columns[2] = table.getColumn("oneway");
+        for (int i = 0; i < tagsToCopy.length; i++) {
+            columns[3 + i] = table.getColumn(tagsToCopy[i]);
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (featureType.getDescriptor(columns[i]) == null)
+                columns[i] = null;
+        }
+        return columns;
+    }
+
+    /**
+     * @return the FROM clause of the table and the WHERE clause of the filter, starting with a space
+     */
+    static String createFrom(JDBCDataStore dataStore, SimpleFeatureType featureType, String tableName,
+                             Filter filter) throws Exception {
+        StringBuilder sql = new StringBuilder(" FROM ").append(qualify(dataStore, tableName));
+        if (filter != Filter.INCLUDE)
+            // encodes to "WHERE ..." in the same way as the GeoTools backend does
+            sql.append(" ").append(dataStore.createFilterToSQL(featureType).encodeToString(filter));
+        return sql.toString();
+    }
+
+    /**
+     * @return the quoted name of the table, with the schema of the DataStore if there is one
+     */
+    static String qualify(JDBCDataStore dataStore, String tableName) {
+        String schema = dataStore.getDatabaseSchema();
+        if (schema == null || schema.isEmpty())
+            return quote(tableName);
+        return quote(schema) + "." + quote(tableName);
+    }
+
+    static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    @Override
+    public RoadRecord next() {
+        try {
+            if (!resultSet.next())
+                return null;
+
+            RoadRecord road = reusableRecord == null ? new RoadRecord(tagCount, is3D) : reusableRecord;
+            road.clear();
+            wkbReader.read(readAttributes(road), road);
+            return road;
+        } catch (SQLException e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * Reads the attributes of the next row, but leaves the geometry to a decoder of the pipelined mode.
+     *
+     * @return the row or null if there are no more rows
+     */
+    Row nextRow() {
+        try {
+            if (!resultSet.next())
+                return null;
+
+            RoadRecord road = new RoadRecord(tagCount, is3D);
+            return new Row(road, readAttributes(road));
+        } catch (SQLException e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * Copies the attributes of the current row into the road.
+     *
+     * @return the WKB of the geometry
+     */
+    private byte[] readAttributes(RoadRecord road) throws SQLException {
+        if (geometryOnly)
+            return resultSet.getBytes(geometryIndex);
+
+        Object osmId = resultSet.getObject(1);
+        if (osmId == null)
+            throw new IllegalStateException(PostgisReader.OSM_ID + " must not be null");
+        road.osmId = osmId instanceof Number ? ((Number) osmId).longValue() : Long.parseLong(osmId.toString());
+        road.fclass = getAttribute(0);
+        road.maxSpeed = getAttribute(1);
+        road.oneway = getAttribute(2);
+        for (int i = 0; i < tagCount; i++) {
+            road.tags[i] = getAttribute(3 + i);
+        }
+        return resultSet.getBytes(geometryIndex);
+    }
+
+    private Object getAttribute(int attribute) throws SQLException {
+        int index = attributeIndexes[attribute];
+        return index == 0 ? null : resultSet.getObject(index);
+    }
+
+    /**
+     * @return a decoder for the geometries of the rows, every decoder thread needs its own
+     */
+    static PipelinedRoadIterator.RowDecoder<Row> createDecoder() {
+        WkbReader reader = new WkbReader();
+        return row -> {
+            reader.read(row.wkb, row.road);
+            return row.road;
+        };
+    }
+
+    /**
+     * A row whose attributes are already read, but whose geometry is not decoded yet.
+     */
+    static final class Row {
+        final RoadRecord road;
+        final byte[] wkb;
+
+        Row(RoadRecord road, byte[] wkb) {
+            this.road = road;
+            this.wkb = wkb;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (resultSet != null)
+                resultSet.close();
+            if (statement != null)
+                statement.close();
+            if (connection != null) {
+                try {
+                    // we only read, so there is nothing to commit
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                } finally {
+                    connection.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw Utils.asUnchecked(e);
+        } finally {
+            resultSet = null;
+            statement = null;
+            connection = null;
+        }
+    }
+}
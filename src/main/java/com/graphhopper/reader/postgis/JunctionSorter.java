@@ -0,0 +1,273 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.util.Helper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the junction points with a bounded amount of memory, for tables whose distinct coordinates do not fit into
+ * the heap. Every point of a road part is added once, together with the information whether it is an end point of
+ * the part. The points are sorted in runs that fit into the memory budget and written to temporary files, then the
+ * runs are merged. The run files are written to a temporary folder below the graph folder by default, as the
+ * system temporary folder is often a small RAM disk. A coordinate is a junction if it is the end point of a part or belongs to at least two parts,
+ * which is the same rule as the in-memory junction pass uses, so both find the same junctions.
+ * <p>
+ * The keys are stored shifted by one bit, the lowest bit is set for end points and, in the runs, for junctions. With
+ * elevation the Z value of every point is kept in millimetres, a junction gets the first Z value that is not
+ * missing.
+ *
+ * @author Robin Boldt
+ */
+final class JunctionSorter implements Closeable {
+
+    private static final int NO_ELE = Integer.MIN_VALUE;
+    private static final int MAX_READ_BUFFER = 1 << 16;
+    private static final int MIN_READ_BUFFER = 1 << 10;
+
+    private final boolean withEle;
+    private final File folder;
+    private final long[] keys;
+    private final int[] eles;
+    private int size;
+    private final List<File> runFiles = new ArrayList<>();
+    private final List<Long> runSizes = new ArrayList<>();
+    private final long memoryBytes;
+
+    /**
+     * @param memoryBytes the memory for the points of one run, the merge needs at most the same amount for its
+     *                    read buffers
+     * @param parent      the folder in which the temporary folder for the run files is created, or null for the
+     *                    temporary folder of the system
+     */
+    JunctionSorter(long memoryBytes, boolean withEle, File parent) {
+        this.withEle = withEle;
+        this.memoryBytes = memoryBytes;
+        int capacity = (int) Math.max(1024, Math.min(Integer.MAX_VALUE - 8, memoryBytes / (withEle ? 12 : 8)));
+        this.keys = new long[capacity];
+        this.eles = withEle ? new int[capacity] : null;
+        try {
+            if (parent == null) {
+                this.folder = Files.createTempDirectory("gh-postgis-junctions").toFile();
+            } else {
+                Files.createDirectories(parent.toPath());
+                this.folder = Files.createTempDirectory(parent.toPath(), "gh-postgis-junctions").toFile();
+            }
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * Adds a point of a road part. Every coordinate must be added only once per part.
+     *
+     * @param ele the Z value of the point, or NaN if it is missing or the graph has no elevation
+     */
+    void add(long key, boolean endPoint, double ele) {
+        if (size == keys.length)
+            writeRun();
+        keys[size] = key << 1 | (endPoint ? 1 : 0);
+        if (withEle)
+            eles[size] = Double.isNaN(ele) ? NO_ELE : Helper.eleToInt(ele);
+        size++;
+    }
+
+    /**
+     * @return the number of run files that were written so far
+     */
+    int getRuns() {
+        return runFiles.size();
+    }
+
+    /**
+     * Calls the procedure for every junction in the order of its key. The elevation is NaN if no part had a Z
+     * value for it.
+     */
+    void forEachJunction(JunctionProcedure procedure) {
+        if (runFiles.isEmpty()) {
+            // everything fits into memory, no file is needed
+            sort();
+            int i = 0;
+            while (i < size) {
+                long key = keys[i] >>> 1;
+                boolean junction = (keys[i] & 1) != 0;
+                int ele = withEle ? eles[i] : NO_ELE;
+                int count = 1;
+                for (i++; i < size && keys[i] >>> 1 == key; i++, count++) {
+                    junction |= (keys[i] & 1) != 0;
+                    if (ele == NO_ELE && withEle)
+                        ele = eles[i];
+                }
+                if (junction || count > 1)
+                    procedure.apply(key, toEle(ele));
+            }
+            return;
+        }
+
+        if (size > 0)
+            writeRun();
+        merge(procedure);
+    }
+
+    private void merge(JunctionProcedure procedure) {
+        int bufferSize = (int) Math.max(MIN_READ_BUFFER, Math.min(MAX_READ_BUFFER, memoryBytes / runFiles.size()));
+        PriorityQueue<Run> queue = new PriorityQueue<>(runFiles.size(), (a, b) -> Long.compare(a.key, b.key));
+        try {
+            for (int r = 0; r < runFiles.size(); r++) {
+                Run run = new Run(runFiles.get(r), runSizes.get(r), bufferSize);
+                if (run.next())
+                    queue.add(run);
+                else
+                    run.close();
+            }
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                long key = run.key;
+                boolean junction = run.junction;
+                int ele = run.ele;
+                int count = 1;
+                advance(run, queue);
+                while (!queue.isEmpty() && queue.peek().key == key) {
+                    run = queue.poll();
+                    junction |= run.junction;
+                    if (ele == NO_ELE)
+                        ele = run.ele;
+                    count++;
+                    advance(run, queue);
+                }
+                if (junction || count > 1)
+                    procedure.apply(key, toEle(ele));
+            }
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        } finally {
+            for (Run run : queue) {
+                run.close();
+            }
+        }
+    }
+
+    private static void advance(Run run, PriorityQueue<Run> queue) throws IOException {
+        if (run.next())
+            queue.add(run);
+        else
+            run.close();
+    }
+
+    private static double toEle(int ele) {
+        return ele == NO_ELE ? Double.NaN : Helper.intToEle(ele);
+    }
+
+    /**
+     * Sorts the points in memory and writes every coordinate once to a new run file. Coordinates that are already
+     * junctions within the run are marked.
+     */
+    private void writeRun() {
+        sort();
+        File file = new File(folder, "run" + runFiles.size());
+        long written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), MAX_READ_BUFFER))) {
+            int i = 0;
+            while (i < size) {
+                long key = keys[i] >>> 1;
+                boolean junction = (keys[i] & 1) != 0;
+                int ele = withEle ? eles[i] : NO_ELE;
+                for (i++; i < size && keys[i] >>> 1 == key; i++) {
+                    // a second part with the same coordinate
+                    junction = true;
+                    if (ele == NO_ELE && withEle)
+                        ele = eles[i];
+                }
+                out.writeLong(key << 1 | (junction ? 1 : 0));
+                if (withEle)
+                    out.writeInt(ele);
+                written++;
+            }
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        }
+        runFiles.add(file);
+        runSizes.add(written);
+        size = 0;
+    }
+
+    private void sort() {
+        // equal keys are also ordered by their elevation, which the merge does not need but does not harm
+        if (withEle)
+            PairSorter.sort(keys, eles, 0, size);
+        else
+            Arrays.sort(keys, 0, size);
+    }
+
+    @Override
+    public void close() {
+        Helper.removeDir(folder);
+    }
+
+    interface JunctionProcedure {
+        void apply(long key, double ele);
+    }
+
+    private final class Run implements Closeable {
+        private final DataInputStream in;
+        private long remaining;
+        long key;
+        boolean junction;
+        int ele = NO_ELE;
+
+        Run(File file, long entries, int bufferSize) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+            this.remaining = entries;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0)
+                return false;
+            remaining--;
+            long value = in.readLong();
+            key = value >>> 1;
+            junction = (value & 1) != 0;
+            if (withEle)
+                ele = in.readInt();
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw Utils.asUnchecked(e);
+            }
+        }
+    }
+}
@@ -17,27 +17,46 @@
  */
 package com.graphhopper.reader.postgis;
 
-import com.graphhopper.coll.GHObjectIntHashMap;
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import com.carrotsearch.hppc.cursors.IntCursor;
 import com.graphhopper.reader.DataReader;
 import com.graphhopper.reader.ReaderWay;
 import com.graphhopper.reader.dem.ElevationProvider;
+import com.graphhopper.reader.dem.GraphElevationSmoothing;
 import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.DataAccess;
 import com.graphhopper.storage.GraphHopperStorage;
 import com.graphhopper.storage.IntsRef;
+import com.graphhopper.storage.NodeAccess;
 import com.graphhopper.util.DistanceCalc;
+import com.graphhopper.util.DouglasPeucker;
 import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.FetchMode;
 import com.graphhopper.util.Helper;
 import com.graphhopper.util.PointList;
 import com.graphhopper.util.shapes.GHPoint;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
 import org.geotools.data.DataStore;
 import org.geotools.feature.FeatureIterator;
+import org.geotools.jdbc.JDBCDataStore;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Supplier;
 
 import static com.graphhopper.util.DistanceCalcEarth.DIST_EARTH;
 import static com.graphhopper.util.Helper.nf;
@@ -58,14 +77,83 @@ public class OSMPostgisReader extends PostgisReader {
     private static final int COORD_STATE_UNKNOWN = 0;
     private static final int COORD_STATE_PILLAR = -2;
     private static final int FIRST_NODE_ID = 1;
+    private static final int PARTITION_BATCH_SIZE = 1_000;
+    private static final int PARTITION_QUEUE_BATCHES = 4;
+    private static final int PIPELINE_BATCH_SIZE = 1_000;
+    private static final int UPDATE_BATCH_SIZE = 500;
+    // half of the precision of the rounded coordinates
+    private static final double TOUCH_DISTANCE = 0.5e-6;
+    private static final String CHECKPOINT_COORDS = "coords";
+    private static final String CHECKPOINT_TOWER_ELE = "tower_ele";
+    // the number of roads whose missing elevations are looked up at once
+    private static final int ELEVATION_BATCH_SIZE = 10_000;
+    // marks a value that is not converted to a tag
+    private static final String NO_VALUE = new String("");
     private final String[] tagsToCopy;
     private File roadsFile;
-    private GHObjectIntHashMap<Coordinate> coordState = new GHObjectIntHashMap<>(1000, 0.7f);
+    private CoordinateStateMap coordState;
     private final DistanceCalc distCalc = DIST_EARTH;
     private final HashSet<EdgeAddedListener> edgeAddedListeners = new HashSet<>();
+    private final LongHashSet tmpSet = new LongHashSet();
     private int nextNodeId = FIRST_NODE_ID;
     protected long zeroCounter = 0;
+    private int junctionCounter = 0;
+    private int edgeCounter = 0;
     private final IntsRef tempRelFlags;
+    // reused for all edges and only accessed by the thread that creates the edges
+    private final GHPoint estmCentreBuffer = new GHPoint();
+    private final PointList pillarNodesBuffer;
+    private final PointList edgePointsBuffer;
+    private final PointList sampleBuffer;
+    private final PointList smoothBuffer;
+    private final Map<Object, String> highwayValues = new HashMap<>();
+    private final Map<Object, String> maxSpeedValues = new HashMap<>();
+    private final Map<Object, String> onewayValues = new HashMap<>();
+    // the indices in tagsToCopy of the tags of db.tags_to_store, their values are stored in the tag dictionary
+    private final int[] storedTagIndices;
+    private final String[] storedTags;
+    private TagDictionary tagDictionary;
+    // reused for all roads and only accessed by the thread that creates the edges
+    private int[] storedTagIds;
+    // null if disabled via db.flags_cache=0 or if the flags depend on the position of the edge
+    private final FlagsCache flagsCache;
+    private final boolean singleScan;
+    private final boolean parallelScan;
+    private final boolean jdbcBackend;
+    private int workerThreads = 1;
+    private final int pipelineThreads;
+    private final boolean hilbertOrder;
+    private final String junctionPass;
+    private final long junctionMemory;
+    private final String junctionFolder;
+    private final String spillFolder;
+    private JunctionSorter junctionSorter;
+    private RoadSpillFile spill;
+    // the updates and the traffic updater find the edges of a road via this index
+    private final boolean edgeIndexEnabled;
+    private RoadEdgeIndex edgeIndex;
+    private boolean changedGeometry;
+    private final boolean offHeapCoordState;
+    private final boolean checkpointEnabled;
+    private final long checkpointInterval;
+    private final String checkpointFingerprint;
+    private ImportCheckpoint checkpoint;
+    private Properties checkpointState;
+    private final boolean is3D;
+    private final int elevationCacheTiles;
+    private ElevationLookup elevation;
+    private boolean smoothElevation;
+    // the towers without Z value, their elevation is looked up at the end of the junction pass
+    private final IntArrayList pendingTowers = new IntArrayList();
+    // the roads of the road pass whose elevation is not looked up yet, the records are reused
+    private final List<RoadRecord> roadBatch = new ArrayList<>();
+    private int roadBatchSize;
+    private double[] eleLats = new double[0];
+    private double[] eleLons = new double[0];
+    private double[] eles = new double[0];
+    private final DouglasPeucker simplifyAlgo = new DouglasPeucker();
+    private boolean doSimplify;
+    private double longEdgeSamplingDistance = Double.MAX_VALUE;
 
     public OSMPostgisReader(GraphHopperStorage ghStorage, Map<String, String> postgisParams) {
         super(ghStorage, postgisParams);
@@ -75,6 +163,57 @@ public class OSMPostgisReader extends PostgisReader {
         } else {
             this.tagsToCopy = tmpTagsToCopy.split(",");
         }
+        this.singleScan = Boolean.parseBoolean(postgisParams.get("single_scan"));
+        this.parallelScan = Boolean.parseBoolean(postgisParams.get("parallel_scan"));
+        this.jdbcBackend = "jdbc".equals(postgisParams.get("backend"));
+        this.pipelineThreads = Integer.parseInt(postgisParams.getOrDefault("pipeline_threads", "0"));
+        this.hilbertOrder = "hilbert".equals(postgisParams.get("node_order"));
+        this.junctionPass = postgisParams.getOrDefault("junction_pass", "memory");
+        this.junctionMemory = Long.parseLong(postgisParams.getOrDefault("junction_memory", "256")) << 20;
+        this.junctionFolder = postgisParams.getOrDefault("junction_folder", "").trim();
+        this.spillFolder = postgisParams.getOrDefault("spill_folder", "").trim();
+        this.edgeIndexEnabled = !postgisParams.getOrDefault("update_column", "").trim().isEmpty()
+                || !postgisParams.getOrDefault("traffic_table", "").trim().isEmpty();
+        this.offHeapCoordState = "mmap".equals(postgisParams.get("coord_state"));
+        this.coordState = new CoordinateStateMap(offHeapCoordState, 1000);
+        this.checkpointEnabled = Boolean.parseBoolean(postgisParams.get("checkpoint"));
+        this.checkpointInterval = Long.parseLong(postgisParams.getOrDefault("checkpoint_interval", "1000000"));
+        // GraphHopper creates a 3D storage if it has an elevation provider
+        this.is3D = ghStorage.getNodeAccess().is3D();
+        this.pillarNodesBuffer = new PointList(10, is3D);
+        this.edgePointsBuffer = new PointList(10, is3D);
+        this.sampleBuffer = new PointList(10, is3D);
+        this.smoothBuffer = new PointList(10, is3D);
+        this.elevationCacheTiles = Integer.parseInt(postgisParams.getOrDefault("elevation_cache_tiles", "32"));
+        if (is3D)
+            this.elevation = new ElevationLookup(ElevationProvider.NOOP::getEle, ElevationProvider.NOOP::release, elevationCacheTiles);
+        // a checkpoint can only be used if the import reads the same roads in the same way
+        this.checkpointFingerprint = String.join("|", postgisParams.getOrDefault("tags_to_copy", ""),
+                String.valueOf(singleScan), postgisParams.getOrDefault("bbox", ""),
+                postgisParams.getOrDefault("fclass_include", ""), postgisParams.getOrDefault("fclass_exclude", ""),
+                postgisParams.getOrDefault("where", ""), String.valueOf(is3D), String.valueOf(hilbertOrder),
+                junctionPass);
+        if (!RoadTable.parse(postgisParams).isEmpty() && (checkpointEnabled || "database".equals(junctionPass)
+                || !postgisParams.getOrDefault("update_column", "").isEmpty()))
+            throw new IllegalArgumentException("db.tables cannot be combined with db.checkpoint, db.update_column or db.junction_pass=database");
+        String tmpTagsToStore = postgisParams.getOrDefault("tags_to_store", "").trim();
+        this.storedTags = tmpTagsToStore.isEmpty() ? new String[0] : tmpTagsToStore.split(",");
+        this.storedTagIndices = new int[storedTags.length];
+        for (int i = 0; i < storedTags.length; i++) {
+            storedTags[i] = storedTags[i].trim();
+            storedTagIndices[i] = -1;
+            for (int j = 0; j < tagsToCopy.length; j++) {
+                if (tagsToCopy[j].trim().equals(storedTags[i]))
+                    storedTagIndices[i] = j;
+            }
+            if (storedTagIndices[i] < 0)
+                throw new IllegalArgumentException("The tag " + storedTags[i] + " of db.tags_to_store is not in db.tags_to_copy");
+        }
+        this.storedTagIds = new int[storedTags.length];
+        int flagsCacheSize = Integer.parseInt(postgisParams.getOrDefault("flags_cache", "10000"));
+        // the spatial rules set the country from the estimated_center of every edge
+        this.flagsCache = flagsCacheSize > 0 && !encodingManager.hasEncodedValue("country")
+                ? new FlagsCache(flagsCacheSize, tagsToCopy) : null;
         tempRelFlags = encodingManager.createRelationFlags();
         if (tempRelFlags.length != 2)
             throw new IllegalArgumentException("Cannot use relation flags with != 2 integers");
@@ -83,171 +222,1219 @@ public class OSMPostgisReader extends PostgisReader {
         tempRelFlags.ints[1] = (int) 0L;
     }
 
+    @Override
+    boolean resumeJunctions() {
+        if (!checkpointEnabled)
+            return false;
+
+        // the roads of the checkpoint have to be the ones the import would read now
+        checkpoint = new ImportCheckpoint(new File(getGraphHopperStorage().getDirectory().getLocation()),
+                getTableName() + "|" + checkpointFingerprint + "|" + getSourceFingerprint());
+        Properties state = checkpoint.read();
+        CoordinateStateMap restoredState = state == null ? null
+                : CoordinateStateMap.load(offHeapCoordState, checkpoint.getDirectory(), CHECKPOINT_COORDS);
+        DataAccess towerEles = null;
+        if (restoredState != null && is3D) {
+            towerEles = checkpoint.getDirectory().find(CHECKPOINT_TOWER_ELE);
+            if (!towerEles.loadExisting()) {
+                towerEles.close();
+                towerEles = null;
+                restoredState.close();
+                restoredState = null;
+            }
+        }
+        // the database junction pass does not spill the roads
+        if (restoredState != null && singleScan && !"database".equals(junctionPass)) {
+            spill = RoadSpillFile.open(checkpoint.getFolder(), Long.parseLong(state.getProperty("roads_size")),
+                    Integer.parseInt(state.getProperty("roads_records")));
+            if (spill == null) {
+                restoredState.close();
+                restoredState = null;
+            }
+        }
+        if (restoredState == null) {
+            if (towerEles != null)
+                towerEles.close();
+            checkpoint.clear();
+            return false;
+        }
+
+        coordState.close();
+        coordState = restoredState;
+        nextNodeId = Integer.parseInt(state.getProperty("next_node_id"));
+        DataAccess tmpTowerEles = towerEles;
+        coordState.forEach((key, value) -> {
+            if (value < FIRST_NODE_ID)
+                return;
+            if (tmpTowerEles == null)
+                saveTowerPosition(value, CoordinateKey.lat(key), CoordinateKey.lon(key));
+            else
+                saveTowerPosition(value, CoordinateKey.lat(key), CoordinateKey.lon(key),
+                        Helper.intToEle(tmpTowerEles.getInt(4L * value)));
+        });
+        if (towerEles != null)
+            towerEles.close();
+        checkpointState = state;
+        LOGGER.info("Resuming the import from the checkpoint in " + checkpoint.getFolder() + " with "
+                + nf(nextNodeId - FIRST_NODE_ID) + " junction points, the junction pass is skipped");
+        return true;
+    }
+
     @Override
     void processJunctions() {
-        DataStore dataStore = null;
-        FeatureIterator<SimpleFeature> roads = null;
-        int tmpJunctionCounter = 0;
+        DataStore dataStore = getDataStore();
+        long fetched = getStats().getRowsFetched();
+        long rejected = getStats().getRowsRejected();
 
-        try {
-            dataStore = openPostGisStore();
-            roads = getFeatureIterator(dataStore, roadsFile.getName());
+        for (RoadTable table : getTables()) {
+            logServerSideFilter(dataStore, table.getName());
+        }
+        if ("database".equals(junctionPass))
+            queryJunctions(dataStore);
+        else
+            scanJunctions(dataStore);
 
-            HashSet<Coordinate> tmpSet = new HashSet<>();
-            while (roads.hasNext()) {
-                SimpleFeature road = roads.next();
+        if (nextNodeId == FIRST_NODE_ID)
+            throw new IllegalArgumentException("No data found for roads file " + roadsFile);
 
-                if (!acceptFeature(road)) {
-                    continue;
-                }
+        LOGGER.info("Number of junction points : " + (nextNodeId - FIRST_NODE_ID));
+        resolveTowerElevations();
+        if (hilbertOrder)
+            renumberTowers();
+        LOGGER.info("Fetched " + nf(getStats().getRowsFetched() - fetched) + " rows, "
+                + nf(getStats().getRowsRejected() - rejected) + " of them were rejected on the client by acceptFeature");
+        if (spill != null)
+            LOGGER.info("Spilled " + nf(spill.getRecords()) + " roads with " + nf(spill.getBytes())
+                    + " bytes for the road pass");
+        if (checkpoint != null)
+            writeJunctionCheckpoint();
+    }
 
-                for (Coordinate[] points : getCoords(road)) {
-                    tmpSet.clear();
-                    for (int i = 0; i < points.length; i++) {
-                        Coordinate c = points[i];
-                        c = roundCoordinate(c);
-
-                        // don't add the same coord twice for the same edge - happens with bad geometry, i.e.
-                        // duplicate coords or a road which forms a circle (e.g. roundabout)
-                        if (tmpSet.contains(c))
-                            continue;
-
-                        tmpSet.add(c);
-
-                        // skip if its already a node
-                        int state = coordState.get(c);
-                        if (state >= FIRST_NODE_ID) {
-                            continue;
-                        }
-
-                        if (i == 0 || i == points.length - 1 || state == COORD_STATE_PILLAR) {
-                            // turn into a node if its the first or last
-                            // point, or already appeared in another edge
-                            int nodeId = nextNodeId++;
-                            coordState.put(c, nodeId);
-                            saveTowerPosition(nodeId, c);
-                        } else if (state == COORD_STATE_UNKNOWN) {
-                            // mark it as a pillar (which may get upgraded
-                            // to an edge later)
-                            coordState.put(c, COORD_STATE_PILLAR);
-                        }
-
-                        if (++tmpJunctionCounter % 100_000 == 0) {
-                            LOGGER.info(nf(tmpJunctionCounter) + " (junctions), junctionMap:" + nf(coordState.size())
-                                    + " " + Helper.getMemInfo());
-                        }
-                    }
+    /**
+     * @return the configured folder for the temporary files of the import, otherwise the graph folder or null for
+     * the temporary folder of the system if the graph is only kept in memory
+     */
+    private File getTemporaryFolder(String folder) {
+        if (!folder.isEmpty())
+            return new File(folder);
+        String location = getGraphHopperStorage().getDirectory().getLocation();
+        return location.isEmpty() ? null : new File(location);
+    }
+
+    /**
+     * Reads all roads to find the junctions, either with the coordinate state or with the external junction pass.
+     */
+    private void scanJunctions(DataStore dataStore) {
+        RoadIterator roads = null;
+        try {
+            // only the single scan needs the attributes in the junction pass, as it spills the roads
+            roads = createRoadIterator(dataStore, !singleScan);
+
+            if (singleScan)
+                spill = checkpoint == null ? new RoadSpillFile(getTemporaryFolder(spillFolder))
+                        : RoadSpillFile.create(checkpoint.getFolder());
+            if ("external".equals(junctionPass))
+                junctionSorter = new JunctionSorter(junctionMemory, is3D, getTemporaryFolder(junctionFolder));
+
+            RoadRecord road;
+            while ((road = roads.next()) != null) {
+                for (int p = 0; p < road.getPartCount(); p++) {
+                    if (junctionSorter == null)
+                        processJunctionPoints(road.getPart(p));
+                    else
+                        sortJunctionPoints(road.getPart(p));
                 }
+
+                if (spill != null)
+                    spill.write(road);
             }
+            if (junctionSorter != null)
+                saveSortedJunctions();
+        } catch (RuntimeException e) {
+            closeSpill();
+            throw e;
         } finally {
             if (roads != null) {
                 roads.close();
             }
-            if (dataStore != null) {
-                dataStore.dispose();
+            if (junctionSorter != null) {
+                junctionSorter.close();
+                junctionSorter = null;
             }
         }
 
-        if (nextNodeId == FIRST_NODE_ID)
-            throw new IllegalArgumentException("No data found for roads file " + roadsFile);
+    }
 
-        LOGGER.info("Number of junction points : " + (nextNodeId - FIRST_NODE_ID));
+    /**
+     * Lets PostGIS find the junctions, only the junctions are transferred. The rows are not spilled, so the road
+     * pass always reads the table again.
+     */
+    private void queryJunctions(DataStore dataStore) {
+        if (!RoadStores.isPostgis(dataStore))
+            throw new IllegalArgumentException("The database junction pass needs a PostGIS store, but got " + dataStore.getClass().getName());
+        if (singleScan)
+            LOGGER.info("The database junction pass does not spill the roads, the road pass reads the table again");
+        try {
+            String tableName = getTableName();
+            Filter filter = getFilter(dataStore.getFeatureSource(tableName));
+            long junctions = DatabaseJunctions.read((JDBCDataStore) dataStore, getSnapshot(), tableName, filter, is3D,
+                    this::saveJunction);
+            LOGGER.info("Received " + nf(junctions) + " junction points from the database " + Helper.getMemInfo());
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * Renumbers the tower nodes in the order of a Hilbert curve, so that towers that are close to each other are
+     * also close in the node storage and the routing algorithms touch fewer pages. No edge exists yet, so only the
+     * junction state and the node positions have to be changed. Towers in the same cell of the curve keep the order
+     * in which they were found.
+     */
+    private void renumberTowers() {
+        int towers = nextNodeId - FIRST_NODE_ID;
+        // the position on the curve has 32 bits, so the old id fits into the lower 31 bits
+        long[] order = new long[towers];
+        coordState.forEach((key, value) -> {
+            if (value >= FIRST_NODE_ID)
+                order[value - FIRST_NODE_ID] = HilbertCurve.index(CoordinateKey.lat(key), CoordinateKey.lon(key)) << 31 | value;
+        });
+        Arrays.sort(order);
+        int[] newIds = new int[towers];
+        for (int i = 0; i < towers; i++) {
+            newIds[(int) (order[i] & Integer.MAX_VALUE) - FIRST_NODE_ID] = FIRST_NODE_ID + i;
+        }
+
+        NodeAccess nodeAccess = graph.getNodeAccess();
+        int[] towerEles = null;
+        if (is3D) {
+            towerEles = new int[towers];
+            for (int node = FIRST_NODE_ID; node < nextNodeId; node++) {
+                towerEles[node - FIRST_NODE_ID] = Helper.eleToInt(nodeAccess.getEle(node));
+            }
+        }
+        int[] tmpTowerEles = towerEles;
+        // only replaces the values of existing keys, which is safe while iterating
+        coordState.forEach((key, value) -> {
+            if (value < FIRST_NODE_ID)
+                return;
+            int nodeId = newIds[value - FIRST_NODE_ID];
+            coordState.put(key, nodeId);
+            if (tmpTowerEles == null)
+                saveTowerPosition(nodeId, CoordinateKey.lat(key), CoordinateKey.lon(key));
+            else
+                saveTowerPosition(nodeId, CoordinateKey.lat(key), CoordinateKey.lon(key),
+                        Helper.intToEle(tmpTowerEles[value - FIRST_NODE_ID]));
+        });
+        LOGGER.info("Renumbered " + nf(towers) + " junction points in Hilbert order " + Helper.getMemInfo());
+    }
+
+    private void writeJunctionCheckpoint() {
+        coordState.store(checkpoint.getDirectory(), CHECKPOINT_COORDS);
+        if (is3D)
+            storeTowerElevations();
+        checkpointState = new Properties();
+        checkpointState.setProperty("next_node_id", String.valueOf(nextNodeId));
+        if (spill != null) {
+            spill.flush();
+            checkpointState.setProperty("roads_size", String.valueOf(spill.getBytes()));
+            checkpointState.setProperty("roads_records", String.valueOf(spill.getRecords()));
+        }
+        checkpoint.write(checkpointState);
+        LOGGER.info("Stored the junction state in the checkpoint " + checkpoint.getFolder());
+    }
+
+    private void storeTowerElevations() {
+        NodeAccess nodeAccess = graph.getNodeAccess();
+        DataAccess da = checkpoint.getDirectory().find(CHECKPOINT_TOWER_ELE).create(4L * nextNodeId);
+        try {
+            da.ensureCapacity(4L * nextNodeId);
+            for (int node = FIRST_NODE_ID; node < nextNodeId; node++) {
+                da.setInt(4L * node, Helper.eleToInt(nodeAccess.getEle(node)));
+            }
+            da.flush();
+        } finally {
+            da.close();
+        }
+    }
+
+    /**
+     * Turns the end points of the line and the points that another line already used into tower nodes.
+     */
+    void processJunctionPoints(PointList points) {
+        tmpSet.clear();
+        int last = points.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            long key = CoordinateKey.toKey(points.getLat(i), points.getLon(i));
+
+            // don't add the same coord twice for the same edge - happens with bad geometry, i.e.
+            // duplicate coords or a road which forms a circle (e.g. roundabout)
+            if (!tmpSet.add(key))
+                continue;
+
+            // skip if its already a node
+            int state = coordState.get(key);
+            if (state >= FIRST_NODE_ID) {
+                continue;
+            }
+
+            if (i == 0 || i == last || state == COORD_STATE_PILLAR) {
+                // turn into a node if its the first or last
+                // point, or already appeared in another edge
+                int nodeId = nextNodeId++;
+                coordState.put(key, nodeId);
+                saveTower(nodeId, points, i);
+            } else if (state == COORD_STATE_UNKNOWN) {
+                // mark it as a pillar (which may get upgraded
+                // to an edge later)
+                coordState.put(key, COORD_STATE_PILLAR);
+            }
+
+            if (++junctionCounter % 100_000 == 0) {
+                LOGGER.info(nf(junctionCounter) + " (junctions), junctionMap:" + nf(coordState.size())
+                        + " " + Helper.getMemInfo());
+                getStats().progress();
+            }
+        }
+    }
+
+    /**
+     * Adds the points of the line to the external junction pass, which decides about the tower nodes at the end.
+     */
+    private void sortJunctionPoints(PointList points) {
+        tmpSet.clear();
+        int last = points.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            long key = CoordinateKey.toKey(points.getLat(i), points.getLon(i));
+            if (!tmpSet.add(key))
+                continue;
+
+            junctionSorter.add(key, i == 0 || i == last, points.getEle(i));
+            if (++junctionCounter % 100_000 == 0) {
+                LOGGER.info(nf(junctionCounter) + " (junctions), runs:" + junctionSorter.getRuns() + " "
+                        + Helper.getMemInfo());
+                getStats().progress();
+            }
+        }
+    }
+
+    /**
+     * Merges the runs of the external junction pass and creates the tower nodes in the order of their keys. Only
+     * the towers are added to the coordinate state, the road pass does not need the pillars.
+     */
+    private void saveSortedJunctions() {
+        LOGGER.info("Merging " + junctionSorter.getRuns() + " runs of the external junction pass");
+        junctionSorter.forEachJunction(this::saveJunction);
+    }
+
+    /**
+     * Creates the tower node of a junction that was found by the external or the database junction pass.
+     *
+     * @param ele the elevation of the junction or NaN if it has to be looked up
+     */
+    private void saveJunction(long key, double ele) {
+        int nodeId = nextNodeId++;
+        coordState.put(key, nodeId);
+        if (!is3D) {
+            saveTowerPosition(nodeId, CoordinateKey.lat(key), CoordinateKey.lon(key));
+            return;
+        }
+        if (Double.isNaN(ele)) {
+            pendingTowers.add(nodeId);
+            ele = 0;
+        }
+        saveTowerPosition(nodeId, CoordinateKey.lat(key), CoordinateKey.lon(key), ele);
+    }
+
+    private void saveTower(int nodeId, PointList points, int index) {
+        if (!is3D) {
+            saveTowerPosition(nodeId, points.getLat(index), points.getLon(index));
+            return;
+        }
+        double ele = points.getEle(index);
+        if (Double.isNaN(ele)) {
+            // without a Z value the elevation is looked up at the end of the junction pass
+            pendingTowers.add(nodeId);
+            ele = 0;
+        }
+        saveTowerPosition(nodeId, points.getLat(index), points.getLon(index), ele);
+    }
+
+    /**
+     * Looks up the elevations of all towers without Z value at once, sorted by DEM tile.
+     */
+    private void resolveTowerElevations() {
+        int count = pendingTowers.size();
+        if (count == 0)
+            return;
+        NodeAccess nodeAccess = graph.getNodeAccess();
+        ensureElevationBuffers(count);
+        for (int i = 0; i < count; i++) {
+            int node = pendingTowers.get(i);
+            eleLats[i] = nodeAccess.getLat(node);
+            eleLons[i] = nodeAccess.getLon(node);
+        }
+        elevation.getEle(eleLats, eleLons, eles, count);
+        for (int i = 0; i < count; i++) {
+            saveTowerPosition(pendingTowers.get(i), eleLats[i], eleLons[i], eles[i]);
+        }
+        LOGGER.info("Looked up the elevation of " + nf(count) + " junction points " + Helper.getMemInfo());
+        pendingTowers.clear();
+        pendingTowers.trimToSize();
     }
 
     @Override
     void processRoads() {
+        if (edgeIndexEnabled)
+            edgeIndex = RoadEdgeIndex.create(getGraphHopperStorage().getDirectory());
+        if (storedTags.length > 0)
+            tagDictionary = TagDictionary.create(getGraphHopperStorage().getDirectory(), storedTags);
+
+        if (spill != null) {
+            // single scan: replay the roads of the junction pass without asking the database again
+            try {
+                RoadRecord record = newRecord();
+                spill.rewind();
+                while (spill.next(record)) {
+                    addRoad(record);
+                }
+                flushRoads();
+            } finally {
+                closeSpill();
+            }
+            return;
+        }
 
-        DataStore dataStore = null;
-        FeatureIterator<SimpleFeature> roads = null;
+        if (checkpoint != null) {
+            processRoadsWithCheckpoints(getDataStore());
+            return;
+        }
 
-        int tmpEdgeCounter = 0;
+        RoadIterator roads = null;
 
         try {
-            dataStore = openPostGisStore();
-            roads = getFeatureIterator(dataStore, roadsFile.getName());
+            roads = createRoadIterator(getDataStore(), false);
 
-            while (roads.hasNext()) {
-                SimpleFeature road = roads.next();
+            RoadRecord road;
+            while ((road = roads.next()) != null) {
+                addRoad(road);
+            }
+            flushRoads();
+        } finally {
+            if (roads != null) {
+                roads.close();
+            }
+        }
+    }
 
-                if (!acceptFeature(road)) {
-                    continue;
-                }
+    /**
+     * Reads the roads sorted by osm_id within every partition and logs them in the checkpoint folder. Every
+     * checkpoint_interval roads the last osm_id of every partition is stored, so a resumed import replays the logged
+     * roads and only reads the remaining ones from the database.
+     */
+    private void processRoadsWithCheckpoints(DataStore dataStore) {
+        long[] bounds;
+        long[] lastIds;
+        RoadSpillFile roadLog = null;
+        RoadIterator roads = null;
 
-                for (Coordinate[] points : getCoords(road)) {
-                    // Parse all points in the geometry, splitting into
-                    // individual GraphHopper edges
-                    // whenever we find a node in the list of points
-                    Coordinate startTowerPnt = null;
-                    List<Coordinate> pillars = new ArrayList<Coordinate>();
-                    for (Coordinate point : points) {
-                        point = roundCoordinate(point);
-                        if (startTowerPnt == null) {
-                            startTowerPnt = point;
-                        } else {
-                            int state = coordState.get(point);
-                            if (state >= FIRST_NODE_ID) {
-                                int fromTowerNodeId = coordState.get(startTowerPnt);
-                                int toTowerNodeId = state;
-
-                                // get distance and estimated centre
-                                GHPoint estmCentre = new GHPoint(
-                                        0.5 * (lat(startTowerPnt) + lat(point)),
-                                        0.5 * (lng(startTowerPnt) + lng(point)));
-                                PointList pillarNodes = new PointList(pillars.size(), false);
-
-                                for (Coordinate pillar : pillars) {
-                                    pillarNodes.add(lat(pillar), lng(pillar));
-                                }
-
-                                double distance = getWayLength(startTowerPnt, pillars, point);
-                                addEdge(fromTowerNodeId, toTowerNodeId, road, distance, estmCentre,
-                                        pillarNodes);
-                                startTowerPnt = point;
-                                pillars.clear();
-
-                                if (++tmpEdgeCounter % 1_000_000 == 0) {
-                                    LOGGER.info(nf(tmpEdgeCounter) + " (edges) " + Helper.getMemInfo());
-                                }
-                            } else {
-                                pillars.add(point);
-                            }
-                        }
-                    }
+        try {
+            if (checkpointState.getProperty("partition_bounds") != null) {
+                bounds = parseLongs(checkpointState.getProperty("partition_bounds"));
+                lastIds = parseLongs(checkpointState.getProperty("partition_last_ids"));
+                roadLog = RoadSpillFile.open(checkpoint.getFolder(), Long.parseLong(checkpointState.getProperty("roads_size")),
+                        Integer.parseInt(checkpointState.getProperty("roads_records")));
+                if (roadLog == null)
+                    throw new IllegalStateException("The roads of the checkpoint " + checkpoint.getFolder() + " are missing");
+
+                RoadRecord record = newRecord();
+                roadLog.rewind();
+                while (roadLog.next(record)) {
+                    addRoad(record);
                 }
+                flushRoads();
+                LOGGER.info("Replayed " + nf(roadLog.getRecords()) + " roads of the checkpoint, reading the remaining roads");
+            } else {
+                bounds = getPartitionBounds(dataStore, getTableName(), getPartitions());
+                lastIds = new long[bounds.length - 1];
+                Arrays.fill(lastIds, Long.MIN_VALUE);
+                roadLog = RoadSpillFile.create(checkpoint.getFolder());
+            }
 
+            List<Filter> partitions = new ArrayList<>(lastIds.length);
+            for (int i = 0; i < lastIds.length; i++) {
+                // the roads of a partition are sorted, so all roads up to the last id are done
+                long from = lastIds[i] == Long.MIN_VALUE ? bounds[i] : lastIds[i] + 1;
+                partitions.add(createRangeFilter(from, bounds[i + 1]));
             }
+            roads = createRoadIterator(dataStore, partitions, false, true);
+
+            long roadsSinceCheckpoint = 0;
+            RoadRecord road;
+            while ((road = roads.next()) != null) {
+                // a road that is still in the batch is logged already, so a resumed import replays it as well
+                addRoad(road);
+                roadLog.write(road);
+                lastIds[getPartition(bounds, road.osmId)] = road.osmId;
+                if (++roadsSinceCheckpoint == checkpointInterval) {
+                    writeRoadCheckpoint(roadLog, bounds, lastIds);
+                    roadsSinceCheckpoint = 0;
+                }
+            }
+            flushRoads();
         } finally {
             if (roads != null) {
                 roads.close();
             }
+            if (roadLog != null) {
+                roadLog.close();
+            }
+        }
+    }
+
+    private void writeRoadCheckpoint(RoadSpillFile roadLog, long[] bounds, long[] lastIds) {
+        roadLog.flush();
+        checkpointState.setProperty("roads_size", String.valueOf(roadLog.getBytes()));
+        checkpointState.setProperty("roads_records", String.valueOf(roadLog.getRecords()));
+        checkpointState.setProperty("partition_bounds", joinLongs(bounds));
+        checkpointState.setProperty("partition_last_ids", joinLongs(lastIds));
+        checkpoint.write(checkpointState);
+        LOGGER.info("Checkpoint after " + nf(roadLog.getRecords()) + " roads " + Helper.getMemInfo());
+    }
+
+    private static int getPartition(long[] bounds, long osmId) {
+        int index = Arrays.binarySearch(bounds, osmId);
+        return index >= 0 ? index : -index - 2;
+    }
 
-            if (dataStore != null) {
-                dataStore.dispose();
+    private static long[] parseLongs(String str) {
+        String[] values = str.split(",");
+        long[] result = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Long.parseLong(values[i]);
+        }
+        return result;
+    }
+
+    private static String joinLongs(long[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (long value : values) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates the iterator over the accepted roads. If parallel reading is enabled the table is split into
+     * partitions that are read concurrently.
+     *
+     * @param geometryOnly if true only the geometry is fetched and the attributes of the roads are not set
+     */
+    private RoadIterator createRoadIterator(DataStore dataStore, boolean geometryOnly) {
+        // all tables are read concurrently, the junctions are shared, so roads of different tables are connected
+        List<String> tableNames = new ArrayList<>();
+        List<Filter> partitions = new ArrayList<>();
+        for (RoadTable table : getTables()) {
+            for (Filter partition : getPartitionFilters(dataStore, table.getName(), getPartitions())) {
+                tableNames.add(table.getName());
+                partitions.add(partition);
+            }
+        }
+        return createRoadIterator(dataStore, tableNames, partitions, geometryOnly, false);
+    }
+
+    /**
+     * @param orderById if true the roads of every partition are sorted by osm_id
+     */
+    private RoadIterator createRoadIterator(DataStore dataStore, List<Filter> partitions, boolean geometryOnly,
+                                            boolean orderById) {
+        return createRoadIterator(dataStore, Collections.nCopies(partitions.size(), getTableName()), partitions,
+                geometryOnly, orderById);
+    }
+
+    /**
+     * @param tableNames the table of every partition
+     */
+    private RoadIterator createRoadIterator(DataStore dataStore, List<String> tableNames, List<Filter> partitions,
+                                            boolean geometryOnly, boolean orderById) {
+        if (partitions.size() == 1)
+            return getStats().measure(openRoadIterator(dataStore, tableNames.get(0), partitions.get(0), true, geometryOnly, orderById));
+
+        List<Supplier<RoadIterator>> suppliers = new ArrayList<>(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            String tableName = tableNames.get(i);
+            Filter partition = partitions.get(i);
+            suppliers.add(() -> openRoadIterator(dataStore, tableName, partition, false, geometryOnly, orderById));
+        }
+        // the time blocked on the queue of the partitions is the time the import waits for the database
+        return getStats().measure(new PartitionedRoadIterator(suppliers, PARTITION_BATCH_SIZE, PARTITION_QUEUE_BATCHES));
+    }
+
+    private RoadIterator openRoadIterator(DataStore dataStore, String tableName, Filter partition,
+                                          boolean reuseRecord, boolean geometryOnly, boolean orderById) {
+        RoadTable table = getTable(tableName);
+        if (!jdbcBackend) {
+            List<String> properties = new ArrayList<>();
+            for (String property : getAcceptFeatureProperties()) {
+                properties.add(table.getColumn(property));
+            }
+            if (!geometryOnly) {
+                properties.addAll(Arrays.asList(OSM_ID, table.getColumn("fclass"), table.getColumn("maxspeed"),
+                        table.getColumn("oneway")));
+                for (String tag : tagsToCopy) {
+                    properties.add(table.getColumn(tag));
+                }
             }
+            SortBy[] sortBy = orderById ? new SortBy[]{FF.sort(OSM_ID, SortOrder.ASCENDING)} : null;
+            FeatureIterator<SimpleFeature> features = getFeatureIterator(dataStore, tableName, partition, properties, sortBy);
+            if (pipelineThreads > 0)
+                return pipeline(() -> rows(features), () -> new FeatureDecoder(geometryOnly, table));
+            return new FeatureRoadIterator(features, reuseRecord, geometryOnly, table);
+        }
+
+        if (!RoadStores.isPostgis(dataStore))
+            throw new IllegalArgumentException("The jdbc backend needs a PostGIS store, but got " + dataStore.getClass().getName());
+        try {
+            Filter filter = and(getFilter(dataStore.getFeatureSource(tableName)), partition);
+            JdbcRoadIterator roads = new JdbcRoadIterator((JDBCDataStore) dataStore, getSnapshot(), table, filter,
+                    tagsToCopy, reuseRecord, geometryOnly, orderById, is3D);
+            if (pipelineThreads > 0)
+                return pipeline(() -> rows(roads), JdbcRoadIterator::createDecoder);
+            return roads;
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * Fetches the rows on a separate thread and decodes them on the decoder threads, while the calling thread
+     * writes the graph.
+     */
+    private <R> RoadIterator pipeline(Supplier<PipelinedRoadIterator.RowSource<R>> rows,
+                                      Supplier<PipelinedRoadIterator.RowDecoder<R>> decoders) {
+        return new PipelinedRoadIterator<>(rows, decoders, pipelineThreads, PIPELINE_BATCH_SIZE, 2 * pipelineThreads);
+    }
+
+    private static PipelinedRoadIterator.RowSource<SimpleFeature> rows(FeatureIterator<SimpleFeature> features) {
+        return new PipelinedRoadIterator.RowSource<SimpleFeature>() {
+            @Override
+            public SimpleFeature next() {
+                return features.hasNext() ? features.next() : null;
+            }
+
+            @Override
+            public void close() {
+                features.close();
+            }
+        };
+    }
+
+    private static PipelinedRoadIterator.RowSource<JdbcRoadIterator.Row> rows(JdbcRoadIterator roads) {
+        return new PipelinedRoadIterator.RowSource<JdbcRoadIterator.Row>() {
+            @Override
+            public JdbcRoadIterator.Row next() {
+                return roads.nextRow();
+            }
+
+            @Override
+            public void close() {
+                roads.close();
+            }
+        };
+    }
+
+    @Override
+    protected int getPartitions() {
+        return parallelScan ? Math.max(1, workerThreads) : 1;
+    }
+
+    private RoadRecord newRecord() {
+        return new RoadRecord(tagsToCopy.length, is3D);
+    }
+
+    /**
+     * Processes the road. For a 3D graph the road is copied into a batch first, so that the missing elevations of
+     * many roads can be looked up at once.
+     */
+    private void addRoad(RoadRecord road) {
+        if (!is3D) {
+            processRoad(road);
+            return;
+        }
+        if (roadBatchSize == roadBatch.size())
+            roadBatch.add(newRecord());
+        roadBatch.get(roadBatchSize++).copyFrom(road);
+        if (roadBatchSize == ELEVATION_BATCH_SIZE)
+            flushRoads();
+    }
+
+    /**
+     * Processes all roads of the batch.
+     */
+    private void flushRoads() {
+        if (roadBatchSize == 0)
+            return;
+        prepareElevation(roadBatch, roadBatchSize);
+        for (int i = 0; i < roadBatchSize; i++) {
+            processRoad(roadBatch.get(i));
+        }
+        roadBatchSize = 0;
+    }
+
+    /**
+     * Sets the elevations that the geometries of the roads did not have. Long segments are sampled first if this is
+     * enabled. Tower nodes take the elevation of their node, all other points are looked up at once, sorted by DEM
+     * tile. Afterwards the elevations are smoothed if this is enabled.
+     */
+    private void prepareElevation(List<RoadRecord> roads, int count) {
+        NodeAccess nodeAccess = graph.getNodeAccess();
+        int lookups = 0;
+        for (int r = 0; r < count; r++) {
+            RoadRecord road = roads.get(r);
+            for (int p = 0; p < road.getPartCount(); p++) {
+                PointList points = road.getPart(p);
+                if (longEdgeSamplingDistance < Double.MAX_VALUE)
+                    sampleLongSegments(points);
+                for (int i = 0; i < points.size(); i++) {
+                    // a tower always takes the elevation of its node, which can come from the Z value of another road
+                    int state = coordState.get(CoordinateKey.toKey(points.getLat(i), points.getLon(i)));
+                    if (state >= FIRST_NODE_ID) {
+                        points.set(i, points.getLat(i), points.getLon(i), nodeAccess.getEle(state));
+                        continue;
+                    }
+                    if (!Double.isNaN(points.getEle(i)))
+                        continue;
+                    ensureElevationBuffers(lookups + 1);
+                    eleLats[lookups] = points.getLat(i);
+                    eleLons[lookups] = points.getLon(i);
+                    lookups++;
+                }
+            }
+        }
+
+        if (lookups > 0) {
+            elevation.getEle(eleLats, eleLons, eles, lookups);
+            // the points that are still missing an elevation are visited in the same order as above
+            int lookup = 0;
+            for (int r = 0; r < count; r++) {
+                RoadRecord road = roads.get(r);
+                for (int p = 0; p < road.getPartCount(); p++) {
+                    PointList points = road.getPart(p);
+                    for (int i = 0; i < points.size(); i++) {
+                        if (Double.isNaN(points.getEle(i)))
+                            points.set(i, points.getLat(i), points.getLon(i), eles[lookup++]);
+                    }
+                }
+            }
+        }
+
+        if (smoothElevation) {
+            for (int r = 0; r < count; r++) {
+                RoadRecord road = roads.get(r);
+                for (int p = 0; p < road.getPartCount(); p++) {
+                    smoothEdges(road.getPart(p));
+                }
+            }
+        }
+    }
+
+    /**
+     * Smooths the elevation of every edge of the road on its own, like GraphHopper's OSM import does. Only the
+     * pillars are changed, so the towers keep the elevation of their node and the smoothing does not reach over a
+     * junction into the next edge.
+     */
+    private void smoothEdges(PointList points) {
+        int startIndex = 0;
+        for (int i = 1; i < points.size(); i++) {
+            if (i < points.size() - 1 && coordState.get(CoordinateKey.toKey(points.getLat(i), points.getLon(i))) < FIRST_NODE_ID)
+                continue;
+            if (i - startIndex > 1) {
+                smoothBuffer.clear();
+                for (int j = startIndex; j <= i; j++) {
+                    addPoint(smoothBuffer, points, j);
+                }
+                GraphElevationSmoothing.smoothElevation(smoothBuffer);
+                for (int j = startIndex + 1; j < i; j++) {
+                    points.set(j, points.getLat(j), points.getLon(j), smoothBuffer.getEle(j - startIndex));
+                }
+            }
+            startIndex = i;
+        }
+    }
+
+    /**
+     * Inserts points without elevation into the segments that are longer than the long edge sampling distance, so
+     * that the elevation profile of a long straight road is not just the elevation of its ends. Like the other
+     * points the new points are rounded. A point that would hit a tower node is skipped, as it would split the road.
+     */
+    private void sampleLongSegments(PointList points) {
+        sampleBuffer.clear();
+        boolean sampled = false;
+        for (int i = 0; i < points.size(); i++) {
+            if (i > 0) {
+                double fromLat = points.getLat(i - 1);
+                double fromLon = points.getLon(i - 1);
+                double toLat = points.getLat(i);
+                double toLon = points.getLon(i);
+                double distance = distCalc.calcDist(fromLat, fromLon, toLat, toLon);
+                int segments = (int) Math.ceil(distance / longEdgeSamplingDistance);
+                for (int s = 1; s < segments; s++) {
+                    double factor = (double) s / segments;
+                    double lat = Helper.round6(fromLat + factor * (toLat - fromLat));
+                    double lon = Helper.round6(fromLon + factor * (toLon - fromLon));
+                    if (coordState.get(CoordinateKey.toKey(lat, lon)) >= FIRST_NODE_ID)
+                        continue;
+                    sampleBuffer.add(lat, lon, Double.NaN);
+                    sampled = true;
+                }
+            }
+            addPoint(sampleBuffer, points, i);
+        }
+        if (sampled) {
+            points.clear();
+            points.add(sampleBuffer);
+        }
+    }
+
+    private void ensureElevationBuffers(int size) {
+        if (eleLats.length >= size)
+            return;
+        int capacity = Math.max(size, 2 * eleLats.length);
+        eleLats = Arrays.copyOf(eleLats, capacity);
+        eleLons = Arrays.copyOf(eleLons, capacity);
+        eles = Arrays.copyOf(eles, capacity);
+    }
+
+    /**
+     * Splits the rounded geometry of the road into individual GraphHopper edges whenever we find a tower node in
+     * the list of points.
+     */
+    void processRoad(RoadRecord road) {
+        // the tags and the acceptance only depend on the attributes, so all edges of the road share them
+        ReaderWay way = createWay(road);
+        FlagsCache.Entry cached = flagsCache == null ? null : flagsCache.get(way);
+        EncodingManager.AcceptWay acceptWay;
+        boolean accepted;
+        if (cached != null && cached.acceptWay != null) {
+            acceptWay = cached.acceptWay;
+            accepted = cached.accepted;
+        } else {
+            acceptWay = new EncodingManager.AcceptWay();
+            accepted = encodingManager.acceptWay(way, acceptWay);
+            if (cached != null) {
+                cached.acceptWay = acceptWay;
+                cached.accepted = accepted;
+            }
+        }
+        if (tagDictionary != null)
+            fillStoredTagIds(road);
+
+        for (int p = 0; p < road.getPartCount(); p++) {
+            PointList points = road.getPart(p);
+            if (points.isEmpty())
+                continue;
+
+            int startIndex = 0;
+            int fromTowerNodeId = coordState.get(CoordinateKey.toKey(points.getLat(0), points.getLon(0)));
+            for (int i = 1; i < points.size(); i++) {
+                int state = coordState.get(CoordinateKey.toKey(points.getLat(i), points.getLon(i)));
+                if (state < FIRST_NODE_ID)
+                    continue;
+
+                EdgeIteratorState edge = graph.edge(fromTowerNodeId, state);
+                getStats().edgeCreated();
+                // also remember the edges that the encoders do not accept, as an update might change this
+                if (edgeIndex != null)
+                    edgeIndex.add(road.osmId, edge.getEdge());
+                if (tagDictionary != null)
+                    tagDictionary.setIds(edge.getEdge(), storedTagIds);
+
+                if (accepted) {
+                    // get distance and estimated centre, the encoders and the storage copy the buffers
+                    estmCentreBuffer.lat = 0.5 * (points.getLat(startIndex) + points.getLat(i));
+                    estmCentreBuffer.lon = 0.5 * (points.getLon(startIndex) + points.getLon(i));
+                    fillPillarNodes(points, startIndex, i, pillarNodesBuffer);
+                    double distance = getWayLength(points, startIndex, i);
+                    if (!setEdgeProperties(edge, way, acceptWay, cached, distance, estmCentreBuffer, pillarNodesBuffer))
+                        getStats().edgeWithoutFlags();
+                } else {
+                    getStats().edgeNotAccepted();
+                }
+                startIndex = i;
+                fromTowerNodeId = state;
+
+                if (++edgeCounter % 1_000_000 == 0) {
+                    LOGGER.info(nf(edgeCounter) + " (edges) " + Helper.getMemInfo());
+                    getStats().progress();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the values of the stored tags of the road to the tag dictionary and keeps their ids in storedTagIds.
+     */
+    private void fillStoredTagIds(RoadRecord road) {
+        for (int i = 0; i < storedTagIndices.length; i++) {
+            storedTagIds[i] = tagDictionary.getId(road.tags[storedTagIndices[i]]);
+        }
+    }
+
+    private static GHPoint getCentre(PointList points, int fromIndex, int toIndex) {
+        return new GHPoint(
+                0.5 * (points.getLat(fromIndex) + points.getLat(toIndex)),
+                0.5 * (points.getLon(fromIndex) + points.getLon(toIndex)));
+    }
+
+    private PointList getPillarNodes(PointList points, int fromIndex, int toIndex) {
+        PointList pillarNodes = new PointList(toIndex - fromIndex - 1, points.is3D());
+        fillPillarNodes(points, fromIndex, toIndex, pillarNodes);
+        return pillarNodes;
+    }
+
+    /**
+     * Copies the pillar nodes between the tower nodes at fromIndex and toIndex into the target. If simplification is
+     * enabled the points of the edge are simplified with Douglas-Peucker first, the tower nodes are always kept.
+     */
+    private void fillPillarNodes(PointList points, int fromIndex, int toIndex, PointList target) {
+        target.clear();
+        if (!doSimplify || toIndex - fromIndex < 2) {
+            for (int pillar = fromIndex + 1; pillar < toIndex; pillar++) {
+                addPoint(target, points, pillar);
+            }
+            return;
+        }
+
+        edgePointsBuffer.clear();
+        for (int i = fromIndex; i <= toIndex; i++) {
+            addPoint(edgePointsBuffer, points, i);
+        }
+        simplifyAlgo.simplify(edgePointsBuffer);
+        for (int i = 1; i < edgePointsBuffer.size() - 1; i++) {
+            addPoint(target, edgePointsBuffer, i);
+        }
+    }
+
+    private static void addPoint(PointList target, PointList source, int index) {
+        if (target.is3D())
+            target.add(source.getLat(index), source.getLon(index), source.getEle(index));
+        else
+            target.add(source.getLat(index), source.getLon(index));
+    }
+
+    @Override
+    boolean processChanges(String changeMarker) {
+        DataStore dataStore = getDataStore();
+        String tableName = getTableName();
+        RoadChangeLog.Changes changes = getChangeLog().readChanges(dataStore, tableName, changeMarker);
+        if (changes.isEmpty()) {
+            LOGGER.info("No roads changed after " + changeMarker);
+            return true;
+        }
+
+        RoadEdgeIndex index = RoadEdgeIndex.load(getGraphHopperStorage().getDirectory());
+        if (index == null) {
+            LOGGER.warn("The graph has no " + RoadEdgeIndex.NAME + ", it was imported without db.update_column");
+            return false;
+        }
+        LongObjectHashMap<IntArrayList> edgesByRoad = index.getEdges(changes.ids);
+
+        // collect all updates first, so the graph is not touched if one of the roads changes the topology
+        List<EdgeUpdate> updates = new ArrayList<>();
+        LongHashSet updatedRoads = new LongHashSet();
+        long[] ids = changes.ids.toArray();
+        Arrays.sort(ids);
+        for (int start = 0; start < ids.length; start += UPDATE_BATCH_SIZE) {
+            long[] batch = Arrays.copyOfRange(ids, start, Math.min(ids.length, start + UPDATE_BATCH_SIZE));
+            List<RoadRecord> roads = new ArrayList<>(batch.length);
+            try (RoadIterator iterator = openRoadIterator(dataStore, tableName, RoadChangeLog.createIdFilter(batch), false, false, false)) {
+                RoadRecord road;
+                while ((road = iterator.next()) != null) {
+                    if (!changes.deleted.contains(road.osmId))
+                        roads.add(road);
+                }
+            }
+            if (is3D) {
+                // the coordinate state is empty on update, but prepareElevation needs the towers to keep their
+                // elevation and to not sample a point onto them
+                putTowers(edgesByRoad, batch);
+                prepareElevation(roads, roads.size());
+            }
+
+            for (RoadRecord road : roads) {
+                IntArrayList edges = edgesByRoad.get(road.osmId);
+                if (edges == null) {
+                    LOGGER.info("Road " + road.osmId + " is new, the graph has to be imported again");
+                    return false;
+                }
+                if (!updatedRoads.add(road.osmId)) {
+                    LOGGER.info("Found more than one row for road " + road.osmId + ", the graph has to be imported again");
+                    return false;
+                }
+                if (!addEdgeUpdates(dataStore, road, edges, updates)) {
+                    LOGGER.info("Road " + road.osmId + " changes the junctions of the graph, it has to be imported again");
+                    return false;
+                }
+            }
+        }
+
+        // the remaining roads were deleted or are not accepted anymore, their edges are blocked
+        int removedRoads = 0;
+        for (long osmId : ids) {
+            IntArrayList edges = edgesByRoad.get(osmId);
+            if (edges == null || updatedRoads.contains(osmId))
+                continue;
+            removedRoads++;
+            for (IntCursor edge : edges) {
+                updates.add(new EdgeUpdate(graph.getEdgeIteratorState(edge.value, Integer.MIN_VALUE), null, 0, null, null));
+            }
+        }
+
+        if (storedTags.length > 0) {
+            tagDictionary = TagDictionary.load(getGraphHopperStorage().getDirectory(), storedTags);
+            if (tagDictionary == null)
+                LOGGER.warn("The graph has no dictionary for the tags " + Arrays.toString(storedTags)
+                        + ", their values are not updated. Import the graph again with db.tags_to_store");
+        }
+        for (EdgeUpdate update : updates) {
+            resetEdge(update.edge);
+            if (tagDictionary != null) {
+                if (update.road != null)
+                    fillStoredTagIds(update.road);
+                tagDictionary.setIds(update.edge.getEdge(), update.road == null ? null : storedTagIds);
+            }
+            if (update.road == null)
+                continue;
+            ReaderWay way = createWay(update.road);
+            EncodingManager.AcceptWay acceptWay = new EncodingManager.AcceptWay();
+            if (encodingManager.acceptWay(way, acceptWay))
+                setEdgeProperties(update.edge, way, acceptWay, null, update.distance, update.estmCentre, update.pillarNodes);
+        }
+        LOGGER.info("Updated " + nf(updatedRoads.size()) + " roads and removed " + nf(removedRoads) + " roads, "
+                + nf(updates.size()) + " edges changed");
+        return true;
+    }
+
+    /**
+     * Adds the tower nodes of the existing edges of the specified roads to the coordinate state, as the update does
+     * not run the junction pass. A changed road can only touch these towers without being imported again: a point
+     * that is sampled onto the tower of another road is a new shared point, which makes the update fail.
+     */
+    private void putTowers(LongObjectHashMap<IntArrayList> edgesByRoad, long[] osmIds) {
+        NodeAccess nodeAccess = graph.getNodeAccess();
+        for (long osmId : osmIds) {
+            IntArrayList edges = edgesByRoad.get(osmId);
+            if (edges == null)
+                continue;
+            for (IntCursor cursor : edges) {
+                EdgeIteratorState edge = graph.getEdgeIteratorState(cursor.value, Integer.MIN_VALUE);
+                coordState.put(getKey(nodeAccess, edge.getBaseNode()), edge.getBaseNode());
+                coordState.put(getKey(nodeAccess, edge.getAdjNode()), edge.getAdjNode());
+            }
+        }
+    }
+
+    /**
+     * Splits the changed road at its existing tower nodes, like {@link #processRoad(RoadRecord)} does, and adds an
+     * update for every edge. The tower nodes are the end points of the existing edges of the road.
+     *
+     * @return false if the geometry does not fit to the existing edges or touches another road at a new point
+     */
+    private boolean addEdgeUpdates(DataStore dataStore, RoadRecord road, IntArrayList edges, List<EdgeUpdate> updates) {
+        NodeAccess nodeAccess = graph.getNodeAccess();
+        LongHashSet towers = new LongHashSet();
+        LongHashSet oldPoints = new LongHashSet();
+        for (IntCursor cursor : edges) {
+            EdgeIteratorState edge = graph.getEdgeIteratorState(cursor.value, Integer.MIN_VALUE);
+            towers.add(getKey(nodeAccess, edge.getBaseNode()));
+            towers.add(getKey(nodeAccess, edge.getAdjNode()));
+            PointList geometry = edge.fetchWayGeometry(FetchMode.PILLAR_ONLY);
+            for (int i = 0; i < geometry.size(); i++) {
+                oldPoints.add(CoordinateKey.toKey(geometry.getLat(i), geometry.getLon(i)));
+            }
+        }
+
+        List<EdgeUpdate> roadUpdates = new ArrayList<>(edges.size());
+        PointList newPoints = new PointList(10, false);
+        for (int p = 0; p < road.getPartCount(); p++) {
+            PointList points = road.getPart(p);
+            if (points.isEmpty())
+                continue;
+            if (!towers.contains(CoordinateKey.toKey(points.getLat(0), points.getLon(0))))
+                return false;
+
+            int startIndex = 0;
+            for (int i = 1; i < points.size(); i++) {
+                long key = CoordinateKey.toKey(points.getLat(i), points.getLon(i));
+                if (!towers.contains(key)) {
+                    if (i == points.size() - 1)
+                        return false;
+                    if (!oldPoints.contains(key))
+                        newPoints.add(points.getLat(i), points.getLon(i));
+                    continue;
+                }
+
+                if (roadUpdates.size() == edges.size())
+                    return false;
+                EdgeIteratorState edge = getEdgeBetween(edges.get(roadUpdates.size()),
+                        CoordinateKey.toKey(points.getLat(startIndex), points.getLon(startIndex)), key);
+                if (edge == null)
+                    return false;
+
+                roadUpdates.add(new EdgeUpdate(edge, road, getWayLength(points, startIndex, i),
+                        getCentre(points, startIndex, i), getPillarNodes(points, startIndex, i)));
+                startIndex = i;
+            }
+        }
+        if (roadUpdates.size() != edges.size())
+            return false;
+
+        // a new point that is shared with another road would be a new junction. With simplification the points
+        // that were removed on import are new as well, so the stored pillar nodes decide if the geometry changed.
+        if (!newPoints.isEmpty() && touchesOtherRoad(dataStore, road.osmId, newPoints))
+            return false;
+        for (EdgeUpdate update : roadUpdates) {
+            for (int i = 0; i < update.pillarNodes.size(); i++) {
+                if (!oldPoints.contains(CoordinateKey.toKey(update.pillarNodes.getLat(i), update.pillarNodes.getLon(i))))
+                    changedGeometry = true;
+            }
+        }
+        updates.addAll(roadUpdates);
+        return true;
+    }
+
+    /**
+     * @return the edge if it was created from the first to the second coordinate, otherwise null
+     */
+    private EdgeIteratorState getEdgeBetween(int edgeId, long fromKey, long toKey) {
+        NodeAccess nodeAccess = graph.getNodeAccess();
+        EdgeIteratorState edge = graph.getEdgeIteratorState(edgeId, Integer.MIN_VALUE);
+        if (getKey(nodeAccess, edge.getBaseNode()) == fromKey && getKey(nodeAccess, edge.getAdjNode()) == toKey)
+            return edge;
+        // a reversed road would need reversed flags, that is a new road for us
+        return null;
+    }
+
+    private static long getKey(NodeAccess nodeAccess, int node) {
+        return CoordinateKey.toKey(nodeAccess.getLat(node), nodeAccess.getLon(node));
+    }
+
+    /**
+     * Asks the database if another accepted road has a point at one of the specified coordinates. A road that
+     * crosses such a point without a vertex is found as well, which just leads to an unnecessary full import.
+     */
+    private boolean touchesOtherRoad(DataStore dataStore, long osmId, PointList points) {
+        FeatureIterator<SimpleFeature> features = null;
+        try {
+            String tableName = getTableName();
+            PropertyName geometry = FF.property(dataStore.getSchema(tableName).getGeometryDescriptor().getLocalName());
+            List<Filter> boxes = new ArrayList<>(points.size());
+            for (int i = 0; i < points.size(); i++) {
+                double lat = points.getLat(i);
+                double lon = points.getLon(i);
+                boxes.add(FF.bbox(geometry, lon - TOUCH_DISTANCE, lat - TOUCH_DISTANCE,
+                        lon + TOUCH_DISTANCE, lat + TOUCH_DISTANCE, "EPSG:4326"));
+            }
+            Filter filter = FF.and(boxes.size() == 1 ? boxes.get(0) : FF.or(boxes),
+                    FF.notEqual(FF.property(OSM_ID), FF.literal(osmId)));
+            features = getFeatureIterator(dataStore, tableName, filter, Collections.singletonList(OSM_ID));
+            return features.hasNext();
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        } finally {
+            if (features != null)
+                features.close();
+        }
+    }
+
+    /**
+     * @return true if the last update moved points of a road, which the location index does not know yet
+     */
+    public boolean hasChangedGeometry() {
+        return changedGeometry;
+    }
+
+    @Override
+    String getTableName() {
+        return roadsFile.getName();
+    }
+
+    private void closeSpill() {
+        if (spill != null) {
+            spill.close();
+            spill = null;
         }
     }
 
     @Override
     protected void finishReading() {
-        this.coordState.clear();
+        closeSpill();
+        if (checkpoint != null) {
+            // the import is complete, a restart must not resume it
+            checkpoint.remove();
+            checkpoint = null;
+        }
+        if (edgeIndex != null) {
+            edgeIndex.flush();
+            LOGGER.info("Stored " + nf(edgeIndex.size()) + " edges in the " + RoadEdgeIndex.NAME + " index for updates");
+            edgeIndex = null;
+        }
+        if (tagDictionary != null) {
+            LOGGER.info("Stored " + nf(tagDictionary.getValueCount()) + " distinct values of the tags "
+                    + Arrays.toString(storedTags) + " in " + nf(tagDictionary.getValuesBytes()) + " bytes");
+            tagDictionary.flush();
+            tagDictionary = null;
+        }
+        if (flagsCache != null && flagsCache.getHits() + flagsCache.getMisses() > 0)
+            LOGGER.info("Encoded the flags of the roads with " + nf(flagsCache.getHits()) + " cache hits and "
+                    + nf(flagsCache.getMisses()) + " misses, " + nf(flagsCache.getBypassed()) + " roads bypassed the cache");
+        if (elevation != null && elevation.getLookups() > 0) {
+            LOGGER.info("Looked up " + nf(elevation.getLookups()) + " elevations with " + nf(elevation.getTileLoads())
+                    + " tile loads, the elevation provider was released " + nf(elevation.getReleases()) + " times");
+            elevation.release();
+        }
+        this.coordState.close();
         this.coordState = null;
         LOGGER.info("Finished reading. Zero Counter " + nf(zeroCounter) + " " + Helper.getMemInfo());
     }
 
+    /**
+     * @deprecated the reader no longer calls this method, overwrite {@link #getWayLength(PointList, int, int)}
+     * instead
+     */
+    @Deprecated
     protected double getWayLength(Coordinate start, List<Coordinate> pillars, Coordinate end) {
+        PointList points = new PointList(pillars.size() + 2, false);
+        points.add(lat(start), lng(start));
+        for (Coordinate point : pillars) {
+            points.add(lat(point), lng(point));
+        }
+        points.add(lat(end), lng(end));
+        return getWayLength(points, 0, points.size() - 1);
+    }
+
+    /**
+     * @return the length of the points between the tower nodes at fromIndex and toIndex, including the elevation
+     * differences if the points are 3D
+     */
+    protected double getWayLength(PointList points, int fromIndex, int toIndex) {
         double distance = 0;
 
-        Coordinate previous = start;
-        for (Coordinate point : pillars) {
-            distance += distCalc.calcDist(lat(previous), lng(previous), lat(point), lng(point));
-            previous = point;
+        for (int i = fromIndex + 1; i <= toIndex; i++) {
+            if (points.is3D() && !Double.isNaN(points.getEle(i - 1)) && !Double.isNaN(points.getEle(i)))
+                distance += distCalc.calcDist3D(points.getLat(i - 1), points.getLon(i - 1), points.getEle(i - 1),
+                        points.getLat(i), points.getLon(i), points.getEle(i));
+            else
+                distance += distCalc.calcDist(points.getLat(i - 1), points.getLon(i - 1), points.getLat(i), points.getLon(i));
         }
-        distance += distCalc.calcDist(lat(previous), lng(previous), lat(end), lng(end));
 
         if (distance < 0.0001) {
             // As investigation shows often two paths should have crossed via one identical point
             // but end up in two very close points.
             zeroCounter++;
+            getStats().zeroDistanceEdge();
             distance = 0.0001;
         }
 
@@ -267,120 +1454,148 @@ public class OSMPostgisReader extends PostgisReader {
 
     @Override
     public DataReader setElevationProvider(ElevationProvider ep) {
-        // Elevation not supported
+        if (ep == null)
+            throw new IllegalStateException("Use the NOOP elevation provider instead of null or don't call setElevationProvider");
+        // the Z values of the geometries are used without a provider as well, but only a 3D graph stores them
+        if (is3D)
+            elevation = new ElevationLookup(ep::getEle, ep::release, elevationCacheTiles);
         return this;
     }
 
     @Override
     public DataReader setWorkerThreads(int workerThreads) {
-        // Its only single-threaded
+        // only used for the partitions of the parallel scan
+        this.workerThreads = workerThreads;
         return this;
     }
 
     @Override
     public DataReader setWayPointMaxDistance(double wayPointMaxDistance) {
-        // Currently not supported
+        // the distance of the edge is still calculated from all points
+        doSimplify = wayPointMaxDistance > 0;
+        simplifyAlgo.setMaxDistance(wayPointMaxDistance);
         return this;
     }
 
     @Override
-    public DataReader setWayPointElevationMaxDistance(double v) {
-        // Currently not supported
+    public DataReader setWayPointElevationMaxDistance(double elevationWayPointMaxDistance) {
+        simplifyAlgo.setElevationMaxDistance(elevationWayPointMaxDistance);
         return this;
     }
 
     @Override
     public DataReader setSmoothElevation(boolean smoothElevation) {
-        // TODO implement elevation smoothing for shape files
+        this.smoothElevation = smoothElevation;
         return this;
     }
 
     @Override
-    public DataReader setLongEdgeSamplingDistance(double v) {
-        // Currently not supported
+    public DataReader setLongEdgeSamplingDistance(double longEdgeSamplingDistance) {
+        // only used for 3D graphs, a 2D edge does not get better by more points
+        this.longEdgeSamplingDistance = longEdgeSamplingDistance;
         return this;
     }
 
     @Override
     public Date getDataDate() {
-        return null;
+        return getSourceDate();
     }
 
     public static interface EdgeAddedListener {
         void edgeAdded(ReaderWay way, EdgeIteratorState edge);
     }
 
-    private void addEdge(int fromTower, int toTower, SimpleFeature road, double distance,
-                         GHPoint estmCentre, PointList pillarNodes) {
-        EdgeIteratorState edge = graph.edge(fromTower, toTower);
-
-        // read the OSM id, should never be null
-        long id = getOSMId(road);
-
-        // Make a temporary ReaderWay object with the properties we need so we
-        // can use the enocding manager
+    /**
+     * Creates the way with the tags of the road that the encoders need. The values of fclass, maxspeed and oneway
+     * repeat a lot, so they are converted only once per distinct value.
+     */
+    private ReaderWay createWay(RoadRecord road) {
         // We (hopefully don't need the node structure on here as we're only
-        // calling the flag
-        // encoders, which don't use this...
-        ReaderWay way = new ReaderWay(id);
-
-        way.setTag("estimated_distance", distance);
-        way.setTag("estimated_center", estmCentre);
+        // calling the flag encoders, which don't use this...
+        ReaderWay way = new ReaderWay(road.osmId);
 
         // read the highway type
-        Object type = road.getAttribute("fclass");
-        if (type != null) {
-            way.setTag("highway", type.toString());
+        if (road.fclass != null) {
+            String highway = highwayValues.get(road.fclass);
+            if (highway == null) {
+                highway = road.fclass.toString();
+                highwayValues.put(road.fclass, highway);
+            }
+            way.setTag("highway", highway);
         }
 
         // read maxspeed filtering for 0 which for Geofabrik shapefiles appears
         // to correspond to no tag
-        Object maxSpeed = road.getAttribute("maxspeed");
-        if (maxSpeed != null && !maxSpeed.toString().trim().equals("0")) {
-            way.setTag("maxspeed", maxSpeed.toString());
+        if (road.maxSpeed != null) {
+            String maxSpeed = maxSpeedValues.get(road.maxSpeed);
+            if (maxSpeed == null) {
+                maxSpeed = road.maxSpeed.toString().trim().equals("0") ? NO_VALUE : road.maxSpeed.toString();
+                maxSpeedValues.put(road.maxSpeed, maxSpeed);
+            }
+            if (maxSpeed != NO_VALUE)
+                way.setTag("maxspeed", maxSpeed);
         }
 
-        for (String tag : tagsToCopy) {
-            Object val = road.getAttribute(tag);
+        for (int i = 0; i < tagsToCopy.length; i++) {
+            Object val = road.tags[i];
             if (val != null) {
-                way.setTag(tag, val);
+                way.setTag(tagsToCopy[i], val);
             }
         }
 
         // read oneway
-        Object oneway = road.getAttribute("oneway");
-        if (oneway != null) {
-            // Geofabrik is using an odd convention for oneway field in
-            // shapefile.
-            // We map back to the standard convention so that tag can be dealt
-            // with correctly by the flag encoder.
-            String val = toLowerCase(oneway.toString().trim());
-            if (val.equals("b")) {
-                // both ways
-                val = "no";
-            } else if (val.equals("t")) {
-                // one way against the direction of digitisation
-                val = "-1";
-            } else if (val.equals("f")) {
-                // one way Forward in the direction of digitisation
-                val = "yes";
-            } else {
-                throw new RuntimeException("Unrecognised value of oneway field \"" + val
-                        + "\" found in road with OSM id " + id);
+        if (road.oneway != null) {
+            String oneway = onewayValues.get(road.oneway);
+            if (oneway == null) {
+                oneway = toOneway(road.oneway, road.osmId);
+                onewayValues.put(road.oneway, oneway);
             }
-
-            way.setTag("oneway", val);
+            way.setTag("oneway", oneway);
         }
+        return way;
+    }
 
-        // Process the flags using the encoders
-        EncodingManager.AcceptWay acceptWay = new EncodingManager.AcceptWay();
-        if (!encodingManager.acceptWay(way, acceptWay)) {
-            return;
+    /**
+     * Geofabrik is using an odd convention for oneway field in shapefile. We map back to the standard convention
+     * so that tag can be dealt with correctly by the flag encoder.
+     */
+    private static String toOneway(Object oneway, long id) {
+        String val = toLowerCase(oneway.toString().trim());
+        if (val.equals("b")) {
+            // both ways
+            return "no";
+        } else if (val.equals("t")) {
+            // one way against the direction of digitisation
+            return "-1";
+        } else if (val.equals("f")) {
+            // one way Forward in the direction of digitisation
+            return "yes";
         }
+        throw new RuntimeException("Unrecognised value of oneway field \"" + val
+                + "\" found in road with OSM id " + id);
+    }
+
+    /**
+     * Sets the flags, the distance and the geometry of the edge for a way that the encoders accepted.
+     *
+     * @param cached the cache entry of the tags of the way whose flags are reused or null to encode the flags
+     * @return false if the tags resulted in empty flags, the edge is not modified then
+     */
+    private boolean setEdgeProperties(EdgeIteratorState edge, ReaderWay way, EncodingManager.AcceptWay acceptWay,
+                                      FlagsCache.Entry cached, double distance, GHPoint estmCentre,
+                                      PointList pillarNodes) {
+        way.setTag("estimated_distance", distance);
+        way.setTag("estimated_center", estmCentre);
 
-        IntsRef edgeFlags = encodingManager.handleWayTags(way, acceptWay, tempRelFlags);
+        IntsRef edgeFlags = cached == null ? null : cached.flags;
+        if (edgeFlags == null) {
+            edgeFlags = encodingManager.handleWayTags(way, acceptWay, tempRelFlags);
+            // the storage copies the flags, so all edges can share them
+            if (cached != null)
+                cached.flags = edgeFlags;
+        }
         if (edgeFlags.isEmpty())
-            return;
+            return false;
 
         edge.setDistance(distance);
         edge.setFlags(edgeFlags);
@@ -394,24 +1609,193 @@ public class OSMPostgisReader extends PostgisReader {
                 l.edgeAdded(way, edge);
             }
         }
+        return true;
     }
 
-    private long getOSMId(SimpleFeature road) {
-        long id = Long.parseLong(road.getAttribute("osm_id").toString());
-        return id;
+    /**
+     * Brings an existing edge back into the state of a newly created edge, i.e. blocked and without geometry.
+     */
+    private void resetEdge(EdgeIteratorState edge) {
+        edge.setFlags(encodingManager.createEdgeFlags());
+        edge.setDistance(0);
+        edge.setWayGeometry(PointList.EMPTY);
     }
 
-    private Coordinate roundCoordinate(Coordinate c) {
-        c.x = Helper.round6(c.x);
-        c.y = Helper.round6(c.y);
+    public void addListener(EdgeAddedListener l) {
+        edgeAddedListeners.add(l);
+    }
 
-        if (!Double.isNaN(c.z))
-            c.z = Helper.round6(c.z);
+    private static final class EdgeUpdate {
+        final EdgeIteratorState edge;
+        // null if the road was deleted
+        final RoadRecord road;
+        final double distance;
+        final GHPoint estmCentre;
+        final PointList pillarNodes;
+
+        EdgeUpdate(EdgeIteratorState edge, RoadRecord road, double distance, GHPoint estmCentre, PointList pillarNodes) {
+            this.edge = edge;
+            this.road = road;
+            this.distance = distance;
+            this.estmCentre = estmCentre;
+            this.pillarNodes = pillarNodes;
+        }
+    }
+
+    /**
+     * Decodes the accepted features of a GeoTools feature iterator.
+     */
+    class FeatureRoadIterator implements RoadIterator {
+        private final FeatureIterator<SimpleFeature> features;
+        private final RoadRecord reusableRecord;
+        private final FeatureDecoder decoder;
+
+        /**
+         * @param reuseRecord  if true the same record is returned for every road, which avoids the allocation if
+         *                     the road is consumed before the next call
+         * @param geometryOnly if true only the geometry of the roads is decoded
+         */
+        FeatureRoadIterator(FeatureIterator<SimpleFeature> features, boolean reuseRecord, boolean geometryOnly) {
+            this(features, reuseRecord, geometryOnly, getTable(getTableName()));
+        }
 
-        return c;
+        /**
+         * @param table the table of the features, which knows the names of their attributes
+         */
+        FeatureRoadIterator(FeatureIterator<SimpleFeature> features, boolean reuseRecord, boolean geometryOnly,
+                            RoadTable table) {
+            this.features = features;
+            this.reusableRecord = reuseRecord ? newRecord() : null;
+            this.decoder = new FeatureDecoder(geometryOnly, table);
+        }
+
+        @Override
+        public RoadRecord next() {
+            while (features.hasNext()) {
+                SimpleFeature feature = features.next();
+                if (!decoder.accept(feature))
+                    continue;
+
+                RoadRecord road = reusableRecord == null ? newRecord() : reusableRecord;
+                decoder.fillRecord(road, feature);
+                return road;
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            features.close();
+        }
     }
 
-    public void addListener(EdgeAddedListener l) {
-        edgeAddedListeners.add(l);
+    /**
+     * Decodes features into roads. The attributes are read via their index, which is resolved once per feature
+     * type, and the coordinates directly from the coordinate sequences. A decoder is not thread safe.
+     */
+    class FeatureDecoder implements PipelinedRoadIterator.RowDecoder<SimpleFeature> {
+        private final boolean geometryOnly;
+        private final RoadTable table;
+        private final int[] tagIndices = new int[tagsToCopy.length];
+        private SimpleFeatureType featureType;
+        private int osmIdIndex;
+        private int fclassIndex;
+        private int maxSpeedIndex;
+        private int onewayIndex;
+
+        /**
+         * @param geometryOnly if true only the geometry of the roads is decoded
+         * @param table        the table of the features, which knows the names of their attributes
+         */
+        FeatureDecoder(boolean geometryOnly, RoadTable table) {
+            this.geometryOnly = geometryOnly;
+            this.table = table;
+        }
+
+        @Override
+        public RoadRecord decode(SimpleFeature feature) {
+            if (!accept(feature))
+                return null;
+            RoadRecord road = newRecord();
+            fillRecord(road, feature);
+            return road;
+        }
+
+        /**
+         * @return false if the feature is rejected by {@link PostgisReader#acceptFeature(SimpleFeature)}
+         */
+        boolean accept(SimpleFeature feature) {
+            if (acceptFeature(feature))
+                return true;
+            getStats().rowRejected();
+            return false;
+        }
+
+        /**
+         * Decodes the feature into the record and rounds its coordinates. A 3D record gets the Z values of the
+         * geometry or NaN if the geometry has none.
+         */
+        void fillRecord(RoadRecord record, SimpleFeature feature) {
+            record.clear();
+            if (!geometryOnly) {
+                if (feature.getFeatureType() != featureType)
+                    resolveIndices(feature.getFeatureType());
+
+                Object osmId = getAttribute(feature, osmIdIndex);
+                if (osmId == null)
+                    throw new IllegalStateException(OSM_ID + " must not be null");
+                record.osmId = osmId instanceof Number ? ((Number) osmId).longValue() : Long.parseLong(osmId.toString());
+                record.fclass = getAttribute(feature, fclassIndex);
+                record.maxSpeed = getAttribute(feature, maxSpeedIndex);
+                record.oneway = getAttribute(feature, onewayIndex);
+                for (int i = 0; i < tagIndices.length; i++) {
+                    record.tags[i] = getAttribute(feature, tagIndices[i]);
+                }
+            }
+
+            Object geometry = feature.getDefaultGeometry();
+            if (geometry instanceof LineString) {
+                addPart(record, (LineString) geometry);
+            } else if (geometry instanceof MultiLineString) {
+                MultiLineString lines = (MultiLineString) geometry;
+                // byte order, type and number of lines
+                record.geometryBytes += 9;
+                for (int i = 0; i < lines.getNumGeometries(); i++) {
+                    addPart(record, (LineString) lines.getGeometryN(i));
+                }
+            }
+        }
+
+        private void addPart(RoadRecord record, LineString line) {
+            CoordinateSequence sequence = line.getCoordinateSequence();
+            PointList part = record.addPart();
+            // a packed sequence without Z does not return NaN for the third ordinate
+            boolean hasZ = sequence.getDimension() > 2;
+            // the size of the line as WKB: byte order, type, number of points and the ordinates
+            record.geometryBytes += 9 + (hasZ ? 24 : 16) * sequence.size();
+            for (int i = 0; i < sequence.size(); i++) {
+                if (part.is3D())
+                    part.add(Helper.round6(sequence.getY(i)), Helper.round6(sequence.getX(i)),
+                            hasZ ? sequence.getOrdinate(i, CoordinateSequence.Z) : Double.NaN);
+                else
+                    part.add(Helper.round6(sequence.getY(i)), Helper.round6(sequence.getX(i)));
+            }
+        }
+
+        private void resolveIndices(SimpleFeatureType type) {
+            featureType = type;
+            osmIdIndex = type.indexOf(OSM_ID);
+            fclassIndex = type.indexOf(table.getColumn("fclass"));
+            maxSpeedIndex = type.indexOf(table.getColumn("maxspeed"));
+            onewayIndex = type.indexOf(table.getColumn("oneway"));
+            for (int i = 0; i < tagsToCopy.length; i++) {
+                tagIndices[i] = type.indexOf(table.getColumn(tagsToCopy[i]));
+            }
+        }
+
+        private Object getAttribute(SimpleFeature feature, int index) {
+            // a missing attribute is null, like with getAttribute(name)
+            return index < 0 ? null : feature.getAttribute(index);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+/**
+ * Quicksort of entries that consist of a long key and an int value, ordered by the key and then by the value. The
+ * entries are accessed by their index, so the same implementation sorts two arrays on the heap together and the
+ * entries of a DataAccess in place.
+ *
+ * @author Robin Boldt
+ */
+abstract class PairSorter {
+
+    abstract long getKey(long index);
+
+    abstract int getValue(long index);
+
+    abstract void swap(long i, long j);
+
+    /**
+     * Sorts the keys and the values together between from, inclusive, and to, exclusive.
+     */
+    static void sort(long[] keys, int[] values, int from, int to) {
+        new ArraySorter(keys, values).sort(from, to);
+    }
+
+    /**
+     * Sorts the entries between from, inclusive, and to, exclusive.
+     */
+    final void sort(long from, long to) {
+        while (to - from > 16) {
+            long middle = (from + to) >>> 1;
+            long pivotKey = getKey(middle);
+            int pivotValue = getValue(middle);
+            long i = from;
+            long j = to - 1;
+            while (i <= j) {
+                while (compare(getKey(i), getValue(i), pivotKey, pivotValue) < 0)
+                    i++;
+                while (compare(getKey(j), getValue(j), pivotKey, pivotValue) > 0)
+                    j--;
+                if (i <= j)
+                    swap(i++, j--);
+            }
+            // recurse into the smaller half only, so that the stack stays small
+            if (j - from < to - i) {
+                sort(from, j + 1);
+                from = i;
+            } else {
+                sort(i, to);
+                to = j + 1;
+            }
+        }
+        for (long i = from + 1; i < to; i++) {
+            for (long j = i; j > from && compare(getKey(j - 1), getValue(j - 1), getKey(j), getValue(j)) > 0; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private static int compare(long key1, int value1, long key2, int value2) {
+        int res = Long.compare(key1, key2);
+        return res != 0 ? res : Integer.compare(value1, value2);
+    }
+
+    private static final class ArraySorter extends PairSorter {
+        private final long[] keys;
+        private final int[] values;
+
+        ArraySorter(long[] keys, int[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        long getKey(long index) {
+            return keys[(int) index];
+        }
+
+        @Override
+        int getValue(long index) {
+            return values[(int) index];
+        }
+
+        @Override
+        void swap(long i, long j) {
+            long tmpKey = keys[(int) i];
+            keys[(int) i] = keys[(int) j];
+            keys[(int) j] = tmpKey;
+            int tmpValue = values[(int) i];
+            values[(int) i] = values[(int) j];
+            values[(int) j] = tmpValue;
+        }
+    }
+}
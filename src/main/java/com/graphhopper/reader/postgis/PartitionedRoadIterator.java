@@ -0,0 +1,156 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Reads several disjoint partitions of a table concurrently, every partition on its own thread and connection.
+ * <p>
+ * Every partition is cut into batches of a fixed size and the batches are returned round robin, always in the
+ * order of the partitions. So the order of the roads, and therefore the created node and edge ids, only depends
+ * on the order of the rows within every partition and not on the timing of the threads. The bounded queue of
+ * every partition limits the number of roads that are decoded ahead.
+ *
+ * @author Robin Boldt
+ */
+final class PartitionedRoadIterator implements RoadIterator {
+
+    private static final List<RoadRecord> END = new ArrayList<>(0);
+
+    private final int batchSize;
+    private final ExecutorService executor;
+    private final List<BlockingQueue<List<RoadRecord>>> queues = new ArrayList<>();
+    private final boolean[] finished;
+    private volatile Throwable error;
+    private int active;
+    private int current;
+    private List<RoadRecord> batch = END;
+    private int batchIndex;
+
+    /**
+     * @param partitions   opens the iterator of every partition. It is called on the thread of the partition, so
+     *                     that also the query itself runs concurrently. The returned roads must not be reused.
+     * @param batchSize    the number of roads that are taken from one partition before switching to the next
+     * @param queueBatches the number of batches every partition can decode ahead
+     */
+    PartitionedRoadIterator(List<Supplier<RoadIterator>> partitions, int batchSize, int queueBatches) {
+        if (partitions.isEmpty())
+            throw new IllegalArgumentException("At least one partition is required");
+        this.batchSize = batchSize;
+        this.finished = new boolean[partitions.size()];
+        this.active = partitions.size();
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(partitions.size(), r -> {
+            Thread thread = new Thread(r, "postgis-partition-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Supplier<RoadIterator> partition : partitions) {
+            BlockingQueue<List<RoadRecord>> queue = new ArrayBlockingQueue<>(queueBatches);
+            queues.add(queue);
+            executor.execute(() -> produce(partition, queue));
+        }
+    }
+
+    private void produce(Supplier<RoadIterator> partition, BlockingQueue<List<RoadRecord>> queue) {
+        RoadIterator roads = null;
+        try {
+            roads = partition.get();
+            List<RoadRecord> tmpBatch = new ArrayList<>(batchSize);
+            RoadRecord road;
+            while ((road = roads.next()) != null) {
+                tmpBatch.add(road);
+                if (tmpBatch.size() == batchSize) {
+                    queue.put(tmpBatch);
+                    tmpBatch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!tmpBatch.isEmpty())
+                queue.put(tmpBatch);
+        } catch (InterruptedException e) {
+            // the iterator was closed
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            if (roads != null)
+                roads.close();
+        }
+
+        // signal the end also after an error, so the consumer never waits forever
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public RoadRecord next() {
+        while (batchIndex >= batch.size()) {
+            if (active == 0)
+                return null;
+
+            while (finished[current]) {
+                current = (current + 1) % finished.length;
+            }
+
+            List<RoadRecord> tmpBatch;
+            try {
+                tmpBatch = queues.get(current).take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for partition " + current, e);
+            }
+            if (error != null)
+                throw new RuntimeException("Reading a partition failed", error);
+
+            if (tmpBatch == END) {
+                finished[current] = true;
+                active--;
+            } else {
+                batch = tmpBatch;
+                batchIndex = 0;
+            }
+            current = (current + 1) % finished.length;
+        }
+        return batch.get(batchIndex++);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            // the partitions have to release their connections before the DataStore is disposed
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
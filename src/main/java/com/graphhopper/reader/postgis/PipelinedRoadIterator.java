@@ -0,0 +1,199 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Reads the roads of one source in three stages on separate threads, so that fetching, decoding and writing the
+ * graph overlap: a fetcher thread reads the raw rows of the source into batches, a pool of decoder threads turns
+ * every batch into roads and the consuming thread, i.e. the one that writes the graph, takes the decoded batches.
+ * <p>
+ * The batches are returned in the order in which they were fetched, so the roads, and therefore the created node
+ * and edge ids, are the same as without the pipeline. The queue of the batches is bounded, so the fetcher waits if
+ * the decoders or the writer are behind and the throughput approaches the one of the slowest stage.
+ *
+ * @param <R> the type of the raw rows
+ * @author Robin Boldt
+ */
+final class PipelinedRoadIterator<R> implements RoadIterator {
+
+    /**
+     * The raw rows of the source, only used by the fetcher thread.
+     */
+    interface RowSource<R> extends Closeable {
+        /**
+         * @return the next row or null if there are no more rows
+         */
+        R next();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Decodes raw rows, every decoder thread has its own instance.
+     */
+    interface RowDecoder<R> {
+        /**
+         * @return the road of the row, which must not be reused, or null if the row is rejected
+         */
+        RoadRecord decode(R row);
+    }
+
+    private static final Future<List<RoadRecord>> END = CompletableFuture.completedFuture(new ArrayList<>(0));
+
+    private final int batchSize;
+    private final BlockingQueue<Future<List<RoadRecord>>> queue;
+    private final ExecutorService fetcher;
+    private final ExecutorService decoders;
+    private final ThreadLocal<RowDecoder<R>> threadDecoders;
+    private volatile Throwable error;
+    private boolean finished;
+    private List<RoadRecord> batch = new ArrayList<>(0);
+    private int batchIndex;
+
+    /**
+     * @param source         opens the rows, it is called on the fetcher thread
+     * @param decoderFactory creates the decoder of every decoder thread
+     * @param decoderThreads the number of decoder threads
+     * @param batchSize      the number of rows that are decoded at once
+     * @param queueBatches   the number of batches that can be fetched and decoded ahead of the writer
+     */
+    PipelinedRoadIterator(Supplier<RowSource<R>> source, Supplier<RowDecoder<R>> decoderFactory, int decoderThreads,
+                          int batchSize, int queueBatches) {
+        if (decoderThreads < 1)
+            throw new IllegalArgumentException("At least one decoder thread is required");
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(queueBatches);
+        this.threadDecoders = ThreadLocal.withInitial(decoderFactory);
+
+        this.fetcher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "postgis-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.decoders = Executors.newFixedThreadPool(decoderThreads, r -> {
+            Thread thread = new Thread(r, "postgis-decoder-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        fetcher.execute(() -> produce(source));
+    }
+
+    private void produce(Supplier<RowSource<R>> source) {
+        RowSource<R> rows = null;
+        try {
+            rows = source.get();
+            List<R> tmpBatch = new ArrayList<>(batchSize);
+            R row;
+            while ((row = rows.next()) != null) {
+                tmpBatch.add(row);
+                if (tmpBatch.size() == batchSize) {
+                    submit(tmpBatch);
+                    tmpBatch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!tmpBatch.isEmpty())
+                submit(tmpBatch);
+        } catch (InterruptedException e) {
+            // the iterator was closed
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            if (rows != null)
+                rows.close();
+        }
+
+        // signal the end also after an error, so the consumer never waits forever
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(List<R> rows) throws InterruptedException {
+        // the queue keeps the order of the batches, no matter which decoder finishes first
+        queue.put(decoders.submit(() -> decode(rows)));
+    }
+
+    private List<RoadRecord> decode(List<R> rows) {
+        RowDecoder<R> decoder = threadDecoders.get();
+        List<RoadRecord> roads = new ArrayList<>(rows.size());
+        for (R row : rows) {
+            RoadRecord road = decoder.decode(row);
+            if (road != null)
+                roads.add(road);
+        }
+        return roads;
+    }
+
+    @Override
+    public RoadRecord next() {
+        while (batchIndex >= batch.size()) {
+            if (finished)
+                return null;
+
+            try {
+                Future<List<RoadRecord>> future = queue.take();
+                if (error != null)
+                    throw new RuntimeException("Fetching the roads failed", error);
+                if (future == END) {
+                    finished = true;
+                    return null;
+                }
+                batch = future.get();
+                batchIndex = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the decoded roads", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Decoding the roads failed", e.getCause());
+            }
+        }
+        return batch.get(batchIndex++);
+    }
+
+    @Override
+    public void close() {
+        fetcher.shutdownNow();
+        decoders.shutdownNow();
+        try {
+            // the fetcher has to release its connection before the DataStore is disposed
+            fetcher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
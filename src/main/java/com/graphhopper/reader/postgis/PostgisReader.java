@@ -19,28 +19,49 @@ package com.graphhopper.reader.postgis;
 
 import com.graphhopper.reader.DataReader;
 import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.Directory;
 import com.graphhopper.storage.Graph;
 import com.graphhopper.storage.GraphHopperStorage;
-import com.graphhopper.storage.GraphStorage;
 import com.graphhopper.storage.NodeAccess;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
 import org.geotools.data.DataStore;
-import org.geotools.data.DataStoreFinder;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureReader;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.jdbc.JDBCDataStore;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.FeatureType;
 import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+import static com.graphhopper.util.Helper.nf;
+
 /**
  * PostgisReader takes care of reading a PostGIS table and writing it to a road network graph
  *
@@ -52,13 +73,26 @@ import java.util.Map;
 public abstract class PostgisReader implements DataReader {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PostgisReader.class);
+    protected static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+    protected static final String OSM_ID = "osm_id";
+
+    static final String CHANGE_MARKER = "postgis.change_marker";
 
-    private final GraphStorage graphStorage;
+    private final GraphHopperStorage graphStorage;
     private final NodeAccess nodeAccess;
     protected final Graph graph;
     protected EncodingManager encodingManager;
 
     private Map<String, String> postgisParams;
+    private final RoadFilter roadFilter;
+    private final RoadChangeLog changeLog;
+    private final ImportStats stats = new ImportStats();
+    private RoadStoreFactory storeFactory;
+    private DataStore dataStore;
+    private PostgisSnapshot snapshot;
+    private String sourceFingerprint;
+    private Date dataDate;
+    private List<RoadTable> tables;
 
     public PostgisReader(GraphHopperStorage ghStorage,
                          Map<String, String> postgisParams) {
@@ -69,20 +103,198 @@ public abstract class PostgisReader implements DataReader {
         this.encodingManager = ghStorage.getEncodingManager();
 
         this.postgisParams = postgisParams;
+        this.roadFilter = new RoadFilter(postgisParams);
+        this.changeLog = new RoadChangeLog(postgisParams);
+        this.storeFactory = RoadStores.get(postgisParams.getOrDefault("store", "postgis"));
+    }
+
+    /**
+     * Replaces the factory of db.store, e.g. to read the roads from another kind of DataStore.
+     */
+    public void setRoadStoreFactory(RoadStoreFactory storeFactory) {
+        this.storeFactory = storeFactory;
     }
 
     @Override
     public void readGraph() {
         graphStorage.create(1000);
-        processJunctions();
-        processRoads();
-        finishReading();
+        // a single pooled DataStore and snapshot for both passes
+        dataStore = openPostGisStore();
+        try {
+            // read the marker before the snapshot, rows that change in between are just updated again later
+            String changeMarker = changeLog.isEnabled() ? changeLog.readMarker(dataStore, getTableName()) : null;
+            // the counters of the tables are not part of the snapshot, so the fingerprint is read before it and a
+            // change in between only makes the graph look outdated
+            if (isFingerprintEnabled() || isCheckpointEnabled())
+                getSourceFingerprint();
+            snapshot = exportSnapshot(dataStore);
+            dataDate = SourceFingerprint.readDataDate(dataStore, snapshot, postgisParams);
+            String fingerprint = isFingerprintEnabled() ? getSourceFingerprint() : null;
+            // a checkpoint of an earlier, interrupted import makes the junction pass unnecessary
+            if (!resumeJunctions())
+                stats.measurePhase("junctions", this::processJunctions);
+            stats.measurePhase("roads", this::processRoads);
+            if (changeMarker != null)
+                graphStorage.getProperties().put(CHANGE_MARKER, changeMarker);
+            if (fingerprint != null)
+                graphStorage.getProperties().put(SourceFingerprint.PROPERTY, fingerprint);
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+                snapshot = null;
+            }
+            sourceFingerprint = null;
+            dataStore.dispose();
+            dataStore = null;
+        }
+        stats.measurePhase("finish", this::finishReading);
+        writeStats();
+    }
+
+    /**
+     * Logs the statistics of the import and writes them to the graph directory, if the graph is stored.
+     */
+    private void writeStats() {
+        LOGGER.info("Import statistics: " + stats);
+        Directory dir = graphStorage.getDirectory();
+        if (dir.getDefaultType().isStoring())
+            stats.write(new File(dir.getLocation(), ImportStats.FILE));
+    }
+
+    /**
+     * Applies the roads that changed since the import or the last update to the already loaded graph. The edges of
+     * a changed road get new flags, distances and geometries, the edges of a deleted road are blocked. The graph is
+     * not modified at all if one of the changes would change its topology, e.g. a new road or a moved junction.
+     *
+     * @return false if the changes cannot be applied incrementally and the graph has to be imported again
+     */
+    public boolean updateGraph() {
+        if (!changeLog.isEnabled())
+            throw new IllegalStateException("Updating the graph requires db.update_column");
+        String changeMarker = graphStorage.getProperties().get(CHANGE_MARKER);
+        try {
+            if (changeMarker.isEmpty()) {
+                LOGGER.warn("The graph was imported without db.update_column, it cannot be updated");
+                return false;
+            }
+
+            dataStore = openPostGisStore();
+            String newChangeMarker = changeLog.readMarker(dataStore, getTableName());
+            // read before the changes, so a change in between makes the graph outdated
+            String fingerprint = isFingerprintEnabled()
+                    ? SourceFingerprint.create(dataStore, null, getTables(), postgisParams) : null;
+            if (!stats.measurePhase("update", () -> processChanges(changeMarker)))
+                return false;
+            graphStorage.getProperties().put(CHANGE_MARKER, newChangeMarker);
+            if (fingerprint != null)
+                graphStorage.getProperties().put(SourceFingerprint.PROPERTY, fingerprint);
+            return true;
+        } finally {
+            if (dataStore != null) {
+                dataStore.dispose();
+                dataStore = null;
+            }
+            finishReading();
+        }
+    }
+
+    /**
+     * @return the counters and timings of the import or update, they are updated while reading
+     */
+    public ImportStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the DataStore that is shared by all passes of {@link #readGraph()}
+     */
+    protected DataStore getDataStore() {
+        if (dataStore == null)
+            throw new IllegalStateException("The DataStore is only available while reading the graph");
+        return dataStore;
+    }
+
+    /**
+     * @return true if the fingerprint of the table is stored in the graph properties, see db.fingerprint
+     */
+    private boolean isFingerprintEnabled() {
+        return Boolean.parseBoolean(postgisParams.get("fingerprint"));
+    }
+
+    private boolean isCheckpointEnabled() {
+        return Boolean.parseBoolean(postgisParams.get("checkpoint"));
+    }
+
+    /**
+     * @return the time of the snapshot the graph was read from or, for the file stores, the modification time of
+     * the file. Null before the import or if it is unknown.
+     */
+    Date getSourceDate() {
+        return dataDate;
+    }
+
+    /**
+     * @return the snapshot that all reading transactions have to join or null if there is none
+     */
+    PostgisSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the {@link SourceFingerprint} of the tables. It is read once per import before the snapshot, so the
+     * import and the checkpoint share it.
+     */
+    String getSourceFingerprint() {
+        if (sourceFingerprint == null)
+            sourceFingerprint = SourceFingerprint.create(dataStore, snapshot, getTables(), postgisParams);
+        return sourceFingerprint;
+    }
+
+    private PostgisSnapshot exportSnapshot(DataStore dataStore) {
+        if (!Boolean.parseBoolean(postgisParams.getOrDefault("snapshot", "true")) || !RoadStores.isPostgis(dataStore))
+            return null;
+        try {
+            PostgisSnapshot tmpSnapshot = PostgisSnapshot.export((JDBCDataStore) dataStore);
+            LOGGER.info("Reading all passes in the exported snapshot " + tmpSnapshot.getSnapshotId());
+            return tmpSnapshot;
+        } catch (SQLException e) {
+            // e.g. on a hot standby, the import still works but might see different rows in the two passes
+            LOGGER.warn("Cannot export a snapshot, the passes might see different states of the database", e);
+            return null;
+        }
     }
 
+    /**
+     * Restores the state of a finished junction pass from a checkpoint of an earlier import.
+     *
+     * @return false if there is no checkpoint and the junction pass has to be done
+     */
+    abstract boolean resumeJunctions();
+
     abstract void processJunctions();
 
     abstract void processRoads();
 
+    /**
+     * Applies the roads that changed after the specified marker.
+     *
+     * @return false if the graph was not modified as the changes cannot be applied incrementally
+     */
+    abstract boolean processChanges(String changeMarker);
+
+    /**
+     * @return the name of the roads table
+     */
+    abstract String getTableName();
+
+    RoadChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    GraphHopperStorage getGraphHopperStorage() {
+        return graphStorage;
+    }
+
     /**
      * This method will be called in the end to release the objects
      */
@@ -90,6 +302,25 @@ public abstract class PostgisReader implements DataReader {
 
     protected FeatureIterator<SimpleFeature> getFeatureIterator(
             DataStore dataStore, String tableName) {
+        return getFeatureIterator(dataStore, tableName, Filter.INCLUDE, null);
+    }
+
+    /**
+     * Returns the features that match {@link #getFilter(FeatureSource)} and the specified partition filter.
+     *
+     * @param properties the attributes that are fetched in addition to the default geometry or null to fetch all
+     *                   attributes. Attributes that do not exist in the table are skipped.
+     */
+    protected FeatureIterator<SimpleFeature> getFeatureIterator(
+            DataStore dataStore, String tableName, Filter partition, List<String> properties) {
+        return getFeatureIterator(dataStore, tableName, partition, properties, null);
+    }
+
+    /**
+     * @param sortBy the order of the features or null if the order does not matter
+     */
+    protected FeatureIterator<SimpleFeature> getFeatureIterator(
+            DataStore dataStore, String tableName, Filter partition, List<String> properties, SortBy[] sortBy) {
 
         if (dataStore == null)
             throw new IllegalArgumentException("DataStore cannot be null for getFeatureIterator");
@@ -100,8 +331,16 @@ public abstract class PostgisReader implements DataReader {
             FeatureSource<SimpleFeatureType, SimpleFeature> source =
                     dataStore.getFeatureSource(tableName);
 
-            Filter filter = getFilter(source);
-            FeatureCollection<SimpleFeatureType, SimpleFeature> collection = source.getFeatures(filter);
+            Filter filter = and(getFilter(source), partition);
+            Query query = new Query(tableName, filter);
+            if (properties != null)
+                query.setPropertyNames(getExistingProperties(source.getSchema(), properties));
+            if (sortBy != null)
+                query.setSortBy(sortBy);
+            if (snapshot != null && dataStore instanceof JDBCDataStore)
+                return getSnapshotFeatureIterator((JDBCDataStore) dataStore, query);
+
+            FeatureCollection<SimpleFeatureType, SimpleFeature> collection = source.getFeatures(query);
 
             FeatureIterator<SimpleFeature> features = collection.features();
             return features;
@@ -111,22 +350,254 @@ public abstract class PostgisReader implements DataReader {
         }
     }
 
+    /**
+     * Reads the features in a transaction that joined the snapshot of the import.
+     */
+    private FeatureIterator<SimpleFeature> getSnapshotFeatureIterator(JDBCDataStore dataStore, Query query)
+            throws IOException, SQLException {
+        Transaction transaction = new DefaultTransaction("postgis-import");
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader;
+        try {
+            snapshot.join(dataStore.getConnection(transaction));
+            reader = dataStore.getFeatureReader(query, transaction);
+        } catch (IOException | SQLException | RuntimeException e) {
+            transaction.close();
+            throw e;
+        }
+
+        return new FeatureIterator<SimpleFeature>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return reader.hasNext();
+                } catch (IOException e) {
+                    throw Utils.asUnchecked(e);
+                }
+            }
+
+            @Override
+            public SimpleFeature next() {
+                try {
+                    return reader.next();
+                } catch (IOException e) {
+                    throw Utils.asUnchecked(e);
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    reader.close();
+                    // we only read, so there is nothing to commit
+                    transaction.rollback();
+                } catch (IOException e) {
+                    throw Utils.asUnchecked(e);
+                } finally {
+                    try {
+                        transaction.close();
+                    } catch (IOException e) {
+                        LOGGER.warn("Cannot close the transaction", e);
+                    }
+                }
+            }
+        };
+    }
+
+    private static List<String> getExistingProperties(SimpleFeatureType schema, List<String> properties) {
+        List<String> existing = new ArrayList<>(properties.size() + 1);
+        existing.add(schema.getGeometryDescriptor().getLocalName());
+        for (String property : properties) {
+            if (schema.getDescriptor(property) != null && !existing.contains(property))
+                existing.add(property);
+        }
+        return existing;
+    }
+
+    /**
+     * The attributes that {@link #acceptFeature(SimpleFeature)} needs. Only these and the attributes used for the
+     * edges are fetched from the database, so override this if acceptFeature looks at other attributes. The names
+     * are mapped to the columns of every table with db.table.&lt;name&gt;.columns, e.g. fclass to route, so
+     * acceptFeature should read them with {@link #getAttribute(SimpleFeature, String)}.
+     */
+    protected List<String> getAcceptFeatureProperties() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the attribute of the feature in the column that the name is mapped to in the table of the feature
+     */
+    protected Object getAttribute(SimpleFeature feature, String name) {
+        return feature.getAttribute(getTable(feature.getFeatureType().getTypeName()).getColumn(name));
+    }
+
     /**
      * Filters can help a lot when you need to limit the results returned from PostGIS.
      * A Filter can be used similar to the WHERE clause in regular SQL statements.
      * It's easy to filter geometries that have a certain attributes, are in certain BBoxes, Polygons, etc.
      * You can find a lot of sample filters here: https://github.com/geotools/geotools/blob/master/docs/src/main/java/org/geotools/main/FilterExamples.java
      * <p>
-     * By default, all features are returned.
+     * By default, the filter is created from the config keys db.bbox, db.fclass_include, db.fclass_exclude and
+     * db.where. If none of them is set all features are returned.
      */
     protected Filter getFilter(FeatureSource source) {
-        return Filter.INCLUDE;
+        FeatureType schema = source.getSchema();
+        RoadTable table = getTable(schema.getName().getLocalPart());
+        if (roadFilter.isEmpty())
+            return table.getFilter();
+        return and(roadFilter.toFilter(schema.getGeometryDescriptor().getLocalName(), table.getColumn("fclass")),
+                table.getFilter());
+    }
+
+    /**
+     * @return the tables of db.tables or, without db.tables, the table of datareader.file
+     */
+    List<RoadTable> getTables() {
+        if (tables == null) {
+            List<RoadTable> tmpTables = RoadTable.parse(postgisParams);
+            tables = tmpTables.isEmpty() ? Collections.singletonList(RoadTable.of(getTableName())) : tmpTables;
+        }
+        return tables;
+    }
+
+    /**
+     * @return the table of db.tables with the specified name or a table with the default column names
+     */
+    RoadTable getTable(String tableName) {
+        for (RoadTable table : getTables()) {
+            if (table.getName().equals(tableName))
+                return table;
+        }
+        return RoadTable.of(tableName);
+    }
+
+    /**
+     * Logs the server-side filter of the table. The filter is not counted, as this would scan the table twice
+     * before the import even starts. For PostGIS the size of the table is taken from the estimate of the planner
+     * instead, the number of rows that pass the filter is logged after the junction pass.
+     */
+    protected void logServerSideFilter(DataStore dataStore, String tableName) {
+        try {
+            Filter filter = getFilter(dataStore.getFeatureSource(tableName));
+            if (filter == Filter.INCLUDE)
+                return;
+
+            long estimate = RoadStores.isPostgis(dataStore) ? estimateRows((JDBCDataStore) dataStore, tableName) : -1;
+            if (estimate < 0) {
+                LOGGER.info("Filtering " + tableName + " in the database with " + filter);
+            } else {
+                LOGGER.info("Filtering " + tableName + " in the database with " + filter + ", the table has about "
+                        + nf(estimate) + " rows");
+            }
+        } catch (Exception e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * @return the number of rows of the table as estimated by the last ANALYZE or -1 if there is no estimate,
+     * e.g. for a view or a table that was never analyzed
+     */
+    static long estimateRows(JDBCDataStore dataStore, String tableName) throws SQLException {
+        try (Connection connection = RoadStores.getConnection(dataStore);
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)")) {
+            statement.setString(1, JdbcRoadIterator.qualify(dataStore, tableName));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next())
+                    return -1;
+                long estimate = resultSet.getLong(1);
+                // views have no rows and tables that were never analyzed have 0 or -1 since PostgreSQL 14
+                return estimate > 0 ? estimate : -1;
+            }
+        }
+    }
+
+    /**
+     * Splits the table into the specified number of disjoint osm_id ranges. The ranges are derived from the min
+     * and max osm_id that PostGIS calculates for us, so they are only balanced if the ids are evenly distributed.
+     *
+     * @return the filters of the partitions, a single {@link Filter#INCLUDE} if the table cannot be split
+     */
+    protected List<Filter> getPartitionFilters(DataStore dataStore, String tableName, int partitions) {
+        long[] bounds = getPartitionBounds(dataStore, tableName, partitions);
+        List<Filter> filters = new ArrayList<>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; i++) {
+            filters.add(createRangeFilter(bounds[i], bounds[i + 1]));
+        }
+        return filters;
+    }
+
+    /**
+     * @return the bounds of the osm_id ranges of the partitions. Partition i starts at bounds[i] (inclusive) and
+     * ends at bounds[i + 1] (exclusive). The first bound is Long.MIN_VALUE and the last one Long.MAX_VALUE, so the
+     * partitions cover all ids.
+     */
+    long[] getPartitionBounds(DataStore dataStore, String tableName, int partitions) {
+        long[] all = {Long.MIN_VALUE, Long.MAX_VALUE};
+        if (partitions <= 1)
+            return all;
+
+        try {
+            FeatureSource<SimpleFeatureType, SimpleFeature> source = dataStore.getFeatureSource(tableName);
+            FeatureCollection<SimpleFeatureType, SimpleFeature> collection = source.getFeatures(getFilter(source));
+            PropertyName osmId = FF.property(OSM_ID);
+            MinVisitor minVisitor = new MinVisitor(osmId);
+            MaxVisitor maxVisitor = new MaxVisitor(osmId);
+            collection.accepts(minVisitor, null);
+            collection.accepts(maxVisitor, null);
+            Object minValue = minVisitor.getResult().getValue();
+            Object maxValue = maxVisitor.getResult().getValue();
+            if (!(minValue instanceof Number) || !(maxValue instanceof Number)) {
+                LOGGER.warn("Cannot partition " + tableName + " as " + OSM_ID + " is not numeric or the table is empty, reading it with a single connection");
+                return all;
+            }
+
+            long min = ((Number) minValue).longValue();
+            long max = ((Number) maxValue).longValue();
+            int count = (int) Math.max(1, Math.min(partitions, max - min + 1));
+            long step = (max - min) / count + 1;
+            long[] bounds = new long[count + 1];
+            bounds[0] = Long.MIN_VALUE;
+            for (int i = 1; i < count; i++) {
+                bounds[i] = min + i * step;
+            }
+            bounds[count] = Long.MAX_VALUE;
+            LOGGER.info("Split " + tableName + " into " + count + " partitions of " + step + " osm ids between " + min + " and " + max);
+            return bounds;
+        } catch (Exception e) {
+            throw Utils.asUnchecked(e);
+        }
     }
 
+    /**
+     * @return the filter for the osm ids from (inclusive) to (exclusive), Long.MIN_VALUE and Long.MAX_VALUE mean
+     * that the range is open
+     */
+    static Filter createRangeFilter(long from, long to) {
+        PropertyName osmId = FF.property(OSM_ID);
+        Filter filter = Filter.INCLUDE;
+        if (from != Long.MIN_VALUE)
+            filter = FF.greaterOrEqual(osmId, FF.literal(from));
+        if (to != Long.MAX_VALUE)
+            filter = and(filter, FF.less(osmId, FF.literal(to)));
+        return filter;
+    }
+
+    protected static Filter and(Filter filter, Filter other) {
+        if (filter == Filter.INCLUDE)
+            return other;
+        if (other == Filter.INCLUDE)
+            return filter;
+        return FF.and(filter, other);
+    }
+
+    /**
+     * @return the store with the roads table, by default opened by the factory of db.store
+     */
     protected DataStore openPostGisStore() {
         try {
-            LOGGER.info("Opening DB connection to " + this.postgisParams.get("dbtype") + " " + this.postgisParams.get("host") + ":" + this.postgisParams.get("port") + " to database " + this.postgisParams.get("database") + " schema " + this.postgisParams.get("schema"));
-            DataStore ds = DataStoreFinder.getDataStore(this.postgisParams);
+            // every partition of every table is read with its own connection
+            DataStore ds = storeFactory.open(postgisParams, getTableName(), getPartitions() * getTables().size());
             if (ds == null)
                 throw new IllegalArgumentException("Error Connecting to Database ");
             return ds;
@@ -136,8 +607,17 @@ public abstract class PostgisReader implements DataReader {
         }
     }
 
+    /**
+     * @return the number of partitions that are read concurrently
+     */
+    protected int getPartitions() {
+        return 1;
+    }
+
     /**
      * This method can be used to filter features. One way to use it is to filter for features withing a certain BBox
+     * <p>
+     * If the table is read in several partitions this method is called concurrently.
      *
      * @return true if the feature should be accepted
      */
@@ -147,7 +627,11 @@ public abstract class PostgisReader implements DataReader {
 
     /**
      * Returns the coordinates of a feature.
+     *
+     * @deprecated the reader no longer calls this method, it decodes the geometries of the features and the WKB of
+     * the jdbc backend directly into the road records without copying the coordinates
      */
+    @Deprecated
     protected List<Coordinate[]> getCoords(SimpleFeature feature) {
         ArrayList<Coordinate[]> ret = new ArrayList<>();
         if (feature == null)
@@ -169,21 +653,40 @@ public abstract class PostgisReader implements DataReader {
         return ret;
     }
 
-    /*
+    /**
      * Get longitude using the current long-lat order convention
+     *
+     * @deprecated the reader no longer calls this method, it always reads x as the longitude
      */
+    @Deprecated
     protected double lng(Coordinate coordinate) {
         return coordinate.getOrdinate(0);
     }
 
-    /*
+    /**
      * Get latitude using the current long-lat order convention
+     *
+     * @deprecated the reader no longer calls this method, it always reads y as the latitude
      */
+    @Deprecated
     protected double lat(Coordinate coordinate) {
         return coordinate.getOrdinate(1);
     }
 
+    /**
+     * @deprecated the reader no longer calls this method, overwrite {@link #saveTowerPosition(int, double, double)}
+     * instead
+     */
+    @Deprecated
     protected void saveTowerPosition(int nodeId, Coordinate point) {
-        nodeAccess.setNode(nodeId, lat(point), lng(point));
+        saveTowerPosition(nodeId, lat(point), lng(point));
+    }
+
+    protected void saveTowerPosition(int nodeId, double lat, double lon) {
+        nodeAccess.setNode(nodeId, lat, lon);
+    }
+
+    protected void saveTowerPosition(int nodeId, double lat, double lon, double ele) {
+        nodeAccess.setNode(nodeId, lat, lon, ele);
     }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.geotools.jdbc.JDBCDataStore;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+
+/**
+ * An exported PostgreSQL snapshot that all reading transactions of an import join. The exporting transaction is
+ * kept open until the import is finished, so both passes and all partitions see exactly the same rows, even if the
+ * table is modified in the meantime.
+ *
+ * @author Robin Boldt
+ */
+final class PostgisSnapshot implements Closeable {
+
+    private final Connection connection;
+    private final String snapshotId;
+    private final Date exportTime;
+
+    private PostgisSnapshot(Connection connection, String snapshotId, Date exportTime) {
+        this.connection = connection;
+        this.snapshotId = snapshotId;
+        this.exportTime = exportTime;
+    }
+
+    static PostgisSnapshot export(JDBCDataStore dataStore) throws SQLException {
+        Connection connection = RoadStores.getConnection(dataStore);
+        try {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+                // the snapshot is taken by this first query of the transaction, now() is the start of the transaction
+                try (ResultSet resultSet = statement.executeQuery("SELECT pg_export_snapshot(), now()")) {
+                    resultSet.next();
+                    return new PostgisSnapshot(connection, resultSet.getString(1), resultSet.getTimestamp(2));
+                }
+            }
+        } catch (SQLException e) {
+            release(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Lets the current transaction of the connection use this snapshot. Auto commit has to be disabled and no
+     * query must have been executed in the current transaction.
+     */
+    void join(Connection cx) throws SQLException {
+        try (Statement statement = cx.createStatement()) {
+            statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            statement.execute("SET TRANSACTION SNAPSHOT '" + snapshotId + "'");
+        }
+    }
+
+    String getSnapshotId() {
+        return snapshotId;
+    }
+
+    /**
+     * @return the start of the exporting transaction, which is at most the time the snapshot was taken
+     */
+    Date getExportTime() {
+        return exportTime;
+    }
+
+    @Override
+    public void close() {
+        try {
+            release(connection);
+        } catch (SQLException e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    private static void release(Connection connection) throws SQLException {
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.carrotsearch.hppc.LongHashSet;
+import org.geotools.data.DataStore;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.PropertyName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.graphhopper.reader.postgis.PostgisReader.FF;
+import static com.graphhopper.reader.postgis.PostgisReader.OSM_ID;
+
+/**
+ * Finds the roads that changed since the last import. The changes are either detected with a timestamp (or any
+ * other monotonically increasing) column of the roads table, configured via db.update_column, or they are read
+ * from a change-log table, configured via db.change_table. Only the change-log table can contain tombstones for
+ * deleted roads, its rows need the columns osm_id, the update column and a boolean column that marks deletions
+ * (db.change_deleted_column, default deleted). A tombstone wins over a row that is still in the roads table, so
+ * soft deleted rows are removed as well.
+ *
+ * @author Robin Boldt
+ */
+final class RoadChangeLog {
+
+    private final String updateColumn;
+    private final String changeTable;
+    private final String deletedColumn;
+
+    RoadChangeLog(Map<String, String> postgisParams) {
+        this.updateColumn = postgisParams.getOrDefault("update_column", "").trim();
+        this.changeTable = postgisParams.getOrDefault("change_table", "").trim();
+        this.deletedColumn = postgisParams.getOrDefault("change_deleted_column", "deleted").trim();
+        if (updateColumn.isEmpty() && !changeTable.isEmpty())
+            throw new IllegalArgumentException("db.change_table requires db.update_column");
+    }
+
+    boolean isEnabled() {
+        return !updateColumn.isEmpty();
+    }
+
+    /**
+     * @return the largest value of the update column or an empty string if the table is empty. This marker has to
+     * be read before the roads, so that a change that happens while reading is found again by the next update.
+     */
+    String readMarker(DataStore dataStore, String roadsTable) {
+        try {
+            String tableName = getTableName(roadsTable);
+            FeatureSource<SimpleFeatureType, SimpleFeature> source = dataStore.getFeatureSource(tableName);
+            MaxVisitor maxVisitor = new MaxVisitor(FF.property(updateColumn));
+            source.getFeatures(new Query(tableName)).accepts(maxVisitor, null);
+            Object max = maxVisitor.getResult().getValue();
+            return max == null ? "" : max.toString();
+        } catch (Exception e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * Reads the ids of all roads that changed after the specified marker. The filters of the import are not applied
+     * as a road that does not match them anymore has to be removed from the graph.
+     */
+    Changes readChanges(DataStore dataStore, String roadsTable, String marker) {
+        String tableName = getTableName(roadsTable);
+        Filter filter = marker.isEmpty() ? Filter.INCLUDE : FF.greater(FF.property(updateColumn), FF.literal(marker));
+        Query query = new Query(tableName, filter);
+        List<String> properties = new ArrayList<>();
+        properties.add(OSM_ID);
+        if (!changeTable.isEmpty())
+            properties.add(deletedColumn);
+        query.setPropertyNames(properties);
+
+        Changes changes = new Changes();
+        FeatureIterator<SimpleFeature> features = null;
+        try {
+            features = dataStore.getFeatureSource(tableName).getFeatures(query).features();
+            while (features.hasNext()) {
+                SimpleFeature feature = features.next();
+                long osmId = Long.parseLong(feature.getAttribute(OSM_ID).toString());
+                changes.ids.add(osmId);
+                if (!changeTable.isEmpty() && isTrue(feature.getAttribute(deletedColumn)))
+                    changes.deleted.add(osmId);
+            }
+        } catch (Exception e) {
+            throw Utils.asUnchecked(e);
+        } finally {
+            if (features != null)
+                features.close();
+        }
+        return changes;
+    }
+
+    /**
+     * @return a filter that matches the roads with the specified osm ids
+     */
+    static Filter createIdFilter(long[] osmIds) {
+        PropertyName osmId = FF.property(OSM_ID);
+        if (osmIds.length == 1)
+            return FF.equals(osmId, FF.literal(osmIds[0]));
+        List<Filter> filters = new ArrayList<>(osmIds.length);
+        for (long id : osmIds) {
+            filters.add(FF.equals(osmId, FF.literal(id)));
+        }
+        return FF.or(filters);
+    }
+
+    private String getTableName(String roadsTable) {
+        return changeTable.isEmpty() ? roadsTable : changeTable;
+    }
+
+    static boolean isTrue(Object value) {
+        if (value == null)
+            return false;
+        if (value instanceof Boolean)
+            return (Boolean) value;
+        if (value instanceof Number)
+            return ((Number) value).intValue() != 0;
+        String str = value.toString().trim();
+        return str.equalsIgnoreCase("true") || str.equalsIgnoreCase("t") || str.equals("1");
+    }
+
+    static final class Changes {
+        // all changed roads including the deleted ones
+        final LongHashSet ids = new LongHashSet();
+        final LongHashSet deleted = new LongHashSet();
+
+        boolean isEmpty() {
+            return ids.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import com.carrotsearch.hppc.cursors.LongCursor;
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.graphhopper.util.Helper.nf;
+
+/**
+ * Maps the osm_id of every road to the edges that were created for it, so an update can find the edges of a
+ * changed road. The pairs are appended in the order the edges are created. When the index is stored next to the
+ * graph they are sorted by osm_id and edge, so that the edges of a road are found with a binary search. The edge ids
+ * grow with the creation order, hence the edges of a road stay in the order they were created.
+ * <p>
+ * Up to 16M entries are sorted in two arrays on the heap, which needs 12 bytes per edge, i.e. at most 192MB. A
+ * larger index is sorted in place in the DataAccess, which needs no heap and works beyond Integer.MAX_VALUE
+ * entries, but is several times slower.
+ *
+ * @author Robin Boldt
+ */
+final class RoadEdgeIndex {
+
+    static final String NAME = "postgis_edges";
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoadEdgeIndex.class);
+    private static final int ENTRY_BYTES = 12;
+    static final long MAX_HEAP_SORT = 1 << 24;
+
+    private final DataAccess da;
+    private long size;
+    private boolean sorted;
+
+    private RoadEdgeIndex(DataAccess da, long size, boolean sorted) {
+        this.da = da;
+        this.size = size;
+        this.sorted = sorted;
+    }
+
+    static RoadEdgeIndex create(Directory dir) {
+        return new RoadEdgeIndex(dir.find(NAME).create(1 << 16), 0, false);
+    }
+
+    /**
+     * @return the index that was stored with the graph or null if the graph was imported without it
+     */
+    static RoadEdgeIndex load(Directory dir) {
+        DataAccess da = dir.find(NAME);
+        // the DataAccess is still open if the graph was imported by this process
+        if (da.getCapacity() == 0 && !da.loadExisting())
+            return null;
+        long size = ((long) da.getHeader(0) << 32) | (da.getHeader(4) & 0xFFFFFFFFL);
+        return new RoadEdgeIndex(da, size, da.getHeader(8) == 1);
+    }
+
+    void add(long osmId, int edge) {
+        sorted = false;
+        long pos = size * ENTRY_BYTES;
+        da.ensureCapacity(pos + ENTRY_BYTES);
+        da.setInt(pos, (int) (osmId >>> 32));
+        da.setInt(pos + 4, (int) osmId);
+        da.setInt(pos + 8, edge);
+        size++;
+    }
+
+    /**
+     * @return the edges of the specified roads in the order they were created. Roads without edges are missing.
+     */
+    LongObjectHashMap<IntArrayList> getEdges(LongHashSet osmIds) {
+        LongObjectHashMap<IntArrayList> edges = new LongObjectHashMap<>(osmIds.size());
+        if (sorted) {
+            for (LongCursor cursor : osmIds) {
+                IntArrayList list = getEdges(cursor.value);
+                if (!list.isEmpty())
+                    edges.put(cursor.value, list);
+            }
+            return edges;
+        }
+
+        for (long i = 0; i < size; i++) {
+            long pos = i * ENTRY_BYTES;
+            long osmId = ((long) da.getInt(pos) << 32) | (da.getInt(pos + 4) & 0xFFFFFFFFL);
+            if (!osmIds.contains(osmId))
+                continue;
+            IntArrayList list = edges.get(osmId);
+            if (list == null) {
+                list = new IntArrayList(4);
+                edges.put(osmId, list);
+            }
+            list.add(da.getInt(pos + 8));
+        }
+        return edges;
+    }
+
+    /**
+     * @return the edges of the specified road in the order they were created, empty if it has no edges
+     */
+    IntArrayList getEdges(long osmId) {
+        if (!sorted)
+            return getEdges(LongHashSet.from(osmId)).getOrDefault(osmId, new IntArrayList(0));
+
+        // find the first entry of the road
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (getOsmId(mid) < osmId)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        IntArrayList edges = new IntArrayList(4);
+        for (long i = low; i < size && getOsmId(i) == osmId; i++) {
+            edges.add(da.getInt(i * ENTRY_BYTES + 8));
+        }
+        return edges;
+    }
+
+    private long getOsmId(long index) {
+        long pos = index * ENTRY_BYTES;
+        return ((long) da.getInt(pos) << 32) | (da.getInt(pos + 4) & 0xFFFFFFFFL);
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Sorts the entries by osm_id and edge and stores the index.
+     */
+    void flush() {
+        sort(MAX_HEAP_SORT);
+        da.setHeader(0, (int) (size >>> 32));
+        da.setHeader(4, (int) size);
+        da.setHeader(8, sorted ? 1 : 0);
+        da.flush();
+    }
+
+    /**
+     * @param maxHeapEntries the largest number of entries that is sorted on the heap
+     */
+    void sort(long maxHeapEntries) {
+        if (sorted)
+            return;
+        if (size > maxHeapEntries) {
+            LOGGER.info("Sorting the " + nf(size) + " entries of the edge index in place");
+            new InPlaceSorter().sort(0, size);
+            sorted = true;
+            return;
+        }
+        int count = (int) size;
+        long[] osmIds = new long[count];
+        int[] edges = new int[count];
+        for (int i = 0; i < count; i++) {
+            osmIds[i] = getOsmId(i);
+            edges[i] = getEdge(i);
+        }
+        PairSorter.sort(osmIds, edges, 0, count);
+        for (int i = 0; i < count; i++) {
+            long pos = (long) i * ENTRY_BYTES;
+            da.setInt(pos, (int) (osmIds[i] >>> 32));
+            da.setInt(pos + 4, (int) osmIds[i]);
+            da.setInt(pos + 8, edges[i]);
+        }
+        sorted = true;
+    }
+
+    private int getEdge(long index) {
+        return da.getInt(index * ENTRY_BYTES + 8);
+    }
+
+    private void swap(long i, long j) {
+        long posI = i * ENTRY_BYTES;
+        long posJ = j * ENTRY_BYTES;
+        for (int offset = 0; offset < ENTRY_BYTES; offset += 4) {
+            int tmp = da.getInt(posI + offset);
+            da.setInt(posI + offset, da.getInt(posJ + offset));
+            da.setInt(posJ + offset, tmp);
+        }
+    }
+
+    /**
+     * Sorts the entries of the DataAccess by osm id and edge, like the heap sort but without a copy.
+     */
+    private final class InPlaceSorter extends PairSorter {
+        @Override
+        long getKey(long index) {
+            return getOsmId(index);
+        }
+
+        @Override
+        int getValue(long index) {
+            return getEdge(index);
+        }
+
+        @Override
+        void swap(long i, long j) {
+            RoadEdgeIndex.this.swap(i, j);
+        }
+    }
+}
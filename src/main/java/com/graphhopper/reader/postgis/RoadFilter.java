@@ -0,0 +1,135 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.text.ecql.ECQL;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.PropertyName;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The configured restrictions of the imported rows, i.e. a bbox, the included or excluded fclass values and an
+ * additional where clause. They are translated into a GeoTools Filter that the JDBC DataStore encodes as SQL, so
+ * rejected rows never leave PostgreSQL and the bbox can use the spatial index.
+ *
+ * @author Robin Boldt
+ */
+final class RoadFilter {
+
+    private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    private final double[] bbox;
+    private final List<String> includedClasses;
+    private final List<String> excludedClasses;
+    private final String where;
+
+    RoadFilter(Map<String, String> postgisParams) {
+        this.bbox = parseBBox(postgisParams.get("bbox"));
+        this.includedClasses = parseList(postgisParams.get("fclass_include"));
+        this.excludedClasses = parseList(postgisParams.get("fclass_exclude"));
+        String tmpWhere = postgisParams.get("where");
+        this.where = tmpWhere == null || tmpWhere.trim().isEmpty() ? null : tmpWhere.trim();
+    }
+
+    boolean isEmpty() {
+        return bbox == null && includedClasses.isEmpty() && excludedClasses.isEmpty() && where == null;
+    }
+
+    /**
+     * @param geometryName the name of the geometry column that is used for the bbox
+     */
+    Filter toFilter(String geometryName) {
+        return toFilter(geometryName, "fclass");
+    }
+
+    /**
+     * @param fclassColumn the name of the column with the fclass values
+     */
+    Filter toFilter(String geometryName, String fclassColumn) {
+        List<Filter> filters = new ArrayList<>();
+        if (bbox != null)
+            filters.add(FF.bbox(FF.property(geometryName), bbox[0], bbox[1], bbox[2], bbox[3], "EPSG:4326"));
+        if (!includedClasses.isEmpty())
+            filters.add(anyClass(fclassColumn, includedClasses));
+        if (!excludedClasses.isEmpty())
+            // in SQL NOT (fclass = 'x') is unknown for a null fclass, so these rows have to be kept explicitly
+            filters.add(FF.or(FF.isNull(FF.property(fclassColumn)), FF.not(anyClass(fclassColumn, excludedClasses))));
+        if (where != null) {
+            try {
+                filters.add(ECQL.toFilter(where));
+            } catch (CQLException e) {
+                throw new IllegalArgumentException("Cannot parse db.where: " + where, e);
+            }
+        }
+
+        if (filters.isEmpty())
+            return Filter.INCLUDE;
+        if (filters.size() == 1)
+            return filters.get(0);
+        return FF.and(filters);
+    }
+
+    @Override
+    public String toString() {
+        return "bbox=" + (bbox == null ? "" : Arrays.toString(bbox)) + ", fclass_include=" + includedClasses
+                + ", fclass_exclude=" + excludedClasses + ", where=" + (where == null ? "" : where);
+    }
+
+    private static Filter anyClass(String fclassColumn, List<String> classes) {
+        PropertyName fclass = FF.property(fclassColumn);
+        List<Filter> filters = new ArrayList<>(classes.size());
+        for (String clazz : classes) {
+            filters.add(FF.equals(fclass, FF.literal(clazz)));
+        }
+        return filters.size() == 1 ? filters.get(0) : FF.or(filters);
+    }
+
+    private static double[] parseBBox(String str) {
+        if (str == null || str.trim().isEmpty())
+            return null;
+        String[] values = str.split(",");
+        if (values.length != 4)
+            throw new IllegalArgumentException("db.bbox has to be minLon,minLat,maxLon,maxLat but was " + str);
+        double[] bbox = new double[4];
+        for (int i = 0; i < 4; i++) {
+            bbox[i] = Double.parseDouble(values[i].trim());
+        }
+        if (bbox[0] > bbox[2] || bbox[1] > bbox[3])
+            throw new IllegalArgumentException("db.bbox has to be minLon,minLat,maxLon,maxLat but was " + str);
+        return bbox;
+    }
+
+    private static List<String> parseList(String str) {
+        if (str == null || str.trim().isEmpty())
+            return Collections.emptyList();
+        List<String> list = new ArrayList<>();
+        for (String value : str.split(",")) {
+            if (!value.trim().isEmpty())
+                list.add(value.trim());
+        }
+        return list;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import java.io.Closeable;
+
+/**
+ * Iterates over the decoded roads of one source. The coordinates of the returned roads are already rounded.
+ *
+ * @author Robin Boldt
+ */
+interface RoadIterator extends Closeable {
+
+    /**
+     * @return the next road or null if there are no more roads. Implementations may reuse the returned object,
+     * so it is only valid until the next call.
+     */
+    RoadRecord next();
+
+    @Override
+    void close();
+}
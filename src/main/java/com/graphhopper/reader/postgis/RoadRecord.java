@@ -0,0 +1,110 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.util.PointList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The attributes and the rounded geometry of a single road, i.e. everything the road pass needs to create the
+ * edges. This decouples the edge creation from the GeoTools feature model, so a road can also be replayed from
+ * somewhere else than a SimpleFeature.
+ * <p>
+ * Every line of the geometry is stored as a part. The PointList objects of the parts are kept when the record is
+ * cleared, so a reused record does not allocate new arrays for every road. The parts of a 3D record store the
+ * elevation of every point, which is NaN if the geometry has no Z value for it.
+ *
+ * @author Robin Boldt
+ */
+final class RoadRecord {
+
+    long osmId;
+    Object fclass;
+    Object maxSpeed;
+    Object oneway;
+    final Object[] tags;
+    // the size of the geometry as WKB, i.e. what was fetched for it
+    int geometryBytes;
+    private final List<PointList> parts = new ArrayList<>();
+    private final boolean is3D;
+    private int partCount;
+
+    RoadRecord(int tagCount) {
+        this(tagCount, false);
+    }
+
+    RoadRecord(int tagCount, boolean is3D) {
+        this.tags = new Object[tagCount];
+        this.is3D = is3D;
+    }
+
+    /**
+     * Adds an empty part to the end of the geometry and returns it.
+     */
+    PointList addPart() {
+        if (partCount == parts.size())
+            parts.add(new PointList(10, is3D));
+        PointList part = parts.get(partCount++);
+        part.clear();
+        return part;
+    }
+
+    int getPartCount() {
+        return partCount;
+    }
+
+    PointList getPart(int index) {
+        if (index >= partCount)
+            throw new IndexOutOfBoundsException("Part " + index + " does not exist, parts: " + partCount);
+        return parts.get(index);
+    }
+
+    boolean is3D() {
+        return is3D;
+    }
+
+    /**
+     * Replaces the content of this record with a copy of the other record, which must have the same dimension.
+     */
+    void copyFrom(RoadRecord other) {
+        clear();
+        osmId = other.osmId;
+        fclass = other.fclass;
+        maxSpeed = other.maxSpeed;
+        oneway = other.oneway;
+        System.arraycopy(other.tags, 0, tags, 0, tags.length);
+        geometryBytes = other.geometryBytes;
+        for (int p = 0; p < other.getPartCount(); p++) {
+            addPart().add(other.getPart(p));
+        }
+    }
+
+    void clear() {
+        osmId = 0;
+        fclass = null;
+        maxSpeed = null;
+        oneway = null;
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = null;
+        }
+        partCount = 0;
+        geometryBytes = 0;
+    }
+}
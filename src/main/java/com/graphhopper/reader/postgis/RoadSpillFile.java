@@ -0,0 +1,349 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.storage.DAType;
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.GHDirectory;
+import com.graphhopper.util.Helper;
+import com.graphhopper.util.PointList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Memory mapped temporary file that stores the accepted roads of the junction pass, so that the road pass can
+ * replay them without a second scan of the PostGIS table. A checkpointed import keeps the file in its checkpoint
+ * folder, so an interrupted import can replay the roads that were already read.
+ * <p>
+ * Every road is written as one length prefixed record. The coordinates are stored as fixed-point integers, which
+ * is lossless because they were already rounded to 6 decimals by the junction pass. The elevations of 3D roads are
+ * stored in millimetres, like GraphHopper stores them. The file does not know the dimension of the roads, so they
+ * have to be read into records of the same dimension as they were written from.
+ * <p>
+ * The attributes keep the Java types that the JDBC driver returns for the column types of PostgreSQL, so a replayed
+ * road has the same tags as a road that is read from the table. Other types are rejected, as converting them to a
+ * String would change the tags of the single scan.
+ *
+ * @author Robin Boldt
+ */
+final class RoadSpillFile implements Closeable {
+
+    private static final String NAME = "roads";
+    private static final int SEGMENT_SIZE = 1 << 23;
+    private static final double FACTOR = 1e6;
+    private static final double ELE_FACTOR = 1e3;
+    private static final int NO_ELE = Integer.MIN_VALUE;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_SHORT = 6;
+    private static final byte TYPE_FLOAT = 7;
+    private static final byte TYPE_BIG_DECIMAL = 8;
+    private static final byte TYPE_DATE = 9;
+    private static final byte TYPE_TIMESTAMP = 10;
+    private static final byte TYPE_TIME = 11;
+
+    private final File folder;
+    private final boolean temporary;
+    private final DataAccess da;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+    private byte[] readBytes = new byte[1 << 12];
+    private long size;
+    private long readPointer;
+    private int records;
+
+    /**
+     * Creates an empty file in a temporary folder below the specified folder, which is removed on close.
+     *
+     * @param parent the folder of the temporary folder or null for the temporary folder of the system
+     */
+    RoadSpillFile(File parent) {
+        this(createTempFolder(parent), true);
+        da.create(SEGMENT_SIZE);
+    }
+
+    private RoadSpillFile(File folder, boolean temporary) {
+        this.folder = folder;
+        this.temporary = temporary;
+        Directory dir = new GHDirectory(folder.getAbsolutePath(), DAType.MMAP);
+        da = dir.find(NAME).setSegmentSize(SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates an empty file in the specified folder, which is kept on close.
+     */
+    static RoadSpillFile create(File folder) {
+        RoadSpillFile file = new RoadSpillFile(folder, false);
+        file.da.create(SEGMENT_SIZE);
+        return file;
+    }
+
+    /**
+     * Opens a file that was created via {@link #create(File)}. Only the specified number of bytes and records are
+     * kept, everything that was written after the last {@link #flush()} is overwritten by the next write.
+     *
+     * @return null if the file does not exist
+     */
+    static RoadSpillFile open(File folder, long size, int records) {
+        RoadSpillFile file = new RoadSpillFile(folder, false);
+        if (!file.da.loadExisting() || file.da.getCapacity() < size)
+            return null;
+        file.size = size;
+        file.records = records;
+        return file;
+    }
+
+    private static File createTempFolder(File parent) {
+        try {
+            if (parent == null)
+                return Files.createTempDirectory("gh-postgis-spill").toFile();
+            Files.createDirectories(parent.toPath());
+            return Files.createTempDirectory(parent.toPath(), "gh-postgis-spill").toFile();
+        } catch (IOException e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * Appends the road to the end of the file. The coordinates of the road must already be rounded.
+     */
+    void write(RoadRecord road) {
+        buffer.clear();
+        ensureRemaining(8 + 4);
+        buffer.putLong(road.osmId);
+        buffer.putInt(road.getPartCount());
+        putValue(road.osmId, road.fclass);
+        putValue(road.osmId, road.maxSpeed);
+        putValue(road.osmId, road.oneway);
+        for (Object tag : road.tags) {
+            putValue(road.osmId, tag);
+        }
+        for (int p = 0; p < road.getPartCount(); p++) {
+            PointList points = road.getPart(p);
+            ensureRemaining(4 + (points.is3D() ? 12 : 8) * points.size());
+            buffer.putInt(points.size());
+            for (int i = 0; i < points.size(); i++) {
+                buffer.putInt((int) Math.round(points.getLat(i) * FACTOR));
+                buffer.putInt((int) Math.round(points.getLon(i) * FACTOR));
+                if (points.is3D()) {
+                    double ele = points.getEle(i);
+                    buffer.putInt(Double.isNaN(ele) ? NO_ELE : (int) Math.round(ele * ELE_FACTOR));
+                }
+            }
+        }
+
+        // keep every record 4 byte aligned so that the length prefix never crosses a segment border
+        int length = (buffer.position() + 3) & ~3;
+        if (length > SEGMENT_SIZE)
+            throw new IllegalStateException("Road with OSM id " + road.osmId + " is too large for the spill file: " + length + " bytes");
+
+        da.ensureCapacity(size + 4 + length);
+        da.setInt(size, length);
+        da.setBytes(size + 4, buffer.array(), length);
+        size += 4 + length;
+        records++;
+    }
+
+    /**
+     * Prepares the file for reading it from the beginning via {@link #next(RoadRecord)}.
+     */
+    void rewind() {
+        readPointer = 0;
+    }
+
+    /**
+     * Reads the next road into the specified record.
+     *
+     * @return false if there are no more roads
+     */
+    boolean next(RoadRecord road) {
+        if (readPointer >= size)
+            return false;
+
+        int length = da.getInt(readPointer);
+        if (readBytes.length < length)
+            readBytes = new byte[length];
+        da.getBytes(readPointer + 4, readBytes, length);
+        readPointer += 4 + length;
+
+        ByteBuffer in = ByteBuffer.wrap(readBytes, 0, length);
+        road.clear();
+        road.osmId = in.getLong();
+        int parts = in.getInt();
+        road.fclass = getValue(in);
+        road.maxSpeed = getValue(in);
+        road.oneway = getValue(in);
+        for (int i = 0; i < road.tags.length; i++) {
+            road.tags[i] = getValue(in);
+        }
+        for (int p = 0; p < parts; p++) {
+            PointList points = road.addPart();
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                double lat = in.getInt() / FACTOR;
+                double lon = in.getInt() / FACTOR;
+                if (points.is3D()) {
+                    int ele = in.getInt();
+                    points.add(lat, lon, ele == NO_ELE ? Double.NaN : ele / ELE_FACTOR);
+                } else {
+                    points.add(lat, lon);
+                }
+            }
+        }
+        return true;
+    }
+
+    int getRecords() {
+        return records;
+    }
+
+    long getBytes() {
+        return size;
+    }
+
+    /**
+     * Writes all roads to the disk.
+     */
+    void flush() {
+        da.flush();
+    }
+
+    @Override
+    public void close() {
+        da.close();
+        if (temporary)
+            Helper.removeDir(folder);
+    }
+
+    private void putValue(long osmId, Object value) {
+        if (value == null) {
+            ensureRemaining(1);
+            buffer.put(TYPE_NULL);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            ensureRemaining(5 + bytes.length);
+            buffer.put(TYPE_STRING).putInt(bytes.length).put(bytes);
+        } else if (value instanceof Long) {
+            ensureRemaining(9);
+            buffer.put(TYPE_LONG).putLong((Long) value);
+        } else if (value instanceof Integer) {
+            ensureRemaining(5);
+            buffer.put(TYPE_INT).putInt((Integer) value);
+        } else if (value instanceof Short) {
+            ensureRemaining(3);
+            buffer.put(TYPE_SHORT).putShort((Short) value);
+        } else if (value instanceof Double) {
+            ensureRemaining(9);
+            buffer.put(TYPE_DOUBLE).putDouble((Double) value);
+        } else if (value instanceof Float) {
+            ensureRemaining(5);
+            buffer.put(TYPE_FLOAT).putFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            ensureRemaining(2);
+            buffer.put(TYPE_BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            byte[] bytes = decimal.unscaledValue().toByteArray();
+            ensureRemaining(9 + bytes.length);
+            buffer.put(TYPE_BIG_DECIMAL).putInt(decimal.scale()).putInt(bytes.length).put(bytes);
+        } else if (value instanceof Timestamp) {
+            // the nanos are not part of getTime
+            Timestamp timestamp = (Timestamp) value;
+            ensureRemaining(13);
+            buffer.put(TYPE_TIMESTAMP).putLong(timestamp.getTime()).putInt(timestamp.getNanos());
+        } else if (value instanceof Date) {
+            ensureRemaining(9);
+            buffer.put(TYPE_DATE).putLong(((Date) value).getTime());
+        } else if (value instanceof Time) {
+            ensureRemaining(9);
+            buffer.put(TYPE_TIME).putLong(((Time) value).getTime());
+        } else {
+            throw new IllegalArgumentException("Road with OSM id " + osmId + " has a value of the type "
+                    + value.getClass().getName() + ", which cannot be written to the spill file: " + value);
+        }
+    }
+
+    private static Object getValue(ByteBuffer in) {
+        byte type = in.get();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_LONG:
+                return in.getLong();
+            case TYPE_INT:
+                return in.getInt();
+            case TYPE_SHORT:
+                return in.getShort();
+            case TYPE_DOUBLE:
+                return in.getDouble();
+            case TYPE_FLOAT:
+                return in.getFloat();
+            case TYPE_BOOLEAN:
+                return in.get() != 0;
+            case TYPE_STRING:
+                int length = in.getInt();
+                String str = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+                in.position(in.position() + length);
+                return str;
+            case TYPE_BIG_DECIMAL:
+                int scale = in.getInt();
+                byte[] unscaled = new byte[in.getInt()];
+                in.get(unscaled);
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            case TYPE_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.getLong());
+                timestamp.setNanos(in.getInt());
+                return timestamp;
+            case TYPE_DATE:
+                return new Date(in.getLong());
+            case TYPE_TIME:
+                return new Time(in.getLong());
+            default:
+                throw new IllegalStateException("Unknown value type " + type + " in spill file");
+        }
+    }
+
+    private void ensureRemaining(int bytes) {
+        // reserve 3 additional bytes for the alignment padding
+        if (buffer.remaining() >= bytes + 3)
+            return;
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < bytes + 3) {
+            capacity *= 2;
+        }
+        ByteBuffer tmp = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        tmp.put(buffer);
+        buffer = tmp;
+    }
+}
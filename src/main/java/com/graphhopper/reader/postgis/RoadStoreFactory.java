@@ -0,0 +1,41 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.geotools.data.DataStore;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Opens the DataStore that contains the roads table. The reader only uses the GeoTools API of the store, so every
+ * store with the columns of the roads table can be imported. The built-in factories are selected via db.store, see
+ * {@link RoadStores}.
+ *
+ * @author Robin Boldt
+ */
+public interface RoadStoreFactory {
+
+    /**
+     * @param params      the db.* config keys without the prefix
+     * @param tableName   the name of the roads table
+     * @param connections the number of partitions that are read concurrently
+     * @return the store or null if it cannot be opened with these parameters
+     */
+    DataStore open(Map<String, String> params, String tableName, int connections) throws IOException;
+}
@@ -0,0 +1,150 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.postgis.PostGISDialect;
+import org.geotools.data.postgis.PostGISPSDialect;
+import org.geotools.jdbc.ConnectionLifecycleListener;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.SQLDialect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The built-in {@link RoadStoreFactory}s: PostGIS and local GeoPackage and Shapefile snapshots of the roads table.
+ * The file stores are read with the same junction and road logic, so they give the same graph as the table they
+ * were exported from.
+ *
+ * @author Robin Boldt
+ */
+final class RoadStores {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoadStores.class);
+
+    /**
+     * Connects to the database of the db.host, db.port, db.database and db.schema config keys.
+     */
+    static final RoadStoreFactory POSTGIS = (params, tableName, connections) -> {
+        LOGGER.info("Opening DB connection to " + params.get("dbtype") + " " + params.get("host") + ":" + params.get("port") + " to database " + params.get("database") + " schema " + params.get("schema"));
+        Map<String, String> tmpParams = new HashMap<>(params);
+        tmpParams.putIfAbsent("dbtype", "postgis");
+        // every partition keeps its own connection open for the whole pass, one more is needed for the snapshot
+        int poolSize = Integer.parseInt(params.getOrDefault("pool_size", "10"));
+        tmpParams.put("max connections", String.valueOf(Math.max(poolSize, connections + 2)));
+        String fetchSize = params.get("fetch_size");
+        if (fetchSize != null && !fetchSize.isEmpty())
+            tmpParams.put("fetch size", fetchSize);
+        String statementTimeout = params.get("statement_timeout");
+        if (statementTimeout != null && !statementTimeout.isEmpty())
+            tmpParams.put("Session startup SQL", "SET statement_timeout = " + Integer.parseInt(statementTimeout));
+        return DataStoreFinder.getDataStore(tmpParams);
+    };
+
+    /**
+     * Opens the GeoPackage db.file, the roads are read from the table with the name of the roads table.
+     */
+    static final RoadStoreFactory GEOPACKAGE = (params, tableName, connections) -> {
+        File file = getFile(params);
+        LOGGER.info("Opening GeoPackage " + file + " with table " + tableName);
+        Map<String, Object> tmpParams = new HashMap<>();
+        tmpParams.put("dbtype", "geopkg");
+        tmpParams.put("database", file);
+        tmpParams.put("max connections", String.valueOf(connections + 1));
+        return DataStoreFinder.getDataStore(tmpParams);
+    };
+
+    /**
+     * Opens the Shapefile db.file or, if db.file is a folder, the Shapefile with the name of the roads table in it.
+     * The Shapefile is read via memory mapped buffers.
+     */
+    static final RoadStoreFactory SHAPEFILE = (params, tableName, connections) -> {
+        File file = getFile(params);
+        if (file.isDirectory())
+            file = new File(file, tableName + ".shp");
+        LOGGER.info("Opening Shapefile " + file);
+        Map<String, Object> tmpParams = new HashMap<>();
+        tmpParams.put("url", file.toURI().toURL());
+        tmpParams.put("memory mapped buffer", Boolean.TRUE);
+        tmpParams.put("cache and reuse memory maps", Boolean.TRUE);
+        return DataStoreFinder.getDataStore(tmpParams);
+    };
+
+    private RoadStores() {
+    }
+
+    /**
+     * @param name the value of db.store
+     */
+    static RoadStoreFactory get(String name) {
+        switch (name) {
+            case "":
+            case "postgis":
+                return POSTGIS;
+            case "geopackage":
+                return GEOPACKAGE;
+            case "shapefile":
+                return SHAPEFILE;
+            default:
+                throw new IllegalArgumentException("Unknown db.store " + name + ", use postgis, geopackage or shapefile");
+        }
+    }
+
+    /**
+     * @return true if the store reads from PostGIS, i.e. supports snapshots and the PostGIS specific SQL of the
+     * jdbc backend
+     */
+    static boolean isPostgis(DataStore dataStore) {
+        if (!(dataStore instanceof JDBCDataStore))
+            return false;
+        SQLDialect dialect = ((JDBCDataStore) dataStore).getSQLDialect();
+        return dialect instanceof PostGISDialect || dialect instanceof PostGISPSDialect;
+    }
+
+    /**
+     * Opens a connection of the pool of the store outside of a GeoTools transaction. The data source does not run
+     * the "Session startup SQL" of the store, e.g. the statement_timeout of db.statement_timeout, so the session
+     * listeners of the store are called like GeoTools does for its own connections.
+     */
+    static Connection getConnection(JDBCDataStore dataStore) throws SQLException {
+        Connection connection = dataStore.getDataSource().getConnection();
+        try {
+            for (ConnectionLifecycleListener listener : dataStore.getConnectionLifecycleListeners()) {
+                listener.onBorrow(dataStore, connection);
+            }
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private static File getFile(Map<String, String> params) {
+        String file = params.getOrDefault("file", "");
+        if (file.isEmpty())
+            throw new IllegalArgumentException("The db.store " + params.get("store") + " needs the path of the file in db.file");
+        return new File(file);
+    }
+}
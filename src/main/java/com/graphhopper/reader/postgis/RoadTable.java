@@ -0,0 +1,117 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.text.ecql.ECQL;
+import org.opengis.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One of the tables of db.tables. Every table can have its own where clause, which is added to the filter of the
+ * import, and its own names for the columns the reader uses, e.g. fclass=route for a ferries table whose class is in
+ * the route column. The osm_id column cannot be renamed, the partitions and the road ids rely on it.
+ *
+ * @author Robin Boldt
+ */
+final class RoadTable {
+
+    private final String name;
+    private final String where;
+    private final Map<String, String> columns;
+
+    RoadTable(String name, String where, Map<String, String> columns) {
+        this.name = name;
+        this.where = where == null || where.trim().isEmpty() ? null : where.trim();
+        this.columns = columns;
+    }
+
+    /**
+     * @return a table without own where clause that uses the default column names
+     */
+    static RoadTable of(String name) {
+        return new RoadTable(name, null, Collections.emptyMap());
+    }
+
+    /**
+     * Reads the tables of the params tables, table.&lt;name&gt;.where and table.&lt;name&gt;.columns.
+     *
+     * @return an empty list if the params do not list tables
+     */
+    static List<RoadTable> parse(Map<String, String> params) {
+        String names = params.getOrDefault("tables", "");
+        List<RoadTable> tables = new ArrayList<>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.isEmpty())
+                continue;
+            tables.add(new RoadTable(name, params.get("table." + name + ".where"),
+                    parseColumns(name, params.getOrDefault("table." + name + ".columns", ""))));
+        }
+        return tables;
+    }
+
+    private static Map<String, String> parseColumns(String tableName, String str) {
+        Map<String, String> columns = new HashMap<>();
+        for (String mapping : str.split(",")) {
+            if (mapping.trim().isEmpty())
+                continue;
+            String[] pair = mapping.split("=");
+            if (pair.length != 2 || pair[0].trim().isEmpty() || pair[1].trim().isEmpty())
+                throw new IllegalArgumentException("The columns of table " + tableName + " have to be column=table_column pairs but was " + str);
+            if (pair[0].trim().equals(PostgisReader.OSM_ID))
+                throw new IllegalArgumentException("The " + PostgisReader.OSM_ID + " column of table " + tableName + " cannot be renamed");
+            columns.put(pair[0].trim(), pair[1].trim());
+        }
+        return columns;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the name of the column in this table, e.g. route for fclass
+     */
+    String getColumn(String column) {
+        return columns.getOrDefault(column, column);
+    }
+
+    /**
+     * @return the where clause of this table or Filter.INCLUDE
+     */
+    Filter getFilter() {
+        if (where == null)
+            return Filter.INCLUDE;
+        try {
+            return ECQL.toFilter(where);
+        } catch (CQLException e) {
+            throw new IllegalArgumentException("Cannot parse the where clause of table " + name + ": " + where, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + (where == null ? "" : " where " + where) + (columns.isEmpty() ? "" : " columns " + columns);
+    }
+}
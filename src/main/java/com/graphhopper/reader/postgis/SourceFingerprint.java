@@ -0,0 +1,222 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.storage.DAType;
+import com.graphhopper.storage.GHDirectory;
+import com.graphhopper.storage.StorableProperties;
+import org.geotools.data.DataStore;
+import org.geotools.data.Query;
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.filter.Filter;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A cheap description of the roads table and of the config that was used to import it, which is stored in the
+ * graph properties. If the fingerprint of an existing graph equals the one of the table the graph can be loaded
+ * instead of being imported again.
+ * <p>
+ * For a PostGIS table the fingerprint contains the cumulative numbers of inserted, updated and deleted rows of
+ * pg_stat_user_tables, so it is read without touching the table. The estimated number of live rows is left out,
+ * as ANALYZE changes it without changing the content. The counters have limits: they are sent to the statistics
+ * collector asynchronously, so a change is only visible some hundred milliseconds after its commit, and
+ * pg_stat_reset or a crash of the server resets them, which only causes one unnecessary import. They are read
+ * before the snapshot of the import, so a change in between makes the graph look outdated instead of hiding the
+ * change. A hot standby does not count the changes it replays, so it is treated like the other relations.
+ * <p>
+ * Other relations have no such counters. With db.update_column the fingerprint contains the number of rows and
+ * the largest value of the column, otherwise the number of rows and the largest xmin, which scans the relation
+ * once. Views and foreign tables have no xmin, they need db.update_column. For the file stores the fingerprint
+ * contains the size and the modification time of db.file. The config part is a checksum of the table name and
+ * all config keys that change the graph.
+ *
+ * @author Robin Boldt
+ */
+final class SourceFingerprint {
+
+    static final String PROPERTY = "postgis.fingerprint";
+    // the config keys that change the graph, tuning keys like db.pool_size are left out on purpose
+    private static final List<String> CONFIG_KEYS = Arrays.asList("store", "file", "host", "port", "database",
+            "schema", "tags_to_copy", "bbox", "fclass_include", "fclass_exclude", "where", "node_order",
+            "junction_pass", "tags_to_store", "traffic_table", "update_column");
+
+    // the kind of the relation and the counters of pg_stat_user_tables, which only exist for tables and are not
+    // updated on a hot standby
+    static final String STATS_SQL = "SELECT c.relkind, s.n_tup_ins, s.n_tup_upd, s.n_tup_del, pg_is_in_recovery()"
+            + " FROM pg_class c LEFT JOIN pg_stat_user_tables s ON s.relid = c.oid WHERE c.oid = to_regclass(?)";
+
+    private SourceFingerprint() {
+    }
+
+    /**
+     * Reads the fingerprint of the roads tables. Only relations that are no plain tables are scanned.
+     *
+     * @param snapshot the snapshot the queries have to use or null
+     */
+    static String create(DataStore dataStore, PostgisSnapshot snapshot, List<RoadTable> tables, Map<String, String> params) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (RoadTable table : tables) {
+            if (fingerprint.length() > 0)
+                fingerprint.append('|');
+            fingerprint.append(create(dataStore, snapshot, table.getName(), params));
+        }
+        return fingerprint.toString();
+    }
+
+    private static String create(DataStore dataStore, PostgisSnapshot snapshot, String tableName, Map<String, String> params) {
+        StringBuilder fingerprint = new StringBuilder("config=").append(getConfigChecksum(tableName, params));
+        try {
+            if (RoadStores.isPostgis(dataStore)) {
+                JDBCDataStore jdbcStore = (JDBCDataStore) dataStore;
+                String[] relation = new String[4];
+                boolean[] inRecovery = new boolean[1];
+                query(jdbcStore, snapshot, STATS_SQL, resultSet -> {
+                    for (int i = 0; i < relation.length; i++) {
+                        relation[i] = resultSet.getString(i + 1);
+                    }
+                    inRecovery[0] = resultSet.getBoolean(5);
+                }, JdbcRoadIterator.qualify(jdbcStore, tableName));
+                if (relation[0] == null)
+                    throw new IllegalArgumentException("The relation " + tableName + " does not exist");
+                if ("r".equals(relation[0]) && relation[1] != null && !inRecovery[0]) {
+                    fingerprint.append(";ins=").append(relation[1]).append(";upd=").append(relation[2])
+                            .append(";del=").append(relation[3]);
+                    return fingerprint.toString();
+                }
+
+                String updateColumn = params.getOrDefault("update_column", "").trim();
+                String maxColumn;
+                if (!updateColumn.isEmpty())
+                    maxColumn = "max(" + JdbcRoadIterator.quote(updateColumn) + ")::text";
+                else if ("v".equals(relation[0]) || "f".equals(relation[0]))
+                    throw new IllegalArgumentException("db.fingerprint needs db.update_column for the view or foreign table " + tableName);
+                else
+                    maxColumn = "max(xmin::text::bigint)::text";
+                String sql = "SELECT count(*), " + maxColumn
+                        + JdbcRoadIterator.createFrom(jdbcStore, jdbcStore.getSchema(tableName), tableName, Filter.INCLUDE);
+                query(jdbcStore, snapshot, sql, resultSet -> fingerprint.append(";rows=").append(resultSet.getLong(1))
+                        .append(";max=").append(resultSet.getString(2)));
+                return fingerprint.toString();
+            }
+
+            fingerprint.append(";rows=").append(dataStore.getFeatureSource(tableName).getCount(new Query(tableName)));
+            File file = getFile(params);
+            if (file != null)
+                fingerprint.append(";size=").append(file.length()).append(";modified=").append(file.lastModified());
+            return fingerprint.toString();
+        } catch (Exception e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * @return the time of the snapshot or, without a snapshot, the current time of the database for PostGIS, the
+     * modification time of db.file for the file stores or null
+     */
+    static Date readDataDate(DataStore dataStore, PostgisSnapshot snapshot, Map<String, String> params) {
+        try {
+            if (RoadStores.isPostgis(dataStore)) {
+                // now() in a transaction that joined the snapshot would be the start of that later transaction
+                if (snapshot != null)
+                    return snapshot.getExportTime();
+                Date[] date = new Date[1];
+                query((JDBCDataStore) dataStore, null, "SELECT now()", resultSet -> date[0] = resultSet.getTimestamp(1));
+                return date[0];
+            }
+            File file = getFile(params);
+            return file == null ? null : new Date(file.lastModified());
+        } catch (SQLException e) {
+            throw Utils.asUnchecked(e);
+        }
+    }
+
+    /**
+     * @return the fingerprint that is stored in the properties of the graph in the specified folder, an empty
+     * string if the graph has no fingerprint or null if there is no graph
+     */
+    static String readStored(File graphFolder) {
+        StorableProperties properties = new StorableProperties(new GHDirectory(graphFolder.getAbsolutePath(), DAType.RAM_STORE));
+        try {
+            if (!properties.loadExisting())
+                return null;
+            return properties.get(PROPERTY);
+        } finally {
+            properties.close();
+        }
+    }
+
+    static String getConfigChecksum(String tableName, Map<String, String> params) {
+        StringBuilder config = new StringBuilder(tableName);
+        for (String key : CONFIG_KEYS) {
+            config.append('\n').append(key).append('=').append(params.getOrDefault(key, ""));
+        }
+        for (String key : Arrays.asList("where", "columns")) {
+            config.append("\ntable.").append(key).append('=').append(params.getOrDefault("table." + tableName + "." + key, ""));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(config.toString().getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static File getFile(Map<String, String> params) {
+        String file = params.getOrDefault("file", "");
+        return file.isEmpty() ? null : new File(file);
+    }
+
+    /**
+     * Runs the query and passes its first row to the consumer, a query without rows is ignored.
+     */
+    private static void query(JDBCDataStore dataStore, PostgisSnapshot snapshot, String sql, RowConsumer consumer,
+                              String... parameters) throws SQLException {
+        try (Connection connection = RoadStores.getConnection(dataStore)) {
+            connection.setAutoCommit(false);
+            try {
+                if (snapshot != null)
+                    snapshot.join(connection);
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    for (int i = 0; i < parameters.length; i++) {
+                        statement.setString(i + 1, parameters[i]);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        if (resultSet.next())
+                            consumer.accept(resultSet);
+                    }
+                }
+            } finally {
+                // we only read, so there is nothing to commit
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private interface RowConsumer {
+        void accept(ResultSet resultSet) throws SQLException;
+    }
+}
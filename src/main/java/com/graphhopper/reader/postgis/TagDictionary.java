@@ -0,0 +1,252 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.util.BitUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores the values of the tags of db.tags_to_store for every edge. Every distinct value is stored only once as
+ * UTF-8 in the values file and the edges refer to it by its position, so street names that repeat on thousands of
+ * edges cost 4 bytes per edge. Both files are stored next to the graph with the DAType of the graph, i.e. they are
+ * memory mapped if the graph is, and a value is only decoded when it is requested.
+ * <p>
+ * The ids of the values are only kept on the heap while values are added, a loaded dictionary builds them again
+ * when the first value is added by an update.
+ * <p>
+ * The values are not aligned, so like GraphHopper's StringIndex the length in front of every value is written
+ * and read as bytes, which may span two segments of the DataAccess, while an int may not.
+ *
+ * @author Robin Boldt
+ */
+public final class TagDictionary {
+
+    static final String EDGES_NAME = "postgis_tag_edges";
+    static final String VALUES_NAME = "postgis_tag_values";
+    // the id of an edge without value, the values start behind it
+    private static final int NO_VALUE = 0;
+    private static final int FIRST_VALUE = 4;
+
+    private final String[] tags;
+    private final DataAccess edges;
+    private final DataAccess values;
+    private long valuesSize;
+    private int edgeCount;
+    private Map<String, Integer> ids;
+    private byte[] buffer = new byte[64];
+
+    private TagDictionary(String[] tags, DataAccess edges, DataAccess values, long valuesSize, int edgeCount) {
+        this.tags = tags;
+        this.edges = edges;
+        this.values = values;
+        this.valuesSize = valuesSize;
+        this.edgeCount = edgeCount;
+    }
+
+    static TagDictionary create(Directory dir, String[] tags) {
+        return create(dir, tags, -1);
+    }
+
+    /**
+     * @param segmentSize the segment size of the values or -1 for the default of the DataAccess
+     */
+    static TagDictionary create(Directory dir, String[] tags, int segmentSize) {
+        DataAccess values = dir.find(VALUES_NAME);
+        if (segmentSize > 0)
+            values.setSegmentSize(segmentSize);
+        TagDictionary dictionary = new TagDictionary(tags, dir.find(EDGES_NAME).create(1 << 16),
+                values.create(1 << 16), FIRST_VALUE, 0);
+        dictionary.ids = new HashMap<>();
+        return dictionary;
+    }
+
+    /**
+     * @return the dictionary that was stored with the graph or null if the graph was imported without it or with
+     * other tags
+     */
+    static TagDictionary load(Directory dir, String[] tags) {
+        DataAccess edges = dir.find(EDGES_NAME);
+        DataAccess values = dir.find(VALUES_NAME);
+        // the DataAccess is still open if the graph was imported by this process
+        if (edges.getCapacity() == 0 && (!edges.loadExisting() || !values.loadExisting()))
+            return null;
+        if (edges.getHeader(0) != tags.length || edges.getHeader(8) != Arrays.hashCode(tags))
+            return null;
+        long valuesSize = ((long) values.getHeader(0) << 32) | (values.getHeader(4) & 0xFFFFFFFFL);
+        return new TagDictionary(tags, edges, values, valuesSize, edges.getHeader(4));
+    }
+
+    /**
+     * Reads the tags of the stored dictionary from the graph directory.
+     *
+     * @return null if there is no dictionary
+     */
+    static TagDictionary load(Directory dir, String tags) {
+        String[] tagArray = tags.trim().isEmpty() ? new String[0] : tags.split(",");
+        for (int i = 0; i < tagArray.length; i++) {
+            tagArray[i] = tagArray[i].trim();
+        }
+        return tagArray.length == 0 ? null : load(dir, tagArray);
+    }
+
+    String[] getTags() {
+        return tags;
+    }
+
+    /**
+     * Stores the ids of the values of the tags of an edge, see {@link #getId(Object)}. The ids have the order of
+     * {@link #getTags()}, null removes all values of the edge.
+     */
+    void setIds(int edge, int[] valueIds) {
+        long pos = (long) edge * tags.length * 4;
+        edges.ensureCapacity(pos + tags.length * 4);
+        for (int i = 0; i < tags.length; i++) {
+            edges.setInt(pos + i * 4, valueIds == null ? NO_VALUE : valueIds[i]);
+        }
+        edgeCount = Math.max(edgeCount, edge + 1);
+    }
+
+    /**
+     * @return the id of the value, which is added to the dictionary if it is new, or 0 for null
+     */
+    int getId(Object value) {
+        if (value == null)
+            return NO_VALUE;
+        String str = value.toString();
+        if (ids == null)
+            ids = readIds();
+        Integer id = ids.get(str);
+        if (id != null)
+            return id;
+
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        if (valuesSize + 4 + bytes.length > Integer.MAX_VALUE)
+            throw new IllegalStateException("The values of the tags " + Arrays.toString(tags) + " exceed 2GB");
+        // setBytes can span two segments, but not more
+        if (bytes.length > values.getSegmentSize())
+            throw new IllegalArgumentException("The value " + str.substring(0, Math.min(str.length(), 50)) + "... of the tags "
+                    + Arrays.toString(tags) + " is longer than " + values.getSegmentSize() + " bytes");
+        int newId = (int) valuesSize;
+        values.ensureCapacity(valuesSize + 4 + bytes.length);
+        values.setBytes(valuesSize, BitUtil.LITTLE.fromInt(bytes.length), 4);
+        values.setBytes(valuesSize + 4, bytes, bytes.length);
+        valuesSize += 4 + bytes.length;
+        ids.put(str, newId);
+        return newId;
+    }
+
+    /**
+     * @return the value of the tag for the edge or null if the edge has no value for it. Use
+     * {@link #getValue(int, int)} to read the values of many edges.
+     */
+    public String getValue(int edge, String tag) {
+        return getValue(edge, getTagIndex(tag));
+    }
+
+    /**
+     * @return the position of the tag in the stored tags, which {@link #getValue(int, int)} expects
+     */
+    public int getTagIndex(String tag) {
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i].equals(tag))
+                return i;
+        }
+        throw new IllegalArgumentException("The tag " + tag + " is not stored, the stored tags are " + Arrays.toString(tags));
+    }
+
+    /**
+     * @param tagIndex the position of the tag, see {@link #getTagIndex(String)}
+     * @return the value of the tag for the edge or null if the edge has no value for it
+     */
+    public String getValue(int edge, int tagIndex) {
+        if (edge < 0 || edge >= edgeCount)
+            return null;
+        return getString(edges.getInt(((long) edge * tags.length + tagIndex) * 4));
+    }
+
+    /**
+     * @return true if the tag is one of the stored tags
+     */
+    public boolean hasTag(String tag) {
+        return Arrays.asList(tags).contains(tag);
+    }
+
+    private String getString(int id) {
+        if (id == NO_VALUE)
+            return null;
+        int length = readLength(id);
+        byte[] bytes = new byte[length];
+        values.getBytes(id + 4, bytes, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the length of the value at the position, which is read as bytes as it is not aligned
+     */
+    private int readLength(long pos) {
+        // not shared, as the values are read concurrently
+        byte[] length = new byte[4];
+        values.getBytes(pos, length, 4);
+        return BitUtil.LITTLE.toInt(length);
+    }
+
+    private Map<String, Integer> readIds() {
+        Map<String, Integer> result = new HashMap<>();
+        long pos = FIRST_VALUE;
+        while (pos < valuesSize) {
+            int length = readLength(pos);
+            if (buffer.length < length)
+                buffer = new byte[Math.max(length, 2 * buffer.length)];
+            values.getBytes(pos + 4, buffer, length);
+            result.put(new String(buffer, 0, length, StandardCharsets.UTF_8), (int) pos);
+            pos += 4 + length;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    int getValueCount() {
+        if (ids == null)
+            ids = readIds();
+        return ids.size();
+    }
+
+    long getValuesBytes() {
+        return valuesSize;
+    }
+
+    void flush() {
+        edges.setHeader(0, tags.length);
+        edges.setHeader(4, edgeCount);
+        edges.setHeader(8, Arrays.hashCode(tags));
+        edges.flush();
+        values.setHeader(0, (int) (valuesSize >>> 32));
+        values.setHeader(4, (int) valuesSize);
+        values.flush();
+        // the ids are not needed for reading
+        ids = null;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.ev.EncodedValueLookup;
+import com.graphhopper.routing.querygraph.VirtualEdgeIteratorState;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.GHUtility;
+import com.graphhopper.util.details.AbstractPathDetailsBuilder;
+import com.graphhopper.util.details.PathDetailsBuilder;
+import com.graphhopper.util.details.PathDetailsBuilderFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Adds a path detail for every tag of db.tags_to_store, named like the tag, e.g. name or ref. The values are read
+ * from the {@link TagDictionary} of the graph, all other path details are created by GraphHopper.
+ *
+ * @author Robin Boldt
+ */
+public class TagPathDetailsBuilderFactory extends PathDetailsBuilderFactory {
+
+    private final Supplier<TagDictionary> dictionary;
+
+    /**
+     * @param dictionary supplies the dictionary of the loaded graph or null if it has no stored tags
+     */
+    public TagPathDetailsBuilderFactory(Supplier<TagDictionary> dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public List<PathDetailsBuilder> createPathDetailsBuilders(List<String> requestedPathDetails, EncodedValueLookup evl,
+                                                              Weighting weighting) {
+        TagDictionary tagDictionary = dictionary.get();
+        List<PathDetailsBuilder> builders = new ArrayList<>();
+        List<String> otherDetails = new ArrayList<>();
+        for (String detail : requestedPathDetails) {
+            if (tagDictionary != null && tagDictionary.hasTag(detail))
+                builders.add(new TagDetailsBuilder(tagDictionary, detail));
+            else
+                otherDetails.add(detail);
+        }
+        builders.addAll(super.createPathDetailsBuilders(otherDetails, evl, weighting));
+        return builders;
+    }
+
+    /**
+     * Starts a new interval whenever the value of the tag changes along the path.
+     */
+    static final class TagDetailsBuilder extends AbstractPathDetailsBuilder {
+
+        private final TagDictionary dictionary;
+        // resolved once, the builder is called for every edge of the path
+        private final int tagIndex;
+        private boolean started;
+        private String currentValue;
+
+        TagDetailsBuilder(TagDictionary dictionary, String tag) {
+            super(tag);
+            this.dictionary = dictionary;
+            this.tagIndex = dictionary.getTagIndex(tag);
+        }
+
+        @Override
+        public boolean isEdgeDifferentToLastEdge(EdgeIteratorState edge) {
+            String value = dictionary.getValue(getOriginalEdge(edge), tagIndex);
+            if (started && Objects.equals(value, currentValue))
+                return false;
+            started = true;
+            currentValue = value;
+            return true;
+        }
+
+        @Override
+        public Object getCurrentValue() {
+            return currentValue;
+        }
+
+        /**
+         * @return the edge of the graph, also for the virtual edges that the query graph creates at the snapped
+         * start and end points
+         */
+        private static int getOriginalEdge(EdgeIteratorState edge) {
+            if (edge instanceof VirtualEdgeIteratorState)
+                return GHUtility.getEdgeFromEdgeKey(((VirtualEdgeIteratorState) edge).getOriginalEdgeKey());
+            return edge.getEdge();
+        }
+    }
+}
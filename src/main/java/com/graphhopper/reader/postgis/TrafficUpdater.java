@@ -0,0 +1,221 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntObjectHashMap;
+import com.carrotsearch.hppc.LongDoubleHashMap;
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import com.carrotsearch.hppc.cursors.IntObjectCursor;
+import com.carrotsearch.hppc.cursors.LongDoubleCursor;
+import com.graphhopper.routing.ev.BooleanEncodedValue;
+import com.graphhopper.routing.ev.DecimalEncodedValue;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.storage.IntsRef;
+import com.graphhopper.util.EdgeIteratorState;
+import org.geotools.data.DataStore;
+import org.geotools.data.Query;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import static com.graphhopper.reader.postgis.PostgisReader.OSM_ID;
+import static com.graphhopper.util.Helper.nf;
+
+/**
+ * Applies the speeds and closures of a traffic table, configured via db.traffic_table, to the loaded graph without
+ * importing it again. Every row of the table has the columns osm_id, speed in km/h and closed. A closed road or a
+ * speed of 0 blocks all edges of the road for the configured vehicles, a speed replaces their average speed. Every
+ * update reads the whole table and only touches the edges of the roads whose row was added, changed or removed. The
+ * edges of a road are found via the {@link RoadEdgeIndex} that is stored with the graph.
+ * <p>
+ * The original flags of every changed edge are kept in memory, so that the edge is restored when its row is
+ * removed. The edges are written in batches while holding the write lock, so that routing, which holds the read
+ * lock, only waits for a batch and not for the whole update.
+ *
+ * @author Robin Boldt
+ */
+final class TrafficUpdater {
+
+    static final String SPEED = "speed";
+    static final String CLOSED = "closed";
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficUpdater.class);
+    private static final int BATCH_EDGES = 10_000;
+
+    private final GraphHopperStorage graph;
+    private final RoadEdgeIndex index;
+    private final List<FlagEncoder> encoders;
+    private final String tableName;
+    private final Lock writeLock;
+    // the speed that is applied to every road, 0 for a closed road
+    private LongDoubleHashMap applied = new LongDoubleHashMap();
+    private final IntObjectHashMap<IntsRef> originalFlags = new IntObjectHashMap<>();
+
+    TrafficUpdater(GraphHopperStorage graph, RoadEdgeIndex index, List<FlagEncoder> encoders, String tableName,
+                   Lock writeLock) {
+        this.graph = graph;
+        this.index = index;
+        this.encoders = encoders;
+        this.tableName = tableName;
+        this.writeLock = writeLock;
+        if (!index.isSorted())
+            LOGGER.warn("The " + RoadEdgeIndex.NAME + " index of the graph is not sorted, every update scans all of "
+                    + nf(index.size()) + " entries. Import the graph again to sort it");
+    }
+
+    /**
+     * Reads the traffic table and applies the rows that changed since the last update.
+     *
+     * @return the number of changed edges
+     */
+    int update(DataStore dataStore) {
+        long start = System.nanoTime();
+        LongDoubleHashMap speeds = readSpeeds(dataStore);
+        LongHashSet changed = new LongHashSet();
+        for (LongDoubleCursor cursor : speeds) {
+            if (!applied.containsKey(cursor.key) || Double.compare(applied.get(cursor.key), cursor.value) != 0)
+                changed.add(cursor.key);
+        }
+        for (LongDoubleCursor cursor : applied) {
+            if (!speeds.containsKey(cursor.key))
+                changed.add(cursor.key);
+        }
+        if (changed.isEmpty()) {
+            applied = speeds;
+            return 0;
+        }
+
+        LongObjectHashMap<IntArrayList> edgesByRoad = index.getEdges(changed);
+        long[] ids = changed.toArray();
+        // sorted ids touch the edges of neighbouring roads together, as they were often created together
+        Arrays.sort(ids);
+        int changedEdges = 0;
+        int i = 0;
+        while (i < ids.length) {
+            writeLock.lock();
+            try {
+                int batchEdges = 0;
+                for (; i < ids.length && batchEdges < BATCH_EDGES; i++) {
+                    IntArrayList edges = edgesByRoad.get(ids[i]);
+                    // roads that were not imported, e.g. because of db.where
+                    if (edges == null)
+                        continue;
+                    double speed = speeds.getOrDefault(ids[i], Double.NaN);
+                    for (int e = 0; e < edges.size(); e++) {
+                        applySpeed(edges.get(e), speed);
+                    }
+                    batchEdges += edges.size();
+                }
+                changedEdges += batchEdges;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        applied = speeds;
+        LOGGER.info("Applied the traffic of " + nf(changed.size()) + " roads to " + nf(changedEdges) + " edges in "
+                + (System.nanoTime() - start) / 1_000_000 + "ms, " + nf(originalFlags.size()) + " edges differ from the import");
+        return changedEdges;
+    }
+
+    /**
+     * Restores the flags of the import for all changed edges. The next update applies the whole table again.
+     */
+    void restore() {
+        writeLock.lock();
+        try {
+            for (IntObjectCursor<IntsRef> cursor : originalFlags) {
+                graph.getEdgeIteratorState(cursor.key, Integer.MIN_VALUE).setFlags(cursor.value);
+            }
+            if (!originalFlags.isEmpty())
+                LOGGER.info("Restored the imported flags of " + nf(originalFlags.size()) + " edges");
+            originalFlags.clear();
+            applied = new LongDoubleHashMap();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @param speed the new speed, 0 to block the edge or NaN to restore the imported flags
+     */
+    private void applySpeed(int edgeId, double speed) {
+        EdgeIteratorState edge = graph.getEdgeIteratorState(edgeId, Integer.MIN_VALUE);
+        IntsRef original = originalFlags.get(edgeId);
+        if (Double.isNaN(speed)) {
+            if (original != null) {
+                edge.setFlags(original);
+                originalFlags.remove(edgeId);
+            }
+            return;
+        }
+        // a new speed always starts from the imported flags, e.g. a road that is opened again gets its access back
+        if (original == null)
+            originalFlags.put(edgeId, IntsRef.deepCopyOf(edge.getFlags()));
+        else
+            edge.setFlags(original);
+
+        for (FlagEncoder encoder : encoders) {
+            if (speed <= 0) {
+                BooleanEncodedValue accessEnc = encoder.getAccessEnc();
+                edge.set(accessEnc, false).setReverse(accessEnc, false);
+                continue;
+            }
+            DecimalEncodedValue speedEnc = encoder.getAverageSpeedEnc();
+            double value = Math.min(speed, speedEnc.getMaxDecimal());
+            edge.set(speedEnc, value);
+            if (speedEnc.isStoreTwoDirections())
+                edge.setReverse(speedEnc, value);
+        }
+    }
+
+    /**
+     * @return the speed of every road of the traffic table, 0 for a closed road. Rows without speed that are not
+     * closed are skipped.
+     */
+    private LongDoubleHashMap readSpeeds(DataStore dataStore) {
+        Query query = new Query(tableName);
+        query.setPropertyNames(new String[]{OSM_ID, SPEED, CLOSED});
+        LongDoubleHashMap speeds = new LongDoubleHashMap(Math.max(16, applied.size()));
+        FeatureIterator<SimpleFeature> features = null;
+        try {
+            features = dataStore.getFeatureSource(tableName).getFeatures(query).features();
+            while (features.hasNext()) {
+                SimpleFeature feature = features.next();
+                long osmId = Long.parseLong(feature.getAttribute(OSM_ID).toString());
+                Object speed = feature.getAttribute(SPEED);
+                if (RoadChangeLog.isTrue(feature.getAttribute(CLOSED)))
+                    speeds.put(osmId, 0);
+                else if (speed != null)
+                    speeds.put(osmId, Math.max(0, Double.parseDouble(speed.toString())));
+            }
+        } catch (Exception e) {
+            throw Utils.asUnchecked(e);
+        } finally {
+            if (features != null)
+                features.close();
+        }
+        return speeds;
+    }
+}
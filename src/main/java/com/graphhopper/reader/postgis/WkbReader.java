@@ -0,0 +1,129 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.util.Helper;
+import com.graphhopper.util.PointList;
+
+/**
+ * Small streaming WKB decoder for the geometries of the roads. It reads a LineString or MultiLineString directly
+ * into the reusable parts of a {@link RoadRecord}, without creating JTS geometries or Coordinate objects. ISO WKB
+ * as returned by ST_AsBinary and EWKB with Z, M and SRID flags are supported. The Z values are decoded as the
+ * elevation of a 3D record and skipped otherwise, M values are always skipped.
+ *
+ * @author Robin Boldt
+ */
+final class WkbReader {
+
+    private static final int LINE_STRING = 2;
+    private static final int MULTI_LINE_STRING = 5;
+    private static final int EWKB_Z = 0x80000000;
+    private static final int EWKB_M = 0x40000000;
+    private static final int EWKB_SRID = 0x20000000;
+    private static final int EWKB_FLAGS = EWKB_Z | EWKB_M | EWKB_SRID;
+
+    private byte[] wkb;
+    private int pos;
+    private boolean littleEndian;
+
+    /**
+     * Decodes the geometry into the parts of the road and rounds the coordinates to 6 decimals. Like the decoder
+     * of the features all geometry types except LineString and MultiLineString are ignored. The Z values are only
+     * kept if the record is 3D, a geometry without Z gets NaN elevations then.
+     */
+    void read(byte[] wkb, RoadRecord road) {
+        if (wkb == null)
+            return;
+        this.wkb = wkb;
+        this.pos = 0;
+        road.geometryBytes += wkb.length;
+        try {
+            readGeometry(road, true);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated WKB geometry for road with OSM id " + road.osmId, e);
+        } finally {
+            this.wkb = null;
+        }
+    }
+
+    private void readGeometry(RoadRecord road, boolean allowMulti) {
+        littleEndian = wkb[pos++] == 1;
+        int typeInt = readInt();
+        boolean hasZ = (typeInt & EWKB_Z) != 0;
+        boolean hasM = (typeInt & EWKB_M) != 0;
+        if ((typeInt & EWKB_SRID) != 0)
+            pos += 4;
+
+        // ISO WKB encodes Z and M in the thousands of the type
+        int type = typeInt & ~EWKB_FLAGS;
+        int isoDimensions = type / 1000;
+        type = type % 1000;
+        hasZ |= isoDimensions == 1 || isoDimensions == 3;
+        hasM |= isoDimensions == 2 || isoDimensions == 3;
+
+        if (type == LINE_STRING) {
+            readLine(road.addPart(), hasZ, hasM);
+        } else if (type == MULTI_LINE_STRING && allowMulti) {
+            int lines = readInt();
+            for (int i = 0; i < lines; i++) {
+                readGeometry(road, false);
+            }
+        }
+    }
+
+    private void readLine(PointList part, boolean hasZ, boolean hasM) {
+        int points = readInt();
+        for (int i = 0; i < points; i++) {
+            double x = readDouble();
+            double y = readDouble();
+            double z = hasZ ? readDouble() : Double.NaN;
+            if (hasM)
+                pos += 8;
+            if (part.is3D())
+                part.add(Helper.round6(y), Helper.round6(x), z);
+            else
+                part.add(Helper.round6(y), Helper.round6(x));
+        }
+    }
+
+    private int readInt() {
+        int b0 = wkb[pos] & 0xFF;
+        int b1 = wkb[pos + 1] & 0xFF;
+        int b2 = wkb[pos + 2] & 0xFF;
+        int b3 = wkb[pos + 3] & 0xFF;
+        pos += 4;
+        if (littleEndian)
+            return b3 << 24 | b2 << 16 | b1 << 8 | b0;
+        return b0 << 24 | b1 << 16 | b2 << 8 | b3;
+    }
+
+    private double readDouble() {
+        long value = 0;
+        if (littleEndian) {
+            for (int i = 7; i >= 0; i--) {
+                value = value << 8 | (wkb[pos + i] & 0xFF);
+            }
+        } else {
+            for (int i = 0; i < 8; i++) {
+                value = value << 8 | (wkb[pos + i] & 0xFF);
+            }
+        }
+        pos += 8;
+        return Double.longBitsToDouble(value);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.util.Helper;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Robin Boldt
+ */
+public class CoordinateKeyTest {
+
+    @Test
+    public void testRoundTrip() {
+        double[][] coordinates = {{0, 0}, {90, 180}, {-90, -180}, {90, -180}, {-90, 180}, {52.5123456, 13.4123456},
+                {-33.8688197, 151.2092955}, {-0.0000005, -0.0000005}, {-0.0000015, -179.9999995},
+                {-89.9999995, 0.0000005}, {0.0000025, -0.0000025}};
+        for (double[] coordinate : coordinates) {
+            long key = CoordinateKey.toKey(coordinate[0], coordinate[1]);
+            assertTrue(key >= 0 && key < 1L << CoordinateKey.KEY_BITS);
+            assertEquals(Helper.round6(coordinate[0]), CoordinateKey.lat(key), 0);
+            assertEquals(Helper.round6(coordinate[1]), CoordinateKey.lon(key), 0);
+        }
+    }
+
+    @Test
+    public void testSameKeyForRoundedCoordinates() {
+        assertEquals(CoordinateKey.toKey(52.5, 13.4), CoordinateKey.toKey(52.5000004, 13.3999996));
+        assertNotEquals(CoordinateKey.toKey(52.5, 13.4), CoordinateKey.toKey(52.500001, 13.4));
+        // half a micro degree is rounded up, also for negative values
+        assertEquals(CoordinateKey.toKey(0, 0), CoordinateKey.toKey(-0.0000005, -0.0000005));
+        assertEquals(CoordinateKey.toKey(0.000001, 0), CoordinateKey.toKey(0.0000005, 0));
+    }
+
+    @Test
+    public void testLatitudeMajorOrder() {
+        assertTrue(CoordinateKey.toKey(-90, 180) < CoordinateKey.toKey(-89.999999, -180));
+        assertTrue(CoordinateKey.toKey(10, -180) < CoordinateKey.toKey(10, -179.999999));
+    }
+
+    @Test
+    public void testOutOfRange() {
+        double[][] coordinates = {{90.000001, 0}, {-90.000001, 0}, {0, 180.000001}, {0, -180.000001},
+                {13.4, 520000}};
+        for (double[] coordinate : coordinates) {
+            try {
+                CoordinateKey.toKey(coordinate[0], coordinate[1]);
+                fail("Coordinate " + coordinate[0] + "," + coordinate[1] + " should be rejected");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.storage.DAType;
+import com.graphhopper.storage.GHDirectory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Robin Boldt
+ */
+public class CoordinateStateMapTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndGet() {
+        testPutAndGet(false);
+        testPutAndGet(true);
+    }
+
+    private void testPutAndGet(boolean offHeap) {
+        try (CoordinateStateMap map = new CoordinateStateMap(offHeap, 10)) {
+            long key = CoordinateKey.toKey(52.5, 13.4);
+            assertEquals(0, map.get(key));
+            map.put(key, -2);
+            assertEquals(-2, map.get(key));
+            // overwriting does not occupy another slot
+            map.put(key, 7);
+            assertEquals(7, map.get(key));
+            assertEquals(1, map.size());
+
+            // the key of -90,-180 is 0, which must not be confused with an empty slot
+            long zeroKey = CoordinateKey.toKey(-90, -180);
+            assertEquals(0, zeroKey);
+            assertEquals(0, map.get(zeroKey));
+            map.put(zeroKey, 3);
+            assertEquals(3, map.get(zeroKey));
+            assertEquals(2, map.size());
+        }
+    }
+
+    @Test
+    public void testResize() {
+        try (CoordinateStateMap map = new CoordinateStateMap(false, 0)) {
+            long initialBytes = map.getCapacityInBytes();
+            int count = 20_000;
+            for (int i = 0; i < count; i++) {
+                map.put(createKey(i), i + 1);
+            }
+            // 1024 slots grow five times to 32768
+            assertEquals(32 * initialBytes, map.getCapacityInBytes());
+            assertEquals(count, map.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i + 1, map.get(createKey(i)));
+            }
+            assertEquals(0, map.get(createKey(count)));
+        }
+    }
+
+    @Test
+    public void testForEach() {
+        try (CoordinateStateMap map = new CoordinateStateMap(false, 0)) {
+            Map<Long, Integer> expected = new HashMap<>();
+            for (int i = 0; i < 3000; i++) {
+                int value = i % 3 == 0 ? -2 : i;
+                map.put(createKey(i), value);
+                expected.put(createKey(i), value);
+            }
+            Map<Long, Integer> visited = new HashMap<>();
+            map.forEach((key, value) -> assertNull("key " + key + " is visited twice", visited.put(key, value)));
+            assertEquals(expected, visited);
+        }
+    }
+
+    @Test
+    public void testStoreAndLoad() {
+        GHDirectory dir = new GHDirectory(folder.getRoot().getAbsolutePath(), DAType.RAM_STORE);
+        assertNull(CoordinateStateMap.load(false, dir, "coords"));
+
+        int count = 5000;
+        try (CoordinateStateMap map = new CoordinateStateMap(false, 0)) {
+            for (int i = 0; i < count; i++) {
+                map.put(createKey(i), i % 2 == 0 ? -2 : i);
+            }
+            map.store(dir, "coords");
+        }
+
+        try (CoordinateStateMap map = CoordinateStateMap.load(true, dir, "coords")) {
+            assertNotNull(map);
+            assertEquals(count, map.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i % 2 == 0 ? -2 : i, map.get(createKey(i)));
+            }
+            // the restored map still grows
+            for (int i = count; i < 4 * count; i++) {
+                map.put(createKey(i), i);
+            }
+            assertEquals(4 * count, map.size());
+            assertEquals(count - 1, map.get(createKey(count - 1)));
+            assertEquals(4 * count - 1, map.get(createKey(4 * count - 1)));
+        }
+    }
+
+    /**
+     * @return the key of a point on a grid with about 10m between the points
+     */
+    private static long createKey(int i) {
+        return CoordinateKey.toKey(-89.9 + (i / 100) * 0.0001, -179.9 + (i % 100) * 0.0001);
+    }
+}
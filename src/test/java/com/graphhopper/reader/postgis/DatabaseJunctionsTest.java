@@ -0,0 +1,88 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.geotools.jdbc.JDBCDataStore;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Robin Boldt
+ */
+public class DatabaseJunctionsTest {
+
+    @Test
+    public void testCreateSql() throws Exception {
+        JDBCDataStore dataStore = new JDBCDataStore();
+        dataStore.setDatabaseSchema("osm");
+        assertEquals("SELECT fixed_lat, fixed_lon FROM ("
+                        + "SELECT fixed_lat, fixed_lon, bool_or(end_point) AS end_point FROM ("
+                        + "SELECT part.row_id, part.path, "
+                        + "floor(ST_Y(point.geom) * 1e6::float8 + 0.5)::bigint AS fixed_lat, "
+                        + "floor(ST_X(point.geom) * 1e6::float8 + 0.5)::bigint AS fixed_lon, "
+                        + "point.path[1] IN (1, ST_NPoints(part.geom)) AS end_point"
+                        + " FROM (SELECT row_id, (ST_Dump(geom)).* FROM ("
+                        + "SELECT row_number() OVER () AS row_id, \"the_geom\" AS geom FROM \"osm\".\"roads\") road) part, "
+                        + "LATERAL ST_DumpPoints(part.geom) point"
+                        + ") points GROUP BY row_id, path, fixed_lat, fixed_lon"
+                        + ") part_points GROUP BY fixed_lat, fixed_lon"
+                        + " HAVING bool_or(end_point) OR count(*) > 1"
+                        + " ORDER BY fixed_lat, fixed_lon",
+                DatabaseJunctions.createSql(dataStore, new TestRoads().getType(), "roads", Filter.INCLUDE, false, false));
+
+        // a plain table tells the roads apart by their ctid, which does not prevent a parallel plan
+        String sql = DatabaseJunctions.createSql(dataStore, new TestRoads().getType(), "roads", Filter.INCLUDE, false, true);
+        assertTrue(sql.contains("(SELECT ctid AS row_id, \"the_geom\" AS geom FROM \"osm\".\"roads\") road"));
+        assertFalse(sql.contains("row_number()"));
+
+        sql = DatabaseJunctions.createSql(dataStore, new TestRoads().getType(), "roads", Filter.INCLUDE, true, false);
+        assertEquals("SELECT fixed_lat, fixed_lon, max(z) AS z FROM (", sql.substring(0, sql.indexOf('(') + 1));
+        assertTrue(sql.contains(", ST_Z(point.geom) AS z FROM "));
+    }
+
+    @Test
+    public void testSnapIsCoordinateKey() {
+        assertEquals("floor(ST_Y(point.geom) * 1e6::float8 + 0.5)::bigint", DatabaseJunctions.snap("ST_Y(point.geom)"));
+        // the values around the middle between two fixed point values, where the rounding can differ
+        for (long fixed = -180_000_000L; fixed <= 180_000_000L; fixed += 999_983L) {
+            double middle = (fixed + 0.5) / CoordinateKey.FACTOR;
+            for (double lon : new double[]{middle, Math.nextUp(middle), Math.nextDown(middle)}) {
+                if (lon < -180 || lon > 180)
+                    continue;
+                assertEquals("lon " + lon, CoordinateKey.lon(CoordinateKey.toKey(0, lon)) * CoordinateKey.FACTOR,
+                        snap(lon), 1e-6);
+            }
+        }
+        for (double lon : new double[]{0.0000005, -0.0000005, 0.0000015, -0.0000015, 13.4000005, -13.4000005,
+                179.9999995, -179.9999995}) {
+            assertEquals("lon " + lon, CoordinateKey.lon(CoordinateKey.toKey(0, lon)) * CoordinateKey.FACTOR,
+                    snap(lon), 1e-6);
+        }
+    }
+
+    /**
+     * @return the value of the SQL expression of DatabaseJunctions.snap, PostgreSQL uses the same IEEE doubles
+     */
+    private static long snap(double coordinate) {
+        return (long) Math.floor(coordinate * 1e6 + 0.5);
+    }
+}
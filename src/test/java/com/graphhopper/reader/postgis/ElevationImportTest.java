@@ -0,0 +1,185 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.reader.dem.ElevationProvider;
+import com.graphhopper.reader.dem.GraphElevationSmoothing;
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.storage.NodeAccess;
+import com.graphhopper.util.FetchMode;
+import com.graphhopper.util.PointList;
+import com.vividsolutions.jts.geom.Coordinate;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.graphhopper.util.DistanceCalcEarth.DIST_EARTH;
+import static org.junit.Assert.*;
+
+/**
+ * Imports roads into a 3D graph and checks the elevations of the nodes and pillars.
+ *
+ * @author Robin Boldt
+ */
+public class ElevationImportTest {
+
+    private final TestRoads testRoads = new TestRoads();
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+
+    /**
+     * @return road 1 with alternating Z values and road 2 that crosses it at 0,0.002 with another Z value
+     */
+    private List<SimpleFeature> createRoadsWithZ() {
+        return Arrays.asList(
+                testRoads.create(1, "primary", null, null, new Coordinate[]{new Coordinate(0, 0, 10),
+                        new Coordinate(0.001, 0, 50), new Coordinate(0.002, 0, 10), new Coordinate(0.003, 0, 80),
+                        new Coordinate(0.004, 0, 10)}),
+                testRoads.create(2, "primary", null, null, new Coordinate[]{new Coordinate(0.002, 0.001, 30),
+                        new Coordinate(0.002, 0, 30), new Coordinate(0.002, -0.001, 30)}));
+    }
+
+    private GraphHopperStorage importGraph(List<SimpleFeature> roads, ElevationProvider elevationProvider,
+                                           boolean smooth, double samplingDistance) {
+        GraphHopperStorage storage = new GraphBuilder(encodingManager).set3D(true).build();
+        OSMPostgisReader reader = testRoads.createReader(storage, new HashMap<>(), roads);
+        if (elevationProvider != null)
+            reader.setElevationProvider(elevationProvider);
+        reader.setSmoothElevation(smooth);
+        reader.setLongEdgeSamplingDistance(samplingDistance);
+        reader.readGraph();
+        return storage;
+    }
+
+    @Test
+    public void testZValues() {
+        GraphHopperStorage storage = importGraph(createRoadsWithZ(), null, false, Double.MAX_VALUE);
+        // road 2 made the crossing a junction, so the node has its Z value
+        assertEquals(30, getEle(storage, 0, 0.002), 0.01);
+        assertEquals(10, getEle(storage, 0, 0), 0.01);
+
+        PointList geometry = getGeometry(storage, 0, 0, 0, 0.002);
+        assertEquals(50, geometry.getEle(1), 0.01);
+        // the distance uses the elevation of the node and not the Z value of road 1 at the junction
+        double expected = DIST_EARTH.calcDist3D(0, 0, 10, 0, 0.001, 50) + DIST_EARTH.calcDist3D(0, 0.001, 50, 0, 0.002, 30);
+        assertEquals(expected, getEdge(storage, 0, 0, 0, 0.002).getDistance(), 1e-3);
+    }
+
+    @Test
+    public void testSmoothingKeepsTheJunctions() {
+        GraphHopperStorage storage = importGraph(createRoadsWithZ(), null, true, Double.MAX_VALUE);
+        assertEquals(30, getEle(storage, 0, 0.002), 0.01);
+        assertEquals(10, getEle(storage, 0, 0.004), 0.01);
+
+        // every edge is smoothed on its own between the elevations of its nodes
+        PointList expected = new PointList(3, true);
+        expected.add(0, 0, 10);
+        expected.add(0, 0.001, 50);
+        expected.add(0, 0.002, 30);
+        GraphElevationSmoothing.smoothElevation(expected);
+        assertEquals(expected.getEle(1), getGeometry(storage, 0, 0, 0, 0.002).getEle(1), 0.01);
+
+        expected.clear();
+        expected.add(0, 0.002, 30);
+        expected.add(0, 0.003, 80);
+        expected.add(0, 0.004, 10);
+        GraphElevationSmoothing.smoothElevation(expected);
+        assertEquals(expected.getEle(1), getGeometry(storage, 0, 0.002, 0, 0.004).getEle(1), 0.01);
+    }
+
+    @Test
+    public void testElevationProvider() {
+        ElevationProvider elevationProvider = TestRoads.createElevationProvider();
+        // the segments of the network are 550m to 1100m long, so they get one or two sampled points
+        GraphHopperStorage storage = importGraph(testRoads.createNetwork(), elevationProvider, false, 500);
+        NodeAccess nodeAccess = storage.getNodeAccess();
+        // the reader does not use node 0
+        for (int node = 1; node < storage.getNodes(); node++) {
+            assertEquals(elevationProvider.getEle(nodeAccess.getLat(node), nodeAccess.getLon(node)),
+                    nodeAccess.getEle(node), 0.01);
+        }
+
+        int pillars = 0;
+        AllEdgesIterator iter = storage.getAllEdges();
+        while (iter.next()) {
+            PointList geometry = iter.fetchWayGeometry(FetchMode.PILLAR_ONLY);
+            for (int i = 0; i < geometry.size(); i++) {
+                assertEquals(elevationProvider.getEle(geometry.getLat(i), geometry.getLon(i)), geometry.getEle(i), 0.01);
+                pillars++;
+            }
+        }
+        // the pillar of road 3 and the sampled points
+        assertTrue(pillars > 1);
+    }
+
+    @Test
+    public void testSamplingSkipsTowers() {
+        List<SimpleFeature> roads = Arrays.asList(
+                // about 445m long, so 100m sampling splits it into 5 segments
+                testRoads.create(1, "primary", null, null, 0, 0, 0, 0.004),
+                // ends at the second sampled point of road 1 without being connected to it
+                testRoads.create(2, "primary", null, null, 0.001, 0.0016, 0, 0.0016));
+        ElevationProvider elevationProvider = TestRoads.createElevationProvider();
+        GraphHopperStorage storage = importGraph(roads, elevationProvider, false, 100);
+        assertEquals(2, storage.getEdges());
+
+        PointList pillars = getEdge(storage, 0, 0, 0, 0.004).fetchWayGeometry(FetchMode.PILLAR_ONLY);
+        assertEquals(3, pillars.size());
+        double[] lons = {0.0008, 0.0024, 0.0032};
+        for (int i = 0; i < lons.length; i++) {
+            assertEquals(0, pillars.getLat(i), 1e-6);
+            assertEquals(lons[i], pillars.getLon(i), 1e-6);
+            assertEquals(elevationProvider.getEle(0, lons[i]), pillars.getEle(i), 0.01);
+        }
+    }
+
+    private static int getNode(GraphHopperStorage storage, double lat, double lon) {
+        NodeAccess nodeAccess = storage.getNodeAccess();
+        for (int node = 1; node < storage.getNodes(); node++) {
+            if (nodeAccess.getLat(node) == lat && nodeAccess.getLon(node) == lon)
+                return node;
+        }
+        throw new AssertionError("No node at " + lat + "," + lon);
+    }
+
+    private static double getEle(GraphHopperStorage storage, double lat, double lon) {
+        return storage.getNodeAccess().getEle(getNode(storage, lat, lon));
+    }
+
+    private static AllEdgesIterator getEdge(GraphHopperStorage storage, double fromLat, double fromLon,
+                                            double toLat, double toLon) {
+        int from = getNode(storage, fromLat, fromLon);
+        int to = getNode(storage, toLat, toLon);
+        AllEdgesIterator iter = storage.getAllEdges();
+        while (iter.next()) {
+            if (iter.getBaseNode() == from && iter.getAdjNode() == to)
+                return iter;
+        }
+        throw new AssertionError("No edge from " + fromLat + "," + fromLon + " to " + toLat + "," + toLon);
+    }
+
+    private static PointList getGeometry(GraphHopperStorage storage, double fromLat, double fromLon,
+                                         double toLat, double toLon) {
+        return getEdge(storage, fromLat, fromLon, toLat, toLon).fetchWayGeometry(FetchMode.ALL);
+    }
+}
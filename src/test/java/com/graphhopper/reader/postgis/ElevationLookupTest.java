@@ -0,0 +1,79 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Uses a synthetic DEM whose elevation is derived from the coordinate, so the expected elevations are known.
+ *
+ * @author Robin Boldt
+ */
+public class ElevationLookupTest {
+
+    private final List<Integer> usedTiles = new ArrayList<>();
+    private int releases;
+
+    private double getEle(double lat, double lon) {
+        usedTiles.add(ElevationLookup.getTile(lat, lon));
+        return 100 * lat + lon;
+    }
+
+    @Test
+    public void testLookupIsSortedByTile() {
+        ElevationLookup lookup = new ElevationLookup(this::getEle, () -> releases++, 10);
+        double[] lats = {42.5, 10.5, 42.6, 10.6, -5.5};
+        double[] lons = {1.5, 20.5, 1.6, 20.6, -3.5};
+        double[] eles = new double[lats.length];
+        lookup.getEle(lats, lons, eles, lats.length);
+
+        // the elevations are in the order of the coordinates
+        for (int i = 0; i < lats.length; i++) {
+            assertEquals(100 * lats[i] + lons[i], eles[i], 1e-9);
+        }
+        // but every tile was used in one go
+        for (int i = 1; i < usedTiles.size(); i++) {
+            assertTrue(usedTiles.get(i - 1) <= usedTiles.get(i));
+        }
+        assertEquals(3, lookup.getTileLoads());
+        assertEquals(0, releases);
+    }
+
+    @Test
+    public void testReleaseWhenTooManyTiles() {
+        ElevationLookup lookup = new ElevationLookup(this::getEle, () -> releases++, 2);
+        double[] lats = {42.5, 43.5, 44.5};
+        double[] lons = {1.5, 1.5, 1.5};
+        double[] eles = new double[lats.length];
+        lookup.getEle(lats, lons, eles, lats.length);
+        assertEquals(3, lookup.getTileLoads());
+        assertEquals(1, releases);
+
+        // the last tile is still cached
+        lookup.getEle(new double[]{44.6}, new double[]{1.6}, eles, 1);
+        assertEquals(3, lookup.getTileLoads());
+        assertEquals(1, lookup.getReleases());
+        assertEquals(4, lookup.getLookups());
+    }
+}
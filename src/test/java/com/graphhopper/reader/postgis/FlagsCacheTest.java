@@ -0,0 +1,117 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.reader.ReaderWay;
+import com.graphhopper.routing.ev.DecimalEncodedValue;
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Robin Boldt
+ */
+public class FlagsCacheTest {
+
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+
+    @Test
+    public void testLeastRecentlyUsedIsRemoved() {
+        FlagsCache cache = new FlagsCache(2, new String[0]);
+        FlagsCache.Entry primary = cache.get(createWay("primary"));
+        cache.get(createWay("secondary"));
+        assertSame(primary, cache.get(createWay("primary")));
+        // removes secondary, primary was used more recently
+        cache.get(createWay("residential"));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        assertSame(primary, cache.get(createWay("primary")));
+        assertEquals(2, cache.getHits());
+        // a new entry, which removes residential
+        cache.get(createWay("secondary"));
+        cache.get(createWay("residential"));
+        assertEquals(2, cache.getHits());
+        assertEquals(5, cache.getMisses());
+    }
+
+    @Test
+    public void testFerriesBypassTheCache() {
+        FlagsCache cache = new FlagsCache(10, new String[]{"route"});
+        ReaderWay ferry = createWay(null);
+        ferry.setTag("route", "ferry");
+        assertNull(cache.get(ferry));
+        assertNull(cache.get(ferry));
+        assertEquals(2, cache.getBypassed());
+        assertEquals(0, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    public void testFerrySpeedsDependOnTheLength() {
+        TestRoads ferries = new TestRoads("roads", "fclass", LineString.class,
+                "route", String.class, "duration:seconds", String.class);
+        // the same tags, but about 11km and 5.5km long
+        List<SimpleFeature> roads = Arrays.asList(
+                createFerry(ferries, 1, 0, 0, 0, 0.1),
+                createFerry(ferries, 2, 0.01, 0, 0.01, 0.05));
+        Map<String, String> params = new HashMap<>();
+        params.put("tags_to_copy", "route,duration:seconds");
+        GraphHopperStorage cached = ferries.importGraph(encodingManager, params, roads);
+        params.put("flags_cache", "0");
+        GraphHopperStorage uncached = ferries.importGraph(encodingManager, params, roads);
+        assertEquals(TestRoads.describeEdges(uncached), TestRoads.describeEdges(cached));
+
+        DecimalEncodedValue speedEnc = encodingManager.getEncoder("car").getAverageSpeedEnc();
+        assertEquals(2, cached.getEdges());
+        AllEdgesIterator iter = cached.getAllEdges();
+        double[] speeds = new double[2];
+        while (iter.next()) {
+            speeds[iter.getEdge()] = iter.get(speedEnc);
+        }
+        assertTrue(speeds[0] > 0);
+        assertTrue(speeds[1] > 0);
+        assertNotEquals(speeds[0], speeds[1], 1e-6);
+    }
+
+    private static ReaderWay createWay(String highway) {
+        ReaderWay way = new ReaderWay(1);
+        if (highway != null)
+            way.setTag("highway", highway);
+        return way;
+    }
+
+    /**
+     * @return a ferry without fclass that takes 10 minutes
+     */
+    private static SimpleFeature createFerry(TestRoads ferries, long osmId, double... latLons) {
+        SimpleFeature ferry = ferries.create(osmId, null, null, null, latLons);
+        ferry.setAttribute("route", "ferry");
+        ferry.setAttribute("duration:seconds", "600");
+        return ferry;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.GHRequest;
+import com.graphhopper.GHResponse;
+import com.graphhopper.GraphHopperConfig;
+import com.graphhopper.config.CHProfile;
+import com.graphhopper.config.Profile;
+import com.graphhopper.util.details.PathDetail;
+import com.vividsolutions.jts.geom.LineString;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.memory.MemoryDataStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Imports the roads with GraphHopperPostgis from MemoryDataStores or a GeoPackage and routes on the loaded graph.
+ *
+ * @author Robin Boldt
+ */
+public class GraphHopperPostgisTest {
+
+    private final TestRoads testRoads = new TestRoads("roads", "fclass", LineString.class, "name", String.class);
+    private final MemoryDataStore trafficStore = new MemoryDataStore();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphHopperConfig createConfig() {
+        GraphHopperConfig config = new GraphHopperConfig();
+        config.putObject("datareader.file", testRoads.getType().getTypeName());
+        config.putObject("graph.location", folder.getRoot().getAbsolutePath());
+        config.putObject("graph.flag_encoders", "car");
+        config.putObject("db.tags_to_copy", "name");
+        config.putObject("db.tags_to_store", "name");
+        config.setProfiles(Collections.singletonList(new Profile("car").setVehicle("car").setWeighting("fastest")));
+        return config;
+    }
+
+    private List<SimpleFeature> createRoads() {
+        List<SimpleFeature> roads = testRoads.createNetwork();
+        roads.get(0).setAttribute("name", "Carrer Major");
+        return roads;
+    }
+
+    /**
+     * Reads the roads and the traffic table from new MemoryDataStores, as the reader disposes its store.
+     */
+    private void setStores(GraphHopperPostgis hopper, List<SimpleFeature> roads) {
+        hopper.setRoadStoreFactory((params, tableName, connections) ->
+                TrafficUpdaterTest.TRAFFIC_TYPE.getTypeName().equals(tableName) ? trafficStore : testRoads.createStore(roads));
+    }
+
+    @Test
+    public void testTrafficUpdateDuringPathDetails() throws Exception {
+        trafficStore.createSchema(TrafficUpdaterTest.TRAFFIC_TYPE);
+        AtomicReference<Thread> trafficThread = new AtomicReference<>();
+        CountDownLatch inRoute = new CountDownLatch(1);
+        GraphHopperPostgis hopper = new GraphHopperPostgis() {
+            @Override
+            public TagDictionary getTagDictionary() {
+                if (Thread.currentThread().getName().equals("route")) {
+                    inRoute.countDown();
+                    // the traffic update waits for the write lock while this route holds the read lock
+                    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                    while (System.nanoTime() < end && (trafficThread.get() == null
+                            || trafficThread.get().getState() != Thread.State.WAITING && trafficThread.get().isAlive())) {
+                        Thread.yield();
+                    }
+                }
+                return super.getTagDictionary();
+            }
+        };
+        GraphHopperConfig config = createConfig();
+        config.putObject("db.traffic_table", TrafficUpdaterTest.TRAFFIC_TYPE.getTypeName());
+        config.putObject("db.traffic_interval", "3600");
+        setStores(hopper, createRoads());
+        hopper.init(config);
+        try {
+            hopper.importOrLoad();
+            // waits for the first scheduled run, so the next run sees the new row
+            hopper.updateTraffic();
+
+            AtomicReference<GHResponse> response = new AtomicReference<>();
+            Thread route = new Thread(() -> response.set(hopper.route(new GHRequest(0, 0.001, 0, 0.015)
+                    .setProfile("car").setPathDetails(Collections.singletonList("name")))), "route");
+            route.start();
+            assertTrue(inRoute.await(10, TimeUnit.SECONDS));
+            trafficStore.addFeatures(new SimpleFeature[]{TrafficUpdaterTest.createTraffic(1, 20.0, false)});
+            Thread traffic = new Thread(hopper::updateTraffic, "traffic");
+            trafficThread.set(traffic);
+            traffic.start();
+
+            route.join(TimeUnit.SECONDS.toMillis(20));
+            traffic.join(TimeUnit.SECONDS.toMillis(20));
+            assertFalse("The route is blocked", route.isAlive());
+            assertFalse("The traffic update is blocked", traffic.isAlive());
+            assertFalse(response.get().getErrors().toString(), response.get().hasErrors());
+            List<PathDetail> names = response.get().getBest().getPathDetails().get("name");
+            assertEquals("Carrer Major", names.get(0).getValue());
+        } finally {
+            hopper.close();
+        }
+    }
+
+    @Test
+    public void testTrafficTableWithCH() {
+        GraphHopperConfig config = createConfig();
+        config.putObject("db.traffic_table", TrafficUpdaterTest.TRAFFIC_TYPE.getTypeName());
+        config.setCHProfiles(Collections.singletonList(new CHProfile("car")));
+        GraphHopperPostgis hopper = new GraphHopperPostgis();
+        try {
+            hopper.init(config);
+            fail("The traffic table was accepted with a CH profile");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("CH profiles"));
+        }
+        // nothing was imported
+        assertNull(SourceFingerprint.readStored(folder.getRoot()));
+    }
+
+    @Test
+    public void testFingerprint() throws IOException {
+        File file = new File(folder.getRoot(), "roads.gpkg");
+        List<SimpleFeature> roads = createRoads();
+        writeRoads(file, roads.subList(0, 3));
+        // the graph folder is removed before an import
+        File graph = new File(folder.getRoot(), "graph");
+        GraphHopperConfig config = createConfig();
+        config.putObject("graph.location", graph.getAbsolutePath());
+        config.putObject("db.store", "geopackage");
+        config.putObject("db.file", file.getAbsolutePath());
+        config.putObject("db.fingerprint", "true");
+
+        // stored
+        assertEquals(5, importOrLoad(config));
+        String stored = SourceFingerprint.readStored(graph);
+        assertTrue(stored, stored.startsWith("config=") && stored.contains(";rows=3;"));
+
+        // unchanged, the graph is loaded
+        File marker = new File(graph, "marker");
+        assertTrue(marker.createNewFile());
+        assertEquals(5, importOrLoad(config));
+        assertTrue("The graph was imported again", marker.exists());
+        assertEquals(stored, SourceFingerprint.readStored(graph));
+
+        // changed, the graph is removed and imported again
+        writeRoads(file, roads.subList(3, 4));
+        assertEquals(6, importOrLoad(config));
+        assertFalse("The graph was loaded", marker.exists());
+        String changed = SourceFingerprint.readStored(graph);
+        assertTrue(changed, changed.contains(";rows=4;"));
+
+        // config changed
+        assertTrue(marker.createNewFile());
+        config.putObject("db.fclass_exclude", "residential");
+        assertEquals(5, importOrLoad(config));
+        assertFalse("The graph was loaded", marker.exists());
+        assertNotEquals(changed, SourceFingerprint.readStored(graph));
+    }
+
+    /**
+     * @return the number of edges of the imported or loaded graph
+     */
+    private int importOrLoad(GraphHopperConfig config) {
+        GraphHopperPostgis hopper = new GraphHopperPostgis();
+        hopper.init(config);
+        try {
+            hopper.importOrLoad();
+            return hopper.getGraphHopperStorage().getEdges();
+        } finally {
+            hopper.close();
+        }
+    }
+
+    /**
+     * Appends the roads to the roads table of the GeoPackage, which is created if it does not exist.
+     */
+    private void writeRoads(File file, List<SimpleFeature> roads) throws IOException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("dbtype", "geopkg");
+        params.put("database", file);
+        DataStore store = DataStoreFinder.getDataStore(params);
+        try {
+            if (!Arrays.asList(store.getTypeNames()).contains(testRoads.getType().getTypeName()))
+                store.createSchema(testRoads.getType());
+            FeatureWriter<SimpleFeatureType, SimpleFeature> writer =
+                    store.getFeatureWriterAppend(testRoads.getType().getTypeName(), Transaction.AUTO_COMMIT);
+            try {
+                for (SimpleFeature road : roads) {
+                    writer.next().setAttributes(road.getAttributes());
+                    writer.write();
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            store.dispose();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Robin Boldt
+ */
+public class HilbertCurveTest {
+
+    @Test
+    public void testCurveVisitsNeighbours() {
+        int order = 5;
+        int n = 1 << order;
+        int[] xs = new int[n * n];
+        int[] ys = new int[n * n];
+        boolean[] visited = new boolean[n * n];
+        for (int x = 0; x < n; x++) {
+            for (int y = 0; y < n; y++) {
+                int index = (int) HilbertCurve.index(order, x, y);
+                assertFalse("cell " + index + " is visited twice", visited[index]);
+                visited[index] = true;
+                xs[index] = x;
+                ys[index] = y;
+            }
+        }
+        // consecutive positions are always neighbouring cells
+        for (int i = 1; i < n * n; i++) {
+            assertEquals(1, Math.abs(xs[i] - xs[i - 1]) + Math.abs(ys[i] - ys[i - 1]));
+        }
+    }
+
+    @Test
+    public void testWorld() {
+        assertEquals(0, HilbertCurve.index(-90, -180));
+        assertTrue(HilbertCurve.index(90, 180) < 1L << (2 * HilbertCurve.ORDER));
+        // about 10m apart, so in the same cell
+        assertEquals(HilbertCurve.index(52.5, 13.4), HilbertCurve.index(52.5001, 13.4001));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Interrupts an import with checkpoints after the first road checkpoint and resumes it.
+ *
+ * @author Robin Boldt
+ */
+public class ImportCheckpointTest {
+
+    private final TestRoads testRoads = new TestRoads();
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResumeUnchangedTable() {
+        List<SimpleFeature> roads = testRoads.createNetwork();
+        File location = interruptImport(roads);
+
+        GraphHopperStorage resumed = createStorage(location);
+        OSMPostgisReader reader = testRoads.createReader(resumed, createParams(), roads);
+        reader.readGraph();
+        // the junction pass is skipped and only the roads after the checkpoint are read again
+        assertEquals(Arrays.asList("roads", "finish"), new ArrayList<>(reader.getStats().getPhaseNanos().keySet()));
+        assertEquals(2, reader.getStats().getRowsFetched());
+        assertFalse(new File(location, ImportCheckpoint.FOLDER).exists());
+
+        TestRoads.assertSameEdges(testRoads.importGraph(encodingManager, new HashMap<>(), roads), resumed);
+    }
+
+    @Test
+    public void testDiscardCheckpointOfChangedTable() {
+        File location = interruptImport(testRoads.createNetwork());
+
+        List<SimpleFeature> changedRoads = testRoads.createNetwork();
+        changedRoads.add(testRoads.create(5, "residential", null, null, 0.02, 0.01, 0.02, 0.02));
+        GraphHopperStorage resumed = createStorage(location);
+        OSMPostgisReader reader = testRoads.createReader(resumed, createParams(), changedRoads);
+        reader.readGraph();
+        // the new road would be missing if the checkpoint was used
+        assertEquals(Arrays.asList("junctions", "roads", "finish"), new ArrayList<>(reader.getStats().getPhaseNanos().keySet()));
+        assertEquals(10, reader.getStats().getRowsFetched());
+
+        TestRoads.assertSameEdges(testRoads.importGraph(encodingManager, new HashMap<>(), changedRoads), resumed);
+    }
+
+    /**
+     * Imports the roads with a checkpoint after every second road and fails at the third road.
+     *
+     * @return the graph folder with the checkpoint
+     */
+    private File interruptImport(List<SimpleFeature> roads) {
+        File location = new File(folder.getRoot(), "graph");
+        GraphHopperStorage storage = createStorage(location);
+        OSMPostgisReader reader = testRoads.createReader(storage, createParams(), roads);
+        reader.addListener((way, edge) -> {
+            if (way.getId() == 3)
+                throw new IllegalStateException("interrupted");
+        });
+        try {
+            reader.readGraph();
+            fail("The import was not interrupted");
+        } catch (IllegalStateException e) {
+            assertEquals("interrupted", e.getMessage());
+        }
+        storage.close();
+        assertTrue(new File(location, ImportCheckpoint.FOLDER).exists());
+        return location;
+    }
+
+    private GraphHopperStorage createStorage(File location) {
+        return new GraphBuilder(encodingManager).setRAM(location.getAbsolutePath(), true).build();
+    }
+
+    private static Map<String, String> createParams() {
+        Map<String, String> params = new HashMap<>();
+        params.put("checkpoint", "true");
+        params.put("checkpoint_interval", "2");
+        return params;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.graphhopper.reader.postgis.TestRoads.assertSameEdges;
+import static com.graphhopper.reader.postgis.TestRoads.describeEdges;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Imports the same roads with the different read modes of the reader and compares the graph with the default
+ * import.
+ *
+ * @author Robin Boldt
+ */
+public class ImportModesTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final TestRoads testRoads = new TestRoads();
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+
+    private GraphHopperStorage importGraph(Map<String, String> params) {
+        return testRoads.importGraph(encodingManager, params, testRoads.createNetwork());
+    }
+
+    @Test
+    public void testSingleScan() {
+        Map<String, String> params = new HashMap<>();
+        params.put("single_scan", "true");
+        assertSameEdges(importGraph(new HashMap<>()), importGraph(params));
+
+        // PostgreSQL returns numeric as BigDecimal, real as Float, smallint as Short and timestamp as Timestamp
+        TestRoads typedRoads = new TestRoads("roads", "fclass", LineString.class, "width", BigDecimal.class,
+                "incline", Float.class, "lanes", Short.class, "surveyed", Timestamp.class);
+        List<SimpleFeature> roads = typedRoads.createNetwork();
+        for (int i = 0; i < roads.size(); i++) {
+            roads.get(i).setAttribute("width", new BigDecimal("3.50").add(BigDecimal.valueOf(i)));
+            roads.get(i).setAttribute("incline", 0.5f * i);
+            roads.get(i).setAttribute("lanes", (short) (i + 1));
+            Timestamp surveyed = new Timestamp(1_600_000_000_000L + i);
+            surveyed.setNanos(123_456_789);
+            roads.get(i).setAttribute("surveyed", surveyed);
+        }
+        Map<String, String> typedParams = new HashMap<>();
+        typedParams.put("tags_to_copy", "width,incline,lanes,surveyed");
+        Map<Long, Map<String, Object>> expectedTags = new HashMap<>();
+        GraphHopperStorage expected = importGraph(typedRoads, typedParams, roads, expectedTags);
+        typedParams.put("single_scan", "true");
+        Map<Long, Map<String, Object>> tags = new HashMap<>();
+        assertSameEdges(expected, importGraph(typedRoads, typedParams, roads, tags));
+        assertEquals(expectedTags, tags);
+        // the scale of a BigDecimal is part of equals, so this is not the String of the number
+        assertEquals(new BigDecimal("4.50"), tags.get(2L).get("width"));
+    }
+
+    @Test
+    public void testSpillFolder() {
+        File folder = new File(tmp.getRoot(), "spill");
+        Map<String, String> params = new HashMap<>();
+        params.put("single_scan", "true");
+        params.put("spill_folder", folder.getAbsolutePath());
+        assertSameEdges(importGraph(new HashMap<>()), importGraph(params));
+        // the spill file was created below the folder and removed after the import
+        assertTrue(folder.isDirectory());
+        assertEquals(0, folder.list().length);
+    }
+
+    /**
+     * Imports the roads and collects the tags of the ways by their OSM id.
+     */
+    private GraphHopperStorage importGraph(TestRoads testRoads, Map<String, String> params, List<SimpleFeature> roads,
+                                           Map<Long, Map<String, Object>> tags) {
+        GraphHopperStorage storage = new GraphBuilder(encodingManager).build();
+        OSMPostgisReader reader = testRoads.createReader(storage, params, roads);
+        reader.addListener((way, edge) -> tags.put(way.getId(), new HashMap<>(way.getTags())));
+        reader.readGraph();
+        return storage;
+    }
+
+    @Test
+    public void testParallelScan() {
+        GraphHopperStorage expected = importGraph(new HashMap<>());
+        Map<String, String> params = new HashMap<>();
+        params.put("parallel_scan", "true");
+        // two partitions with two roads each and four partitions with a single road
+        for (int partitions : new int[]{2, 4}) {
+            GraphHopperStorage storage = new GraphBuilder(encodingManager).build();
+            OSMPostgisReader reader = testRoads.createReader(storage, params, testRoads.createNetwork());
+            reader.setWorkerThreads(partitions);
+            reader.readGraph();
+            assertSameEdges(expected, storage);
+        }
+    }
+
+    @Test
+    public void testWithoutFlagsCache() {
+        Map<String, String> params = new HashMap<>();
+        params.put("flags_cache", "0");
+        assertSameEdges(importGraph(new HashMap<>()), importGraph(params));
+    }
+
+    @Test
+    public void testExternalJunctionPass() {
+        List<SimpleFeature> roads = createGrid(20, 100);
+        GraphHopperStorage expected = testRoads.importGraph(encodingManager, new HashMap<>(), roads);
+        Map<String, String> params = new HashMap<>();
+        params.put("junction_pass", "external");
+        // the smallest run holds 1024 points, so the 4000 points of the grid are sorted in several runs
+        params.put("junction_memory", "0");
+        GraphHopperStorage storage = testRoads.importGraph(encodingManager, params, roads);
+        // the junctions are found in the order of their coordinates, so only the geometries can be compared
+        assertEquals(expected.getNodes(), storage.getNodes());
+        assertEquals(describeEdges(expected), describeEdges(storage));
+    }
+
+    /**
+     * @return a grid of roads in both directions that cross every 0.001 degree and have a point every 0.0002 degree
+     */
+    private List<SimpleFeature> createGrid(int roadsPerDirection, int pointsPerRoad) {
+        List<SimpleFeature> roads = new ArrayList<>();
+        for (int r = 0; r < roadsPerDirection; r++) {
+            double[] horizontal = new double[2 * pointsPerRoad];
+            double[] vertical = new double[2 * pointsPerRoad];
+            for (int i = 0; i < pointsPerRoad; i++) {
+                horizontal[2 * i] = r * 0.001;
+                horizontal[2 * i + 1] = i * 0.0002;
+                vertical[2 * i] = i * 0.0002;
+                vertical[2 * i + 1] = r * 0.001;
+            }
+            roads.add(testRoads.create(2 * r + 1, "primary", null, null, horizontal));
+            roads.add(testRoads.create(2 * r + 2, "primary", null, null, vertical));
+        }
+        return roads;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the counters and phases of an import from a MemoryDataStore.
+ *
+ * @author Robin Boldt
+ */
+public class ImportStatsTest {
+
+    private final TestRoads testRoads = new TestRoads();
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+
+    @Test
+    public void testImportStats() {
+        GraphHopperStorage storage = new GraphBuilder(encodingManager).build();
+        OSMPostgisReader reader = testRoads.createReader(storage, new HashMap<>(), testRoads.createNetwork());
+        reader.readGraph();
+
+        ImportStats stats = reader.getStats();
+        // both passes read all roads
+        assertEquals(8, stats.getRowsFetched());
+        assertEquals(0, stats.getRowsRejected());
+        assertTrue(stats.getBytesFetched() > 0);
+        assertEquals(storage.getEdges(), stats.getEdgesCreated());
+        assertEquals(0, stats.getEdgesNotAccepted());
+        assertEquals(Arrays.asList("junctions", "roads", "finish"), new ArrayList<>(stats.getPhaseNanos().keySet()));
+    }
+}
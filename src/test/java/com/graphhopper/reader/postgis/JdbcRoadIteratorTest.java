@@ -0,0 +1,67 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.vividsolutions.jts.geom.LineString;
+import org.geotools.jdbc.JDBCDataStore;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Robin Boldt
+ */
+public class JdbcRoadIteratorTest {
+
+    private final SimpleFeatureType type = new TestRoads("ferries", "route", LineString.class, "name", String.class).getType();
+    private final String[] tagsToCopy = {"name", "ref"};
+
+    private static RoadTable createTable() {
+        Map<String, String> params = new HashMap<>();
+        params.put("tables", "ferries");
+        // the table has no speed_limit column
+        params.put("table.ferries.columns", "fclass=route,maxspeed=speed_limit");
+        return RoadTable.parse(params).get(0);
+    }
+
+    @Test
+    public void testMissingColumnsAreNotSelected() {
+        assertArrayEquals(new String[]{"route", null, "oneway", "name", null},
+                JdbcRoadIterator.getAttributeColumns(type, createTable(), tagsToCopy));
+    }
+
+    @Test
+    public void testCreateSql() throws Exception {
+        JDBCDataStore dataStore = new JDBCDataStore();
+        assertEquals("SELECT \"osm_id\", \"route\", \"oneway\", \"name\", ST_AsBinary(\"the_geom\") FROM \"ferries\"",
+                JdbcRoadIterator.createSql(dataStore, type, createTable(), Filter.INCLUDE, tagsToCopy, false, false));
+        assertEquals("SELECT ST_AsBinary(\"the_geom\") FROM \"ferries\" ORDER BY \"osm_id\"",
+                JdbcRoadIterator.createSql(dataStore, type, createTable(), Filter.INCLUDE, tagsToCopy, true, true));
+
+        dataStore.setDatabaseSchema("osm");
+        assertEquals("SELECT \"osm_id\", \"fclass\", \"maxspeed\", \"oneway\", ST_AsBinary(\"the_geom\") FROM \"osm\".\"roads\"",
+                JdbcRoadIterator.createSql(dataStore, new TestRoads().getType(), RoadTable.of("roads"), Filter.INCLUDE,
+                        new String[0], false, false));
+    }
+}
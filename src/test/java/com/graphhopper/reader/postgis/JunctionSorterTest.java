@@ -0,0 +1,115 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Robin Boldt
+ */
+public class JunctionSorterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testJunctions() {
+        try (JunctionSorter sorter = new JunctionSorter(1 << 20, false, null)) {
+            // 1-2-3 and 4-2-5 cross at 2, 3 is the end of the first and an interior point of 6-3-7
+            add(sorter, 1, 2, 3);
+            add(sorter, 4, 2, 5);
+            add(sorter, 6, 3, 7);
+            // an interior point of a single part is no junction
+            add(sorter, 8, 9, 10);
+            assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 10L), getJunctions(sorter));
+        }
+    }
+
+    @Test
+    public void testRunsFindTheSameJunctions() {
+        Random random = new Random(42);
+        Map<Long, Integer> parts = new HashMap<>();
+        Set<Long> endPoints = new HashSet<>();
+        // the smallest buffer holds 1024 points, so this needs many runs
+        try (JunctionSorter sorter = new JunctionSorter(0, true, null)) {
+            for (int p = 0; p < 5_000; p++) {
+                int size = 2 + random.nextInt(6);
+                Set<Long> part = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    long key = random.nextInt(10_000);
+                    if (!part.add(key))
+                        continue;
+                    boolean endPoint = i == 0 || i == size - 1;
+                    if (endPoint)
+                        endPoints.add(key);
+                    parts.merge(key, 1, Integer::sum);
+                    sorter.add(key, endPoint, random.nextBoolean() ? Double.NaN : key);
+                }
+            }
+            assertTrue(sorter.getRuns() > 1);
+
+            Set<Long> expected = new TreeSet<>(endPoints);
+            parts.forEach((key, count) -> {
+                if (count > 1)
+                    expected.add(key);
+            });
+            List<Long> junctions = new ArrayList<>();
+            sorter.forEachJunction((key, ele) -> {
+                junctions.add(key);
+                if (!Double.isNaN(ele))
+                    assertEquals(key, ele, 1e-3);
+            });
+            assertEquals(new ArrayList<>(expected), junctions);
+        }
+    }
+
+    @Test
+    public void testRunsAreWrittenToTheFolder() {
+        File parent = new File(tmp.getRoot(), "graph");
+        try (JunctionSorter sorter = new JunctionSorter(0, false, parent)) {
+            for (long key = 0; key < 3_000; key++) {
+                sorter.add(key, true, Double.NaN);
+            }
+            assertEquals(2, sorter.getRuns());
+            File[] folders = parent.listFiles();
+            assertEquals(1, folders.length);
+            assertEquals(2, folders[0].listFiles().length);
+        }
+        // closing the sorter removes its folder, but not the parent
+        assertEquals(0, parent.listFiles().length);
+    }
+
+    private static void add(JunctionSorter sorter, long... keys) {
+        for (int i = 0; i < keys.length; i++) {
+            sorter.add(keys[i], i == 0 || i == keys.length - 1, Double.NaN);
+        }
+    }
+
+    private static List<Long> getJunctions(JunctionSorter sorter) {
+        List<Long> junctions = new ArrayList<>();
+        sorter.forEachJunction((key, ele) -> junctions.add(key));
+        return junctions;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.FetchMode;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares incrementally updated graphs with graphs that were imported from scratch. The roads are read from a
+ * MemoryDataStore, so no database is needed.
+ *
+ * @author Robin Boldt
+ */
+public class OSMPostgisReaderUpdateTest {
+
+    private final TestRoads testRoads = new TestRoads("roads", "fclass", LineString.class, "updated_at", Integer.class);
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+
+    @Test
+    public void testUpdateMatchesFullImport() {
+        GraphHopperStorage updated = importGraph(createRoads());
+        assertEquals("1", updated.getProperties().get(PostgisReader.CHANGE_MARKER));
+
+        List<SimpleFeature> changedRoads = createChangedRoads();
+        OSMPostgisReader reader = createReader(updated, changedRoads);
+        assertTrue(reader.updateGraph());
+        assertTrue(reader.hasChangedGeometry());
+        assertEquals("2", updated.getProperties().get(PostgisReader.CHANGE_MARKER));
+
+        TestRoads.assertSameEdges(importGraph(changedRoads), updated);
+    }
+
+    @Test
+    public void testUpdateWithoutChanges() {
+        GraphHopperStorage updated = importGraph(createRoads());
+        OSMPostgisReader reader = createReader(updated, createRoads());
+        assertTrue(reader.updateGraph());
+        assertFalse(reader.hasChangedGeometry());
+
+        TestRoads.assertSameEdges(importGraph(createRoads()), updated);
+    }
+
+    @Test
+    public void testNewRoadNeedsFullImport() {
+        GraphHopperStorage updated = importGraph(createRoads());
+        List<SimpleFeature> roads = createChangedRoads();
+        roads.add(createRoad(5, "residential", null, null, 2, 0.02, 0.01, 0.03, 0.01));
+        assertFalse(createReader(updated, roads).updateGraph());
+
+        // the other changes must not be applied either
+        assertEquals("1", updated.getProperties().get(PostgisReader.CHANGE_MARKER));
+        TestRoads.assertSameEdges(importGraph(createRoads()), updated);
+    }
+
+    @Test
+    public void testNewJunctionNeedsFullImport() {
+        GraphHopperStorage updated = importGraph(createRoads());
+        List<SimpleFeature> roads = createRoads();
+        // the new pillar of road 3 is a point of road 4
+        roads.set(2, createRoad(3, "secondary", 0, "F", 2, 0, 0.02, 0.015, 0.01, 0.01, 0.02, 0.01, 0.01));
+        assertFalse(createReader(updated, roads).updateGraph());
+    }
+
+    @Test
+    public void testUpdateWithSimplification() {
+        List<SimpleFeature> roads = createRoads();
+        // the pillar is about 0.5m off the line and is removed
+        roads.add(createRoad(5, "residential", null, null, 1, 0.03, 0, 0.030005, 0.01, 0.03, 0.02));
+        GraphHopperStorage updated = importGraph(roads, 1);
+        EdgeIteratorState edge = updated.getEdgeIteratorState(updated.getEdges() - 1, Integer.MIN_VALUE);
+        assertEquals(2, edge.fetchWayGeometry(FetchMode.ALL).size());
+
+        List<SimpleFeature> changedRoads = new ArrayList<>(roads);
+        changedRoads.set(4, createRoad(5, "residential", 30, null, 2, 0.03, 0, 0.030005, 0.01, 0.03, 0.02));
+        OSMPostgisReader reader = createReader(updated, changedRoads, 1);
+        assertTrue(reader.updateGraph());
+        // the removed pillar is not a new point of the stored geometry
+        assertFalse(reader.hasChangedGeometry());
+        TestRoads.assertSameEdges(importGraph(changedRoads, 1), updated);
+    }
+
+    @Test
+    public void testUpdateWithElevation() {
+        // the update has no junction pass, but has to keep the elevation of the towers and sample the same points
+        GraphHopperStorage updated = importGraph3D(createRoads());
+        OSMPostgisReader reader = createReader3D(updated, createChangedRoads());
+        assertTrue(reader.updateGraph());
+        TestRoads.assertSameEdges(importGraph3D(createChangedRoads()), updated);
+    }
+
+    /**
+     * @return the network of {@link TestRoads} with the update column 1
+     */
+    private List<SimpleFeature> createRoads() {
+        List<SimpleFeature> roads = testRoads.createNetwork();
+        for (SimpleFeature road : roads) {
+            road.setAttribute("updated_at", 1);
+        }
+        return roads;
+    }
+
+    private List<SimpleFeature> createChangedRoads() {
+        List<SimpleFeature> roads = createRoads();
+        // a new maxspeed, a moved pillar and a new oneway
+        roads.set(0, createRoad(1, "primary", 30, "B", 2, 0, 0, 0, 0.01, 0, 0.02));
+        roads.set(2, createRoad(3, "secondary", 0, "F", 2, 0, 0.02, 0.006, 0.026, 0.01, 0.02, 0.01, 0.01));
+        roads.set(3, createRoad(4, "residential", 30, "F", 2, 0.01, 0.01, 0.015, 0.01, 0.02, 0.01));
+        return roads;
+    }
+
+    private GraphHopperStorage importGraph(List<SimpleFeature> roads) {
+        return importGraph(roads, 0);
+    }
+
+    private GraphHopperStorage importGraph(List<SimpleFeature> roads, double wayPointMaxDistance) {
+        GraphHopperStorage storage = new GraphBuilder(encodingManager).build();
+        createReader(storage, roads, wayPointMaxDistance).readGraph();
+        return storage;
+    }
+
+    private GraphHopperStorage importGraph3D(List<SimpleFeature> roads) {
+        GraphHopperStorage storage = new GraphBuilder(encodingManager).set3D(true).build();
+        createReader3D(storage, roads).readGraph();
+        return storage;
+    }
+
+    /**
+     * @return a reader that looks up the elevation and samples segments that are longer than 300m
+     */
+    private OSMPostgisReader createReader3D(GraphHopperStorage storage, List<SimpleFeature> roads) {
+        OSMPostgisReader reader = createReader(storage, roads);
+        reader.setElevationProvider(TestRoads.createElevationProvider());
+        reader.setLongEdgeSamplingDistance(300);
+        return reader;
+    }
+
+    private OSMPostgisReader createReader(GraphHopperStorage storage, List<SimpleFeature> roads) {
+        return createReader(storage, roads, 0);
+    }
+
+    private OSMPostgisReader createReader(GraphHopperStorage storage, List<SimpleFeature> roads,
+                                          double wayPointMaxDistance) {
+        Map<String, String> params = new HashMap<>();
+        params.put("update_column", "updated_at");
+        OSMPostgisReader reader = testRoads.createReader(storage, params, roads);
+        reader.setWayPointMaxDistance(wayPointMaxDistance);
+        return reader;
+    }
+
+    /**
+     * @param updatedAt the value of the update column
+     */
+    private SimpleFeature createRoad(long osmId, String fclass, Integer maxSpeed, String oneway, int updatedAt,
+                                     double... latLons) {
+        SimpleFeature road = testRoads.create(osmId, fclass, maxSpeed, oneway, latLons);
+        road.setAttribute("updated_at", updatedAt);
+        return road;
+    }
+}
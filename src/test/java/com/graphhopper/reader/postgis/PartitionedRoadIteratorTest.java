@@ -0,0 +1,128 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Robin Boldt
+ */
+public class PartitionedRoadIteratorTest {
+
+    @Test
+    public void testBatchesAreReturnedRoundRobin() {
+        int[] sizes = {23, 7, 0, 12};
+        int batchSize = 5;
+        List<Supplier<RoadIterator>> partitions = new ArrayList<>();
+        for (int p = 0; p < sizes.length; p++) {
+            int partition = p;
+            partitions.add(() -> new CountingRoads(partition, sizes[partition], -1));
+        }
+
+        // batch r of every partition that still has one, independent of the timing of the threads
+        List<Long> expected = new ArrayList<>();
+        for (int start = 0; start < 23; start += batchSize) {
+            for (int p = 0; p < sizes.length; p++) {
+                for (int i = start; i < Math.min(start + batchSize, sizes[p]); i++) {
+                    expected.add(osmId(p, i));
+                }
+            }
+        }
+
+        for (int run = 0; run < 10; run++) {
+            PartitionedRoadIterator roads = new PartitionedRoadIterator(partitions, batchSize, 2);
+            List<Long> actual = new ArrayList<>();
+            RoadRecord road;
+            while ((road = roads.next()) != null) {
+                actual.add(road.osmId);
+            }
+            assertNull(roads.next());
+            roads.close();
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testPartitionError() {
+        PartitionedRoadIterator roads = new PartitionedRoadIterator(Arrays.asList(
+                () -> new CountingRoads(0, 100, -1), () -> new CountingRoads(1, 100, 42)), 10, 2);
+        try {
+            while (roads.next() != null) {
+            }
+            fail("The error of the partition was not thrown");
+        } catch (RuntimeException e) {
+            assertEquals("broken row 42", e.getCause().getMessage());
+        } finally {
+            roads.close();
+        }
+    }
+
+    @Test
+    public void testNoPartitions() {
+        try {
+            new PartitionedRoadIterator(new ArrayList<>(), 10, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static long osmId(int partition, int index) {
+        return partition * 1000L + index;
+    }
+
+    private static class CountingRoads implements RoadIterator {
+        private final Random random = new Random();
+        private final int partition;
+        private final int count;
+        private final int brokenIndex;
+        private int index;
+
+        CountingRoads(int partition, int count, int brokenIndex) {
+            this.partition = partition;
+            this.count = count;
+            this.brokenIndex = brokenIndex;
+        }
+
+        @Override
+        public RoadRecord next() {
+            if (index >= count)
+                return null;
+            if (index == brokenIndex)
+                throw new IllegalStateException("broken row " + index);
+            // the partitions need random time, so they fill their queues in a different order in every run
+            if (random.nextInt(3) == 0)
+                Thread.yield();
+            RoadRecord road = new RoadRecord(0);
+            road.osmId = osmId(partition, index++);
+            return road;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
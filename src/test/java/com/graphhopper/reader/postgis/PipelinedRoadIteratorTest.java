@@ -0,0 +1,95 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Robin Boldt
+ */
+public class PipelinedRoadIteratorTest {
+
+    @Test
+    public void testOrderIsKept() {
+        // the decoders need random time, so the batches are finished out of order
+        PipelinedRoadIterator<Long> roads = new PipelinedRoadIterator<>(() -> new CountingSource(1000), () -> {
+            Random random = new Random();
+            return row -> {
+                if (random.nextInt(10) == 0)
+                    Thread.yield();
+                // every seventh row is rejected
+                if (row % 7 == 0)
+                    return null;
+                RoadRecord road = new RoadRecord(0);
+                road.osmId = row;
+                return road;
+            };
+        }, 4, 10, 8);
+
+        long expected = 1;
+        RoadRecord road;
+        while ((road = roads.next()) != null) {
+            if (expected % 7 == 0)
+                expected++;
+            assertEquals(expected++, road.osmId);
+        }
+        assertEquals(1001, expected);
+        assertNull(roads.next());
+        roads.close();
+    }
+
+    @Test
+    public void testDecoderError() {
+        PipelinedRoadIterator<Long> roads = new PipelinedRoadIterator<>(() -> new CountingSource(100), () -> row -> {
+            if (row == 50)
+                throw new IllegalStateException("broken row");
+            return new RoadRecord(0);
+        }, 2, 10, 4);
+        try {
+            while (roads.next() != null) {
+            }
+            fail("The error of the decoder was not thrown");
+        } catch (RuntimeException e) {
+            assertEquals("broken row", e.getCause().getMessage());
+        } finally {
+            roads.close();
+        }
+    }
+
+    private static class CountingSource implements PipelinedRoadIterator.RowSource<Long> {
+        private final long rows;
+        private long current;
+
+        CountingSource(long rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Long next() {
+            return current < rows ? ++current : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
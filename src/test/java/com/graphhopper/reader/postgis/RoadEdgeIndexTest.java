@@ -0,0 +1,78 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.graphhopper.storage.DAType;
+import com.graphhopper.storage.GHDirectory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Robin Boldt
+ */
+public class RoadEdgeIndexTest {
+
+    @Test
+    public void testSortOnHeap() {
+        checkSort(RoadEdgeIndex.MAX_HEAP_SORT);
+    }
+
+    @Test
+    public void testSortInPlace() {
+        checkSort(0);
+    }
+
+    private static void checkSort(long maxHeapEntries) {
+        Random random = new Random(42);
+        RoadEdgeIndex index = RoadEdgeIndex.create(new GHDirectory("", DAType.RAM));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int road = 0; road < 200; road++) {
+            expected.add(new ArrayList<>());
+        }
+        // the edges of a road are created in ascending order, but the roads are mixed
+        for (int edge = 0; edge < 5_000; edge++) {
+            int road = random.nextInt(expected.size());
+            // negative and large ids need all 64 bits
+            index.add(toOsmId(road), edge);
+            expected.get(road).add(edge);
+        }
+        index.sort(maxHeapEntries);
+        assertTrue(index.isSorted());
+        assertEquals(5_000, index.size());
+        for (int road = 0; road < expected.size(); road++) {
+            IntArrayList edges = index.getEdges(toOsmId(road));
+            List<Integer> actual = new ArrayList<>();
+            for (int i = 0; i < edges.size(); i++) {
+                actual.add(edges.get(i));
+            }
+            assertEquals("road " + road, expected.get(road), actual);
+        }
+        assertEquals(0, index.getEdges(toOsmId(expected.size())).size());
+    }
+
+    private static long toOsmId(int road) {
+        return road % 2 == 0 ? road * 10_000_000_000L : -road;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Robin Boldt
+ */
+public class RoadFilterTest {
+
+    private final TestRoads testRoads = new TestRoads();
+    private final SimpleFeature primary = testRoads.create(1, "primary", 50, "B", 0, 0, 0, 0.01);
+    private final SimpleFeature residential = testRoads.create(2, "residential", 30, "B", 1, 1, 1, 1.01);
+    private final SimpleFeature unclassified = testRoads.create(3, null, null, null, 0, 0, 0.01, 0);
+
+    private static RoadFilter create(String... keyValues) {
+        Map<String, String> params = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            params.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new RoadFilter(params);
+    }
+
+    private Filter toFilter(RoadFilter roadFilter) {
+        return roadFilter.toFilter(testRoads.getType().getGeometryDescriptor().getLocalName());
+    }
+
+    @Test
+    public void testEmpty() {
+        RoadFilter roadFilter = create("bbox", " ", "fclass_include", "", "where", " ");
+        assertTrue(roadFilter.isEmpty());
+        assertEquals(Filter.INCLUDE, toFilter(roadFilter));
+    }
+
+    @Test
+    public void testExcludeKeepsRowsWithoutClass() {
+        Filter filter = toFilter(create("fclass_exclude", "primary, motorway"));
+        assertFalse(filter.evaluate(primary));
+        assertTrue(filter.evaluate(residential));
+        assertTrue(filter.evaluate(unclassified));
+    }
+
+    @Test
+    public void testInclude() {
+        Filter filter = toFilter(create("fclass_include", "primary,"));
+        assertTrue(filter.evaluate(primary));
+        assertFalse(filter.evaluate(residential));
+        assertFalse(filter.evaluate(unclassified));
+    }
+
+    @Test
+    public void testOtherClassColumn() {
+        TestRoads ferries = new TestRoads("ferries", "route", LineString.class);
+        Filter filter = create("fclass_exclude", "ferry").toFilter(
+                ferries.getType().getGeometryDescriptor().getLocalName(), "route");
+        assertFalse(filter.evaluate(ferries.create(1, "ferry", null, null, 0, 0, 0, 0.01)));
+        assertTrue(filter.evaluate(ferries.create(2, "train", null, null, 0, 0, 0, 0.01)));
+        assertTrue(filter.evaluate(ferries.create(3, null, null, null, 0, 0, 0, 0.01)));
+    }
+
+    @Test
+    public void testCombined() {
+        Filter filter = toFilter(create("bbox", "-0.1,-0.1,0.1,0.1", "fclass_exclude", "residential",
+                "where", "maxspeed > 30"));
+        assertTrue(filter.evaluate(primary));
+        // outside of the bbox and excluded
+        assertFalse(filter.evaluate(residential));
+        // no maxspeed
+        assertFalse(filter.evaluate(unclassified));
+    }
+
+    @Test
+    public void testIllegalConfig() {
+        for (String[] keyValues : new String[][]{{"bbox", "1,2,3"}, {"bbox", "3,0,1,1"}, {"where", "maxspeed >"}}) {
+            try {
+                toFilter(create(keyValues));
+                fail(keyValues[0] + "=" + keyValues[1] + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.vividsolutions.jts.geom.MultiLineString;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Imports the same roads from a MemoryDataStore and from the file stores and compares the graphs.
+ *
+ * @author Robin Boldt
+ */
+public class RoadStoresTest {
+
+    // Shapefiles only know MultiLineStrings
+    private final TestRoads testRoads = new TestRoads("roads", "fclass", MultiLineString.class);
+    private final TestRoads ferries = new TestRoads("ferries", "route", MultiLineString.class);
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGeoPackage() throws IOException {
+        File file = new File(folder.getRoot(), "roads.gpkg");
+        Map<String, Object> params = new HashMap<>();
+        params.put("dbtype", "geopkg");
+        params.put("database", file);
+        writeRoads(DataStoreFinder.getDataStore(params));
+
+        TestRoads.assertSameEdges(importGraph(null), importGraph(createParams("geopackage", file)));
+    }
+
+    @Test
+    public void testShapefileInFolder() throws IOException {
+        writeRoads(new ShapefileDataStore(new File(folder.getRoot(), "roads.shp").toURI().toURL()));
+
+        TestRoads.assertSameEdges(importGraph(null), importGraph(createParams("shapefile", folder.getRoot())));
+    }
+
+    @Test
+    public void testSeveralTables() throws IOException {
+        File file = writeTables();
+        Map<String, String> params = createParams("geopackage", file);
+        params.put("tables", "roads,ferries");
+        params.put("table.ferries.columns", "fclass=route");
+        GraphHopperStorage expected = importGraph(null);
+        GraphHopperStorage actual = importGraph(params);
+        // the tables are read concurrently, so only the edges are the same, not their order
+        assertEquals(expected.getNodes(), actual.getNodes());
+        assertEquals(TestRoads.describeEdges(expected), TestRoads.describeEdges(actual));
+    }
+
+    @Test
+    public void testAcceptFeatureWithSeveralTables() throws IOException {
+        File file = writeTables();
+        Map<String, String> params = createParams("geopackage", file);
+        params.put("tables", "roads,ferries");
+        params.put("table.ferries.columns", "fclass=route");
+        AtomicInteger missing = new AtomicInteger();
+        GraphHopperStorage actual = new GraphBuilder(encodingManager).build();
+        OSMPostgisReader reader = new OSMPostgisReader(actual, params) {
+            @Override
+            protected List<String> getAcceptFeatureProperties() {
+                return Collections.singletonList("fclass");
+            }
+
+            @Override
+            protected boolean acceptFeature(SimpleFeature feature) {
+                // the junction pass only fetches the geometry and these properties
+                Object fclass = getAttribute(feature, "fclass");
+                if (fclass == null)
+                    missing.incrementAndGet();
+                return !"secondary".equals(fclass);
+            }
+        };
+        reader.setFile(new File(testRoads.getType().getTypeName()));
+        reader.readGraph();
+
+        assertEquals(0, missing.get());
+        List<SimpleFeature> roads = new ArrayList<>(testRoads.createNetwork());
+        // road 3 is the secondary road in the ferries table
+        roads.remove(2);
+        GraphHopperStorage expected = testRoads.importGraph(encodingManager, new HashMap<>(), roads);
+        assertEquals(expected.getNodes(), actual.getNodes());
+        assertEquals(TestRoads.describeEdges(expected), TestRoads.describeEdges(actual));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFileIsRequired() throws IOException {
+        RoadStores.GEOPACKAGE.open(new HashMap<>(), "roads", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownStore() {
+        RoadStores.get("flatgeobuf");
+    }
+
+    private static Map<String, String> createParams(String store, File file) {
+        Map<String, String> params = new HashMap<>();
+        params.put("store", store);
+        params.put("file", file.getAbsolutePath());
+        return params;
+    }
+
+    /**
+     * @param params the params of the file store or null to import from a MemoryDataStore
+     */
+    private GraphHopperStorage importGraph(Map<String, String> params) {
+        if (params == null)
+            return testRoads.importGraph(encodingManager, new HashMap<>(), testRoads.createNetwork());
+
+        GraphHopperStorage storage = new GraphBuilder(encodingManager).build();
+        OSMPostgisReader reader = new OSMPostgisReader(storage, params);
+        reader.setFile(new File(testRoads.getType().getTypeName()));
+        reader.readGraph();
+        return storage;
+    }
+
+    /**
+     * Writes the first two roads of the network to the table roads and the last two to the table ferries, whose
+     * classes are in the route column.
+     *
+     * @return the GeoPackage with both tables
+     */
+    private File writeTables() throws IOException {
+        File file = new File(folder.getRoot(), "network.gpkg");
+        Map<String, Object> storeParams = new HashMap<>();
+        storeParams.put("dbtype", "geopkg");
+        storeParams.put("database", file);
+        DataStore store = DataStoreFinder.getDataStore(storeParams);
+        try {
+            List<SimpleFeature> roads = testRoads.createNetwork();
+            writeFeatures(store, testRoads.getType(), roads.subList(0, 2));
+            List<SimpleFeature> ferryRoads = new ArrayList<>();
+            for (SimpleFeature road : roads.subList(2, 4)) {
+                ferryRoads.add(SimpleFeatureBuilder.build(ferries.getType(), road.getAttributes(),
+                        "ferries." + road.getAttribute("osm_id")));
+            }
+            writeFeatures(store, ferries.getType(), ferryRoads);
+        } finally {
+            store.dispose();
+        }
+        return file;
+    }
+
+    private void writeRoads(DataStore store) throws IOException {
+        try {
+            writeFeatures(store, testRoads.getType(), testRoads.createNetwork());
+        } finally {
+            store.dispose();
+        }
+    }
+
+    private static void writeFeatures(DataStore store, SimpleFeatureType type, List<SimpleFeature> features) throws IOException {
+        store.createSchema(type);
+        FeatureWriter<SimpleFeatureType, SimpleFeature> writer =
+                store.getFeatureWriterAppend(type.getTypeName(), Transaction.AUTO_COMMIT);
+        try {
+            for (SimpleFeature feature : features) {
+                writer.next().setAttributes(feature.getAttributes());
+                writer.write();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
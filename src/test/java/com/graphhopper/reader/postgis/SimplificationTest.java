@@ -0,0 +1,106 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.util.FetchMode;
+import com.graphhopper.util.PointList;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.graphhopper.util.DistanceCalcEarth.DIST_EARTH;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the Douglas-Peucker simplification of the import removes only pillars.
+ *
+ * @author Robin Boldt
+ */
+public class SimplificationTest {
+
+    private final TestRoads testRoads = new TestRoads();
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+
+    @Test
+    public void testTowersAndEndpointsAreKept() {
+        List<SimpleFeature> roads = Arrays.asList(
+                // the first pillar is about 0.45m off the line, the second one about 5.5m
+                testRoads.create(1, "primary", null, null, 0, 0, 0.000004, 0.001, 0, 0.002, 0.00005, 0.003, 0, 0.004),
+                // crosses road 1 at a point that lies on the straight line of road 1
+                testRoads.create(2, "primary", null, null, 0.001, 0.002, 0, 0.002, -0.001, 0.002));
+        GraphHopperStorage storage = new GraphBuilder(encodingManager).build();
+        OSMPostgisReader reader = testRoads.createReader(storage, new HashMap<>(), roads);
+        // GraphHopper's default routing.way_point_max_distance
+        reader.setWayPointMaxDistance(1);
+        reader.readGraph();
+        assertEquals(4, storage.getEdges());
+
+        PointList geometry = getGeometry(storage, 0, 0);
+        assertEquals(2, geometry.size());
+        assertEquals(0, geometry.getLon(0), 1e-6);
+        assertEquals(0.002, geometry.getLon(1), 1e-6);
+        // the distance is still calculated from all points
+        double expected = DIST_EARTH.calcDist(0, 0, 0.000004, 0.001) + DIST_EARTH.calcDist(0.000004, 0.001, 0, 0.002);
+        assertEquals(expected, getEdge(storage, 0, 0).getDistance(), 1e-2);
+
+        geometry = getGeometry(storage, 0, 0.002, 0);
+        assertEquals(3, geometry.size());
+        assertEquals(0.00005, geometry.getLat(1), 1e-6);
+        assertEquals(0.004, geometry.getLon(2), 1e-6);
+
+        // road 2 has no pillars at all
+        assertEquals(2, getGeometry(storage, 0.001, 0.002).size());
+        assertEquals(2, getGeometry(storage, 0, 0.002, -0.001).size());
+    }
+
+    /**
+     * @return the first edge that starts at the specified point
+     */
+    private static AllEdgesIterator getEdge(GraphHopperStorage storage, double lat, double lon) {
+        return getEdge(storage, lat, lon, Double.NaN);
+    }
+
+    /**
+     * @param toLat the latitude of the end of the edge or NaN if any end is fine
+     */
+    private static AllEdgesIterator getEdge(GraphHopperStorage storage, double lat, double lon, double toLat) {
+        AllEdgesIterator iter = storage.getAllEdges();
+        while (iter.next()) {
+            PointList geometry = iter.fetchWayGeometry(FetchMode.ALL);
+            if (Math.abs(geometry.getLat(0) - lat) < 1e-6 && Math.abs(geometry.getLon(0) - lon) < 1e-6
+                    && (Double.isNaN(toLat) || Math.abs(geometry.getLat(geometry.size() - 1) - toLat) < 1e-6))
+                return iter;
+        }
+        throw new AssertionError("No edge starts at " + lat + "," + lon);
+    }
+
+    private static PointList getGeometry(GraphHopperStorage storage, double lat, double lon) {
+        return getEdge(storage, lat, lon).fetchWayGeometry(FetchMode.ALL);
+    }
+
+    private static PointList getGeometry(GraphHopperStorage storage, double lat, double lon, double toLat) {
+        return getEdge(storage, lat, lon, toLat).fetchWayGeometry(FetchMode.ALL);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.DAType;
+import com.graphhopper.storage.GHDirectory;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.util.details.PathDetailsBuilder;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Imports roads with names from a MemoryDataStore and reads the names of the edges from the dictionary.
+ *
+ * @author Robin Boldt
+ */
+public class TagDictionaryTest {
+
+    private final TestRoads testRoads = new TestRoads("roads", "fclass", LineString.class,
+            "name", String.class, "ref", String.class);
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+
+    @Test
+    public void testNamesOfEdges() {
+        GraphHopperStorage graph = importGraph();
+        TagDictionary dictionary = TagDictionary.load(graph.getDirectory(), "name, ref");
+        assertNotNull(dictionary);
+        RoadEdgeIndex index = RoadEdgeIndex.load(graph.getDirectory());
+
+        // road 1 has two edges, both refer to the same value
+        assertEquals(2, index.getEdges(1L).size());
+        for (int i = 0; i < index.getEdges(1L).size(); i++) {
+            assertEquals("Carrer Major", dictionary.getValue(index.getEdges(1L).get(i), "name"));
+            assertEquals("CG-1", dictionary.getValue(index.getEdges(1L).get(i), "ref"));
+        }
+        assertEquals("Avinguda Meritxell", dictionary.getValue(index.getEdges(2L).get(0), "name"));
+        assertEquals("Carrer Major", dictionary.getValue(index.getEdges(3L).get(0), "name"));
+        assertNull(dictionary.getValue(index.getEdges(3L).get(0), "ref"));
+        assertNull(dictionary.getValue(index.getEdges(4L).get(0), "name"));
+        assertNull(dictionary.getValue(graph.getEdges(), "name"));
+
+        // Carrer Major, CG-1 and Avinguda Meritxell
+        assertEquals(3, dictionary.getValueCount());
+        AllEdgesIterator iter = graph.getAllEdges();
+        int named = 0;
+        while (iter.next()) {
+            if (dictionary.getValue(iter.getEdge(), "name") != null)
+                named++;
+        }
+        assertEquals(graph.getEdges() - index.getEdges(4L).size(), named);
+    }
+
+    @Test
+    public void testPathDetails() {
+        GraphHopperStorage graph = importGraph();
+        TagDictionary dictionary = TagDictionary.load(graph.getDirectory(), "name, ref");
+        RoadEdgeIndex index = RoadEdgeIndex.load(graph.getDirectory());
+        assertEquals(1, dictionary.getTagIndex("ref"));
+
+        List<PathDetailsBuilder> builders = new TagPathDetailsBuilderFactory(() -> dictionary)
+                .createPathDetailsBuilders(Collections.singletonList("name"), encodingManager, null);
+        assertEquals(1, builders.size());
+        PathDetailsBuilder builder = builders.get(0);
+        assertEquals("name", builder.getName());
+        // both edges of road 1 have the same name, so the second one does not start a new interval
+        IntArrayList edges = index.getEdges(1L);
+        assertTrue(builder.isEdgeDifferentToLastEdge(graph.getEdgeIteratorState(edges.get(0), Integer.MIN_VALUE)));
+        assertEquals("Carrer Major", builder.getCurrentValue());
+        assertFalse(builder.isEdgeDifferentToLastEdge(graph.getEdgeIteratorState(edges.get(1), Integer.MIN_VALUE)));
+        assertTrue(builder.isEdgeDifferentToLastEdge(graph.getEdgeIteratorState(index.getEdges(2L).get(0), Integer.MIN_VALUE)));
+        assertEquals("Avinguda Meritxell", builder.getCurrentValue());
+        assertTrue(builder.isEdgeDifferentToLastEdge(graph.getEdgeIteratorState(index.getEdges(4L).get(0), Integer.MIN_VALUE)));
+        assertNull(builder.getCurrentValue());
+    }
+
+    @Test
+    public void testValuesSpanSegments() {
+        // the smallest segment size, the lengths in front of the values are not aligned
+        TagDictionary dictionary = TagDictionary.create(new GHDirectory("", DAType.RAM), new String[]{"name"}, 128);
+        int edges = 200;
+        for (int edge = 0; edge < edges; edge++) {
+            dictionary.setIds(edge, new int[]{dictionary.getId(createName(edge))});
+        }
+        assertTrue(dictionary.getValuesBytes() > 10 * 128);
+        for (int edge = 0; edge < edges; edge++) {
+            assertEquals(createName(edge), dictionary.getValue(edge, "name"));
+        }
+        assertEquals(edges, dictionary.getValueCount());
+
+        // the ids are read again from the values, the known values keep their ids
+        dictionary.flush();
+        int id = dictionary.getId(createName(7));
+        assertEquals(createName(7), dictionary.getValue(7, 0));
+        assertEquals(edges, dictionary.getValueCount());
+        dictionary.setIds(edges, new int[]{id});
+        assertEquals(createName(7), dictionary.getValue(edges, "name"));
+    }
+
+    /**
+     * @return names of 1 to 13 characters, so that the values start at every offset of a segment
+     */
+    private static String createName(int edge) {
+        StringBuilder name = new StringBuilder("c").append(edge);
+        for (int i = 0; i < edge % 11; i++) {
+            name.append('\u00e9');
+        }
+        return name.toString();
+    }
+
+    @Test
+    public void testOtherTagsAreNotLoaded() {
+        GraphHopperStorage graph = importGraph();
+        assertNull(TagDictionary.load(graph.getDirectory(), "name"));
+        assertNull(TagDictionary.load(graph.getDirectory(), ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStoredTagsAreCopied() {
+        Map<String, String> params = new HashMap<>();
+        params.put("tags_to_copy", "name");
+        params.put("tags_to_store", "name,ref");
+        new OSMPostgisReader(new GraphBuilder(encodingManager).build(), params);
+    }
+
+    private GraphHopperStorage importGraph() {
+        Map<String, String> params = new HashMap<>();
+        params.put("tags_to_copy", "name,ref");
+        params.put("tags_to_store", "name, ref");
+        // only to find the edges of the roads
+        params.put("traffic_table", "traffic");
+        return testRoads.importGraph(encodingManager, params, createRoads());
+    }
+
+    /**
+     * @return the network of {@link TestRoads} with names
+     */
+    private List<SimpleFeature> createRoads() {
+        List<SimpleFeature> roads = testRoads.createNetwork();
+        setNames(roads.get(0), "Carrer Major", "CG-1");
+        setNames(roads.get(1), "Avinguda Meritxell", null);
+        setNames(roads.get(2), "Carrer Major", null);
+        return roads;
+    }
+
+    private static void setNames(SimpleFeature road, String name, String ref) {
+        road.setAttribute("name", name);
+        road.setAttribute("ref", ref);
+    }
+}
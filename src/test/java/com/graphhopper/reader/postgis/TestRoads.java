@@ -0,0 +1,216 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.reader.dem.ElevationProvider;
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.storage.NodeAccess;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.FetchMode;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import org.geotools.data.DataStore;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The roads table of the tests: the columns the reader uses plus optional extra columns, a small network of four
+ * roads and a reader that imports features from a MemoryDataStore, so no database is needed.
+ *
+ * @author Robin Boldt
+ */
+final class TestRoads {
+
+    private final SimpleFeatureType type;
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
+    /**
+     * A roads table with LineStrings and without extra columns.
+     */
+    TestRoads() {
+        this("roads", "fclass", LineString.class);
+    }
+
+    /**
+     * @param extraColumns pairs of the name and the class of the columns after oneway
+     */
+    TestRoads(String typeName, String fclassColumn, Class<? extends Geometry> geometryType, Object... extraColumns) {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName(typeName);
+        builder.setCRS(DefaultGeographicCRS.WGS84);
+        builder.add("the_geom", geometryType);
+        builder.add("osm_id", Long.class);
+        builder.add(fclassColumn, String.class);
+        builder.add("maxspeed", Integer.class);
+        builder.add("oneway", String.class);
+        for (int i = 0; i < extraColumns.length; i += 2) {
+            builder.add((String) extraColumns[i], (Class<?>) extraColumns[i + 1]);
+        }
+        this.type = builder.buildFeatureType();
+    }
+
+    SimpleFeatureType getType() {
+        return type;
+    }
+
+    /**
+     * Creates a road with a 2D geometry, the extra columns are null.
+     *
+     * @param latLons the coordinates of the road as lat,lon pairs
+     */
+    SimpleFeature create(long osmId, String fclass, Integer maxSpeed, String oneway, double... latLons) {
+        Coordinate[] coordinates = new Coordinate[latLons.length / 2];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = new Coordinate(latLons[2 * i + 1], latLons[2 * i]);
+        }
+        return create(osmId, fclass, maxSpeed, oneway, coordinates);
+    }
+
+    /**
+     * Creates a road with the coordinates as x=lon, y=lat and optional z, the extra columns are null.
+     */
+    SimpleFeature create(long osmId, String fclass, Integer maxSpeed, String oneway, Coordinate[] coordinates) {
+        LineString line = geometryFactory.createLineString(coordinates);
+        Geometry geometry = MultiLineString.class.isAssignableFrom(type.getGeometryDescriptor().getType().getBinding())
+                ? geometryFactory.createMultiLineString(new LineString[]{line}) : line;
+        Object[] values = new Object[type.getAttributeCount()];
+        values[0] = geometry;
+        values[1] = osmId;
+        values[2] = fclass;
+        values[3] = maxSpeed;
+        values[4] = oneway;
+        return SimpleFeatureBuilder.build(type, values, type.getTypeName() + "." + osmId);
+    }
+
+    /**
+     * @return four roads: two primary roads that cross at 0,0.01, a secondary road with a pillar that connects the
+     * end of the first road with the second one and a residential road that starts at this junction
+     */
+    List<SimpleFeature> createNetwork() {
+        List<SimpleFeature> roads = new ArrayList<>();
+        roads.add(create(1, "primary", 50, "B", 0, 0, 0, 0.01, 0, 0.02));
+        roads.add(create(2, "primary", 0, "B", 0.01, 0.01, 0, 0.01, -0.01, 0.01));
+        roads.add(create(3, "secondary", 0, "F", 0, 0.02, 0.005, 0.025, 0.01, 0.02, 0.01, 0.01));
+        roads.add(create(4, "residential", 30, "T", 0.01, 0.01, 0.015, 0.01, 0.02, 0.01));
+        return roads;
+    }
+
+    /**
+     * @return an elevation model that rises by 100m per 0.01 degree of latitude and 10m per 0.01 degree of longitude
+     */
+    static ElevationProvider createElevationProvider() {
+        return new ElevationProvider() {
+            @Override
+            public double getEle(double lat, double lon) {
+                return 100 + 10_000 * lat + 1_000 * lon;
+            }
+
+            @Override
+            public boolean canInterpolate() {
+                return false;
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+    }
+
+    /**
+     * @return a reader that reads the roads from a MemoryDataStore
+     */
+    OSMPostgisReader createReader(GraphHopperStorage storage, Map<String, String> params, List<SimpleFeature> roads) {
+        OSMPostgisReader reader = new OSMPostgisReader(storage, params) {
+            @Override
+            protected DataStore openPostGisStore() {
+                return createStore(roads);
+            }
+        };
+        reader.setFile(new File(type.getTypeName()));
+        return reader;
+    }
+
+    GraphHopperStorage importGraph(EncodingManager encodingManager, Map<String, String> params, List<SimpleFeature> roads) {
+        GraphHopperStorage storage = new GraphBuilder(encodingManager).build();
+        createReader(storage, params, roads).readGraph();
+        return storage;
+    }
+
+    MemoryDataStore createStore(List<SimpleFeature> roads) {
+        MemoryDataStore store = new MemoryDataStore();
+        store.createSchema(type);
+        store.addFeatures(roads.toArray(new SimpleFeature[0]));
+        return store;
+    }
+
+    /**
+     * Compares the nodes and the edges including their ids.
+     */
+    static void assertSameEdges(GraphHopperStorage expected, GraphHopperStorage actual) {
+        assertEquals(expected.getNodes(), actual.getNodes());
+        assertEquals(expected.getEdges(), actual.getEdges());
+        NodeAccess expectedNodes = expected.getNodeAccess();
+        NodeAccess actualNodes = actual.getNodeAccess();
+        for (int node = 0; node < expected.getNodes(); node++) {
+            assertEquals("lat of node " + node, expectedNodes.getLat(node), actualNodes.getLat(node), 1e-7);
+            assertEquals("lon of node " + node, expectedNodes.getLon(node), actualNodes.getLon(node), 1e-7);
+        }
+        AllEdgesIterator iter = expected.getAllEdges();
+        while (iter.next()) {
+            EdgeIteratorState edge = actual.getEdgeIteratorState(iter.getEdge(), Integer.MIN_VALUE);
+            assertEquals(iter.getBaseNode(), edge.getBaseNode());
+            assertEquals(iter.getAdjNode(), edge.getAdjNode());
+            assertEquals(iter.getDistance(), edge.getDistance(), 1e-3);
+            assertEquals("flags of edge " + iter.getEdge(), iter.getFlags(), edge.getFlags());
+            assertEquals(iter.fetchWayGeometry(FetchMode.ALL), edge.fetchWayGeometry(FetchMode.ALL));
+        }
+    }
+
+    /**
+     * @return the sorted edges with their coordinates, distances and flags, independent of the node and edge ids
+     */
+    static List<String> describeEdges(GraphHopperStorage storage) {
+        List<String> edges = new ArrayList<>();
+        AllEdgesIterator iter = storage.getAllEdges();
+        while (iter.next()) {
+            edges.add(iter.fetchWayGeometry(FetchMode.ALL) + " " + Math.round(iter.getDistance())
+                    + " " + Arrays.toString(iter.getFlags().ints));
+        }
+        Collections.sort(edges);
+        return edges;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.graphhopper.routing.ev.BooleanEncodedValue;
+import com.graphhopper.routing.ev.DecimalEncodedValue;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.util.EdgeIteratorState;
+import org.geotools.data.DataStore;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * Applies traffic tables from a MemoryDataStore to an imported graph and compares the edges with a graph that was
+ * imported without traffic.
+ *
+ * @author Robin Boldt
+ */
+public class TrafficUpdaterTest {
+
+    static final SimpleFeatureType TRAFFIC_TYPE = createTrafficType();
+    private final TestRoads testRoads = new TestRoads();
+    private final EncodingManager encodingManager = EncodingManager.create("car");
+    private final FlagEncoder car = encodingManager.getEncoder("car");
+
+    @Test
+    public void testSpeedsAndClosures() {
+        GraphHopperStorage graph = importGraph();
+        RoadEdgeIndex index = RoadEdgeIndex.load(graph.getDirectory());
+        assertTrue(index.isSorted());
+        TrafficUpdater updater = createUpdater(graph, index);
+
+        IntArrayList slowEdges = index.getEdges(1L);
+        IntArrayList closedEdges = index.getEdges(4L);
+        assertEquals(slowEdges.size() + closedEdges.size(),
+                updater.update(createTrafficStore(createTraffic(1, 20.0, false), createTraffic(4, null, true),
+                        createTraffic(99, 10.0, false))));
+        DecimalEncodedValue speedEnc = car.getAverageSpeedEnc();
+        BooleanEncodedValue accessEnc = car.getAccessEnc();
+        for (int i = 0; i < slowEdges.size(); i++) {
+            EdgeIteratorState edge = graph.getEdgeIteratorState(slowEdges.get(i), Integer.MIN_VALUE);
+            assertEquals(20, edge.get(speedEnc), 1e-6);
+            assertTrue(edge.get(accessEnc));
+        }
+        for (int i = 0; i < closedEdges.size(); i++) {
+            EdgeIteratorState edge = graph.getEdgeIteratorState(closedEdges.get(i), Integer.MIN_VALUE);
+            assertFalse(edge.get(accessEnc));
+            assertFalse(edge.getReverse(accessEnc));
+        }
+
+        // only the changed rows touch the graph
+        assertEquals(0, updater.update(createTrafficStore(createTraffic(1, 20.0, false), createTraffic(4, null, true))));
+        assertEquals(closedEdges.size(), updater.update(createTrafficStore(createTraffic(1, 20.0, false))));
+
+        // without rows all edges are like after the import
+        assertEquals(slowEdges.size(), updater.update(createTrafficStore()));
+        TestRoads.assertSameEdges(importGraph(), graph);
+    }
+
+    @Test
+    public void testRestore() {
+        GraphHopperStorage graph = importGraph();
+        TrafficUpdater updater = createUpdater(graph, RoadEdgeIndex.load(graph.getDirectory()));
+        DataStore traffic = createTrafficStore(createTraffic(2, 30.0, false), createTraffic(3, 0.0, false));
+        assertTrue(updater.update(traffic) > 0);
+        updater.restore();
+        TestRoads.assertSameEdges(importGraph(), graph);
+
+        // the next update applies the whole table again
+        assertTrue(updater.update(traffic) > 0);
+    }
+
+    private TrafficUpdater createUpdater(GraphHopperStorage graph, RoadEdgeIndex index) {
+        return new TrafficUpdater(graph, index, Collections.singletonList(car), TRAFFIC_TYPE.getTypeName(),
+                new ReentrantReadWriteLock().writeLock());
+    }
+
+    private GraphHopperStorage importGraph() {
+        Map<String, String> params = new HashMap<>();
+        params.put("traffic_table", TRAFFIC_TYPE.getTypeName());
+        return testRoads.importGraph(encodingManager, params, testRoads.createNetwork());
+    }
+
+    private static DataStore createTrafficStore(SimpleFeature... rows) {
+        MemoryDataStore store = new MemoryDataStore();
+        store.createSchema(TRAFFIC_TYPE);
+        store.addFeatures(rows);
+        return store;
+    }
+
+    static SimpleFeature createTraffic(long osmId, Double speed, boolean closed) {
+        return SimpleFeatureBuilder.build(TRAFFIC_TYPE, new Object[]{osmId, speed, closed}, "traffic." + osmId);
+    }
+
+    private static SimpleFeatureType createTrafficType() {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("traffic");
+        builder.add("osm_id", Long.class);
+        builder.add("speed", Double.class);
+        builder.add("closed", Boolean.class);
+        return builder.buildFeatureType();
+    }
+}
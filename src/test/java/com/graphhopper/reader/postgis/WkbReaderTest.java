@@ -0,0 +1,102 @@
+/*
+ *  Licensed to GraphHopper GmbH under one or more contributor
+ *  license agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  GraphHopper GmbH licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader.postgis;
+
+import com.graphhopper.util.PointList;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.io.ByteOrderValues;
+import com.vividsolutions.jts.io.WKBWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Robin Boldt
+ */
+public class WkbReaderTest {
+
+    private final GeometryFactory factory = new GeometryFactory();
+
+    @Test
+    public void testLineString() {
+        LineString line = factory.createLineString(new Coordinate[]{
+                new Coordinate(1.5, 42.5), new Coordinate(1.51, 42.51), new Coordinate(1.52, 42.49)});
+        byte[] wkb = new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN).write(line);
+
+        RoadRecord road = new RoadRecord(0);
+        new WkbReader().read(wkb, road);
+
+        assertEquals(1, road.getPartCount());
+        PointList points = road.getPart(0);
+        assertEquals(3, points.size());
+        assertEquals(42.5, points.getLat(0), 0);
+        assertEquals(1.5, points.getLon(0), 0);
+        assertEquals(42.49, points.getLat(2), 0);
+        assertEquals(1.52, points.getLon(2), 0);
+    }
+
+    @Test
+    public void testMultiLineStringWithZ() {
+        LineString first = factory.createLineString(new Coordinate[]{
+                new Coordinate(1.1234567, 42.1234564, 100), new Coordinate(1.2, 42.2, 110)});
+        LineString second = factory.createLineString(new Coordinate[]{
+                new Coordinate(1.3, 42.3, 120), new Coordinate(1.4, 42.4, 130), new Coordinate(1.5, 42.5, 140)});
+        byte[] wkb = new WKBWriter(3, ByteOrderValues.BIG_ENDIAN)
+                .write(factory.createMultiLineString(new LineString[]{first, second}));
+
+        RoadRecord road = new RoadRecord(0);
+        WkbReader reader = new WkbReader();
+        reader.read(wkb, road);
+
+        assertEquals(2, road.getPartCount());
+        assertEquals(2, road.getPart(0).size());
+        // coordinates are rounded like in the GeoTools backend
+        assertEquals(42.123456, road.getPart(0).getLat(0), 0);
+        assertEquals(1.123457, road.getPart(0).getLon(0), 0);
+        assertEquals(3, road.getPart(1).size());
+        assertEquals(42.5, road.getPart(1).getLat(2), 0);
+
+        // the reader and the record can be reused
+        road.clear();
+        reader.read(wkb, road);
+        assertEquals(2, road.getPartCount());
+        assertEquals(3, road.getPart(1).size());
+    }
+
+    @Test
+    public void testElevation() {
+        LineString withZ = factory.createLineString(new Coordinate[]{
+                new Coordinate(1.5, 42.5, 100.5), new Coordinate(1.51, 42.51, 110)});
+        LineString withoutZ = factory.createLineString(new Coordinate[]{
+                new Coordinate(1.5, 42.5), new Coordinate(1.51, 42.51)});
+
+        RoadRecord road = new RoadRecord(0, true);
+        WkbReader reader = new WkbReader();
+        reader.read(new WKBWriter(3, ByteOrderValues.LITTLE_ENDIAN).write(withZ), road);
+        assertEquals(100.5, road.getPart(0).getEle(0), 0);
+        assertEquals(110, road.getPart(0).getEle(1), 0);
+
+        road.clear();
+        reader.read(new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN).write(withoutZ), road);
+        assertEquals(42.51, road.getPart(0).getLat(1), 0);
+        assertTrue(Double.isNaN(road.getPart(0).getEle(1)));
+    }
+}